@@ -0,0 +1,82 @@
+package fluff.network.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fluff.network.NetworkException;
+import fluff.network.bench.Fixtures.DataPacket;
+import fluff.network.packet.channels.DefaultPacketChannel;
+import fluff.network.server.AbstractServer;
+import fluff.network.simple.SimpleClient;
+
+/**
+ * Measures how the cost of {@code sendAll} grows with the number of connected clients, from the call
+ * until every client received the packet.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BroadcastBenchmark {
+    
+    @Param({ "blocking", "nio" })
+    public String engine;
+    
+    @Param({ "1", "10", "100", "500" })
+    public int connections;
+    
+    @Param({ "256" })
+    public int size;
+    
+    private AbstractServer server;
+    private SimpleClient[] clients;
+    private DataPacket packet;
+    
+    private final AtomicLong received = new AtomicLong();
+    private long expected;
+    
+    @Setup
+    public void setup() throws IOException, NetworkException, InterruptedException {
+        int port = Fixtures.freePort();
+        this.server = Fixtures.startServer(port, engine, "platform", DefaultPacketChannel::new);
+        this.clients = new SimpleClient[connections];
+        for (int i = 0; i < connections; i++) {
+            clients[i] = Fixtures.connect(port, "platform", new DefaultPacketChannel(), received);
+        }
+        this.packet = new DataPacket(42, size);
+        
+        Fixtures.awaitConnections(server, connections);
+    }
+    
+    @TearDown
+    public void tearDown() {
+        for (SimpleClient client : clients) {
+            client.disconnect();
+        }
+        server.stop();
+    }
+    
+    @Benchmark
+    public void sendAll() {
+        server.sendAll(packet);
+        
+        expected += connections;
+        Fixtures.await(received, expected);
+    }
+}
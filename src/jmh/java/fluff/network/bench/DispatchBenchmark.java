@@ -0,0 +1,81 @@
+package fluff.network.bench;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import fluff.network.NetworkThreads;
+import fluff.network.SerialExecutor;
+import fluff.network.packet.DispatchMode;
+
+/**
+ * Measures the cost of handing packets from the reading thread to their handlers with every {@link DispatchMode},
+ * for handlers doing no work and handlers doing some. Each invocation dispatches a burst of packets
+ * and waits until all of them are handled.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DispatchBenchmark {
+    
+    private static final int BURST = 1000;
+    
+    @Param({ "INLINE", "POOL", "SERIAL" })
+    public DispatchMode mode;
+    
+    @Param({ "0", "500" })
+    public int work;
+    
+    private Executor executor;
+    private final AtomicLong handled = new AtomicLong();
+    private long target;
+    
+    @Setup
+    public void setup() {
+        switch (mode) {
+            case INLINE:
+                executor = Runnable::run;
+                break;
+            case POOL:
+                executor = NetworkThreads.dispatcher();
+                break;
+            case SERIAL:
+                executor = new SerialExecutor(NetworkThreads.dispatcher());
+                break;
+        }
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void dispatch() {
+        Runnable handler = this::handle;
+        for (int i = 0; i < BURST; i++) {
+            executor.execute(handler);
+        }
+        
+        target += BURST;
+        Fixtures.await(handled, target);
+    }
+    
+    private void handle() {
+        if (work > 0) Blackhole.consumeCPU(work);
+        handled.incrementAndGet();
+    }
+}
@@ -0,0 +1,111 @@
+package fluff.network.bench;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fluff.network.NetworkException;
+import fluff.network.packet.IBufferChannel;
+import fluff.network.packet.channels.AeadPacketChannel;
+import fluff.network.packet.channels.EncryptedPacketChannel;
+
+/**
+ * Measures an encode and decode round trip through the encrypting channels. The {@code uncached} channel
+ * is the baseline looking up the cipher and seeding a new {@link SecureRandom} for every frame, as
+ * {@link EncryptedPacketChannel} did before it kept them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EncryptionBenchmark {
+    
+    @Param({ "uncached", "cbc", "aes-gcm", "chacha20-poly1305" })
+    public String channel;
+    
+    @Param({ "64", "1024", "16384" })
+    public int size;
+    
+    private SecretKey key;
+    private byte[] payload;
+    
+    private IBufferChannel encoder;
+    private IBufferChannel decoder;
+    private ByteBuffer frame;
+    private ByteBuffer input;
+    
+    @Setup
+    public void setup() {
+        this.payload = new byte[size];
+        new SecureRandom().nextBytes(payload);
+        
+        switch (channel) {
+            case "cbc":
+                key = Fixtures.key("AES");
+                encoder = new EncryptedPacketChannel(key);
+                decoder = new EncryptedPacketChannel(key);
+                break;
+            case "aes-gcm":
+                key = Fixtures.key("AES");
+                encoder = new AeadPacketChannel(AeadPacketChannel.Algorithm.AES_GCM, key, false);
+                decoder = new AeadPacketChannel(AeadPacketChannel.Algorithm.AES_GCM, key, true);
+                break;
+            case "chacha20-poly1305":
+                key = Fixtures.key("ChaCha20");
+                encoder = new AeadPacketChannel(AeadPacketChannel.Algorithm.CHACHA20_POLY1305, key, false);
+                decoder = new AeadPacketChannel(AeadPacketChannel.Algorithm.CHACHA20_POLY1305, key, true);
+                break;
+            default:
+                key = Fixtures.key("AES");
+                return;
+        }
+        
+        this.frame = ByteBuffer.allocate(encoder.headerSize() + size + encoder.trailerSize());
+        this.input = ByteBuffer.allocate(encoder.headerSize() + size + 64);
+    }
+    
+    @Benchmark
+    public Object roundTrip() throws IOException, NetworkException, GeneralSecurityException {
+        if (encoder == null) return uncached();
+        
+        frame.clear().position(encoder.headerSize());
+        frame.put(payload).flip();
+        
+        ByteBuffer encoded = encoder.encode(frame);
+        input.clear().put(encoded).flip();
+        return decoder.decode(input);
+    }
+    
+    private byte[] uncached() throws GeneralSecurityException {
+        byte[] iv = new byte[16];
+        new SecureRandom().nextBytes(iv);
+        
+        Cipher encrypt = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        encrypt.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(iv));
+        byte[] encrypted = encrypt.doFinal(payload);
+        
+        Cipher decrypt = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        decrypt.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(iv));
+        return decrypt.doFinal(encrypted);
+    }
+}
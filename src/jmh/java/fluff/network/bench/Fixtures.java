@@ -0,0 +1,167 @@
+package fluff.network.bench;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import fluff.bin.Binary;
+import fluff.bin.IBinaryInput;
+import fluff.bin.IBinaryOutput;
+import fluff.functions.gen.Func;
+import fluff.network.AbstractClientNetHandler;
+import fluff.network.AbstractServerNetHandler;
+import fluff.network.NetworkException;
+import fluff.network.NetworkThreads;
+import fluff.network.client.IClient;
+import fluff.network.packet.IPacket;
+import fluff.network.packet.IPacketChannel;
+import fluff.network.packet.PacketContext;
+import fluff.network.server.AbstractServer;
+import fluff.network.server.IClientConnection;
+import fluff.network.server.IServer;
+import fluff.network.simple.SimpleClient;
+import fluff.network.simple.SimpleNIOServer;
+import fluff.network.simple.SimpleServer;
+
+/**
+ * Packets, handlers and loopback servers shared by the benchmarks.
+ */
+public class Fixtures {
+    
+    public static final int DATA_ID = 1;
+    
+    /**
+     * A packet carrying an int and a byte array, echoed back by the server.
+     */
+    public static class DataPacket implements IPacket {
+        
+        public int value;
+        public byte[] data;
+        
+        public DataPacket() {}
+        
+        public DataPacket(int value, int size) {
+            this.value = value;
+            this.data = new byte[size];
+            for (int i = 0; i < size; i++) {
+                data[i] = (byte) (i * 31);
+            }
+        }
+        
+        @Override
+        public void writeData(IBinaryOutput out) throws IOException {
+            Binary.Int(out, value);
+            Binary.LenBytes(out, data);
+        }
+        
+        @Override
+        public void readData(IBinaryInput in) throws IOException {
+            value = Binary.Int(in);
+            data = Binary.Bytes(in, Binary.Int(in));
+        }
+    }
+    
+    /**
+     * Echoes every received packet back to its client.
+     */
+    public static class EchoHandler extends AbstractServerNetHandler<IServer, IClientConnection> {
+        
+        void onData(DataPacket packet) {
+            connection.send(packet);
+        }
+    }
+    
+    /**
+     * Counts the packets received by a client, in a counter which may be shared by many clients.
+     */
+    public static class CountingHandler extends AbstractClientNetHandler<IClient> {
+        
+        final AtomicLong received;
+        
+        CountingHandler(AtomicLong received) {
+            this.received = received;
+        }
+        
+        void onData(DataPacket packet) {
+            received.incrementAndGet();
+        }
+    }
+    
+    public static PacketContext<EchoHandler> serverContext() {
+        return new PacketContext<EchoHandler>("bench").register(DATA_ID, DataPacket.class, DataPacket::new, EchoHandler::onData);
+    }
+    
+    public static PacketContext<CountingHandler> clientContext() {
+        return new PacketContext<CountingHandler>("bench").register(DATA_ID, DataPacket.class, DataPacket::new, CountingHandler::onData);
+    }
+    
+    public static SecretKey key(String algorithm) {
+        return new SecretKeySpec(new byte[32], algorithm);
+    }
+    
+    public static ThreadFactory threads(String threads) {
+        return threads.equals("virtual") ? NetworkThreads.virtual() : NetworkThreads.platform();
+    }
+    
+    public static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+    
+    /**
+     * Starts an echo server on a local port.
+     *
+     * @param port the port
+     * @param engine "blocking" or "nio"
+     * @param threads "platform" or "virtual"
+     * @param channel the channel of the connections
+     * @return the started server
+     */
+    public static AbstractServer startServer(int port, String engine, String threads, Func<? extends IPacketChannel> channel) throws IOException, NetworkException {
+        AbstractServer server = engine.equals("nio") ? new SimpleNIOServer(port) : new SimpleServer(port);
+        server.setThreadFactory(threads(threads));
+        server.setDefaultContext(serverContext(), EchoHandler::new);
+        server.setDefaultChannel(channel);
+        server.start(true);
+        return server;
+    }
+    
+    /**
+     * Connects a counting client to a local server.
+     */
+    public static SimpleClient connect(int port, String threads, IPacketChannel channel, AtomicLong received) throws IOException, NetworkException {
+        SimpleClient client = new SimpleClient();
+        client.setThreadFactory(threads(threads));
+        client.setContext(clientContext(), new CountingHandler(received));
+        client.setChannel(channel);
+        client.connect("localhost", port);
+        return client;
+    }
+    
+    /**
+     * Waits until the server registered the specified number of connections.
+     */
+    public static void awaitConnections(AbstractServer server, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (server.getConnections().size() < count) {
+            if (System.currentTimeMillis() > deadline) throw new IllegalStateException("Clients did not connect!");
+            Thread.sleep(1);
+        }
+    }
+    
+    /**
+     * Busy waits until the counter reaches the target, failing if the packets are lost.
+     */
+    public static void await(AtomicLong counter, long target) {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (counter.get() < target) {
+            if (System.nanoTime() > deadline) throw new IllegalStateException("Timed out at " + counter.get() + "/" + target + "!");
+            Thread.yield(); // leaves the CPU to the network threads on small machines
+        }
+    }
+}
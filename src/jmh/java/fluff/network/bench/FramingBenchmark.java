@@ -0,0 +1,98 @@
+package fluff.network.bench;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fluff.bin.stream.BinaryOutputStream;
+import fluff.network.NetworkException;
+import fluff.network.bench.Fixtures.DataPacket;
+import fluff.network.buffer.ByteBufferOutputStream;
+import fluff.network.buffer.IBufferAllocator;
+import fluff.network.packet.FrameFormat;
+import fluff.network.packet.IBufferChannel;
+import fluff.network.packet.channels.DefaultPacketChannel;
+
+/**
+ * Measures the framing of {@link DefaultPacketChannel} with both frame formats. The {@code wireBytes} counter
+ * reports the bytes written on the wire during each iteration, so divided by the encoded frames it gives
+ * the frame size, to compare the overhead of the formats for small packets.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FramingBenchmark {
+    
+    @Param({ "FIXED", "COMPACT" })
+    public FrameFormat format;
+    
+    @Param({ "0", "16", "1024" })
+    public int size;
+    
+    private IBufferChannel channel;
+    private DataPacket packet;
+    
+    private ByteBufferOutputStream sendBytes;
+    private BinaryOutputStream sendOut;
+    
+    private ByteBuffer frame;
+    
+    /**
+     * Counts the encoded bytes, reported next to the frame throughput.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Wire {
+        
+        public long wireBytes;
+        
+        @Setup(Level.Iteration)
+        public void reset() {
+            wireBytes = 0;
+        }
+    }
+    
+    @Setup
+    public void setup() throws IOException, NetworkException {
+        this.channel = new DefaultPacketChannel(format);
+        this.packet = new DataPacket(42, size);
+        this.sendBytes = new ByteBufferOutputStream(IBufferAllocator.HEAP, 8192);
+        this.sendOut = new BinaryOutputStream(sendBytes);
+        
+        ByteBuffer encoded = encode(new Wire());
+        this.frame = ByteBuffer.allocate(encoded.remaining()).put(encoded).flip();
+    }
+    
+    @Benchmark
+    public ByteBuffer encode(Wire wire) throws IOException, NetworkException {
+        sendBytes.reset(channel.headerSize());
+        format.writeID(sendBytes, Fixtures.DATA_ID);
+        sendOut.Data(packet);
+        
+        ByteBuffer encoded = channel.encode(sendBytes.flip(channel.trailerSize()));
+        wire.wireBytes += encoded.remaining();
+        return encoded;
+    }
+    
+    @Benchmark
+    public ByteBuffer decode() throws IOException, NetworkException {
+        return channel.decode(frame.duplicate());
+    }
+}
@@ -0,0 +1,99 @@
+package fluff.network.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fluff.network.NetworkException;
+import fluff.network.bench.Fixtures.DataPacket;
+import fluff.network.packet.FrameFormat;
+import fluff.network.packet.channels.DefaultPacketChannel;
+import fluff.network.server.AbstractServer;
+import fluff.network.simple.SimpleClient;
+
+/**
+ * Measures a client and an echo server talking over the loopback interface, with both server engines
+ * and both thread kinds. {@link #throughput()} reports echoed packets per second, and {@link #latency()}
+ * samples round trips, so its result includes the p50 and p99 percentiles. Virtual threads require a
+ * Java 21 runtime, the {@code virtual} runs fail on older ones.
+ */
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoopbackBenchmark {
+    
+    private static final int BURST = 1000;
+    
+    @Param({ "blocking", "nio" })
+    public String engine;
+    
+    @Param({ "platform", "virtual" })
+    public String threads;
+    
+    @Param({ "FIXED", "COMPACT" })
+    public FrameFormat format;
+    
+    @Param({ "64" })
+    public int size;
+    
+    private AbstractServer server;
+    private SimpleClient client;
+    private DataPacket packet;
+    
+    private final AtomicLong received = new AtomicLong();
+    private long sent;
+    
+    @Setup
+    public void setup() throws IOException, NetworkException, InterruptedException {
+        int port = Fixtures.freePort();
+        this.server = Fixtures.startServer(port, engine, threads, () -> new DefaultPacketChannel(format));
+        this.client = Fixtures.connect(port, threads, new DefaultPacketChannel(format), received);
+        this.packet = new DataPacket(42, size);
+        
+        Fixtures.awaitConnections(server, 1);
+    }
+    
+    @TearDown
+    public void tearDown() {
+        client.disconnect();
+        server.stop();
+    }
+    
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(BURST)
+    public void throughput() {
+        for (int i = 0; i < BURST; i++) {
+            client.send(packet);
+        }
+        
+        sent += BURST;
+        Fixtures.await(received, sent);
+    }
+    
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void latency() {
+        client.send(packet);
+        
+        sent++;
+        Fixtures.await(received, sent);
+    }
+}
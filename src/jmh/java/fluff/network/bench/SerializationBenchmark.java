@@ -0,0 +1,99 @@
+package fluff.network.bench;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import fluff.bin.stream.BinaryInputStream;
+import fluff.bin.stream.BinaryOutputStream;
+import fluff.network.NetworkException;
+import fluff.network.bench.Fixtures.DataPacket;
+import fluff.network.buffer.ByteBufferInputStream;
+import fluff.network.buffer.ByteBufferOutputStream;
+import fluff.network.buffer.IBufferAllocator;
+import fluff.network.packet.FrameFormat;
+import fluff.network.packet.IPacketBase;
+import fluff.network.packet.IPacketInbound;
+import fluff.network.packet.PacketContext;
+import fluff.network.packet.PacketDescriptor;
+
+/**
+ * Measures the packet ID lookups of plain and compiled contexts, and the serialization of a packet
+ * into the send buffer and back, as done by {@code AbstractClient.handleSend} and {@code handleReceive}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializationBenchmark {
+    
+    @Param({ "false", "true" })
+    public boolean compiled;
+    
+    @Param({ "16", "1024" })
+    public int size;
+    
+    private PacketContext<?> context;
+    private DataPacket packet;
+    
+    private ByteBufferOutputStream sendBytes;
+    private BinaryOutputStream sendOut;
+    
+    private ByteBuffer payload;
+    private final ByteBufferInputStream receiveBytes = new ByteBufferInputStream();
+    private final BinaryInputStream receiveIn = new BinaryInputStream(receiveBytes);
+    
+    @Setup
+    public void setup() throws IOException {
+        PacketContext<?> context = Fixtures.serverContext();
+        this.context = compiled ? context.compile() : context;
+        this.packet = new DataPacket(42, size);
+        this.sendBytes = new ByteBufferOutputStream(IBufferAllocator.HEAP, 8192);
+        this.sendOut = new BinaryOutputStream(sendBytes);
+        
+        write();
+        ByteBuffer written = sendBytes.flip();
+        this.payload = ByteBuffer.allocate(written.remaining()).put(written).flip();
+    }
+    
+    @Benchmark
+    public void lookup(Blackhole bh) {
+        bh.consume(context.contains(DataPacket.class));
+        bh.consume(context.getID(DataPacket.class));
+        bh.consume(context.getDescriptor(Fixtures.DATA_ID));
+    }
+    
+    @Benchmark
+    public int write() throws IOException {
+        sendBytes.reset(0);
+        FrameFormat.FIXED.writeID(sendBytes, context.getID(DataPacket.class));
+        sendOut.Data(packet);
+        return sendBytes.size();
+    }
+    
+    @Benchmark
+    public IPacketBase read() throws IOException, NetworkException {
+        ByteBuffer in = payload.duplicate();
+        PacketDescriptor descriptor = context.getDescriptor(FrameFormat.FIXED.readID(in));
+        IPacketInbound packet = (IPacketInbound) descriptor.create();
+        
+        receiveBytes.reset(in);
+        receiveIn.Data(packet);
+        return packet;
+    }
+}
@@ -0,0 +1,268 @@
+package fluff.network;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Represents a timer running short tasks after a delay on a single thread, using a hashed wheel of buckets.
+ * Scheduling and cancelling a task take constant time regardless of the number of pending tasks, and tasks
+ * run within one tick of their deadline. Delays are measured with {@link System#nanoTime()}.
+ * <p>
+ * The timer thread is started by the first scheduled task. Tasks must not block, since they delay every other task.
+ */
+public class HashedWheelTimer {
+    
+    public static final long DEFAULT_TICK_DURATION = TimeUnit.MILLISECONDS.toNanos(1);
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+    
+    private static final int INIT = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+    
+    private final ThreadFactory threadFactory;
+    private final String name;
+    private final long tickDuration;
+    private final Bucket[] wheel;
+    private final int mask;
+    
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pendingCount = new AtomicLong();
+    private final AtomicInteger state = new AtomicInteger(); // 0 new, 1 started, 2 stopped
+    
+    private volatile long startTime;
+    private volatile Thread thread;
+    private long tick;
+    
+    /**
+     * Constructs a new timer.
+     *
+     * @param threadFactory the factory of the timer thread
+     * @param name the name of the timer thread
+     * @param tickDuration the duration of a tick, which is the precision of the timer
+     * @param unit the unit of the tick duration
+     * @param wheelSize the number of buckets, rounded up to a power of 2
+     */
+    public HashedWheelTimer(ThreadFactory threadFactory, String name, long tickDuration, TimeUnit unit, int wheelSize) {
+        if (tickDuration <= 0) throw new IllegalArgumentException("Invalid tick duration " + tickDuration + "!");
+        if (wheelSize <= 0 || wheelSize > 1 << 30) throw new IllegalArgumentException("Invalid wheel size " + wheelSize + "!");
+        
+        this.threadFactory = threadFactory;
+        this.name = name;
+        this.tickDuration = unit.toNanos(tickDuration);
+        int size = 1;
+        while (size < wheelSize) size <<= 1;
+        
+        this.wheel = new Bucket[size];
+        this.mask = size - 1;
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new Bucket();
+        }
+    }
+    
+    /**
+     * Constructs a new timer with a 1 ms tick, running on a daemon platform thread.
+     *
+     * @param name the name of the timer thread
+     */
+    public HashedWheelTimer(String name) {
+        this(NetworkThreads.platform(), name, DEFAULT_TICK_DURATION, TimeUnit.NANOSECONDS, DEFAULT_WHEEL_SIZE);
+    }
+    
+    /**
+     * Schedules a task to run once after the specified delay.
+     *
+     * @param task the task to run on the timer thread
+     * @param delay the delay
+     * @param unit the unit of the delay
+     * @return the handle to cancel the task
+     * @throws IllegalStateException if the timer is stopped
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        start();
+        
+        Timeout timeout = new Timeout(this, task, System.nanoTime() - startTime + Math.max(unit.toNanos(delay), 0));
+        pendingCount.incrementAndGet();
+        added.add(timeout);
+        return timeout;
+    }
+    
+    private void start() {
+        if (state.get() == 0) {
+            synchronized (this) {
+                if (state.get() == 0) {
+                    startTime = System.nanoTime();
+                    state.set(1);
+                    thread = NetworkThreads.start(threadFactory, name, this::run);
+                }
+            }
+        }
+        if (state.get() == 2) throw new IllegalStateException("Timer " + name + " is stopped!");
+    }
+    
+    /**
+     * Stops the timer thread. Pending tasks never run.
+     */
+    public synchronized void stop() {
+        if (state.getAndSet(2) == 1) LockSupport.unpark(thread);
+    }
+    
+    /**
+     * Gets the number of tasks waiting to run.
+     *
+     * @return the pending task count
+     */
+    public long getPendingCount() {
+        return pendingCount.get();
+    }
+    
+    private void run() {
+        while (state.get() == 1) {
+            long deadline = tickDuration * (tick + 1);
+            long sleep;
+            while ((sleep = deadline - (System.nanoTime() - startTime)) > 0) {
+                LockSupport.parkNanos(this, sleep);
+                if (state.get() != 1) return;
+            }
+            
+            removeCancelled();
+            transferAdded();
+            wheel[(int) (tick & mask)].expire();
+            tick++;
+        }
+    }
+    
+    private void transferAdded() {
+        for (int i = 0; i < 100000; i++) { // bounded, so a flood of new tasks does not stall the wheel
+            Timeout timeout = added.poll();
+            if (timeout == null) return;
+            if (timeout.state.get() == CANCELLED) continue;
+            
+            long ticks = Math.max(timeout.deadline / tickDuration, tick); // late tasks go in the current bucket
+            timeout.remainingRounds = (ticks - tick) / wheel.length;
+            wheel[(int) (ticks & mask)].add(timeout);
+        }
+    }
+    
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            if (timeout.bucket != null) timeout.bucket.remove(timeout);
+        }
+    }
+    
+    /**
+     * Represents a task scheduled on a {@link HashedWheelTimer}.
+     */
+    public static class Timeout {
+        
+        private final HashedWheelTimer timer;
+        private final Runnable task;
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(INIT);
+        
+        // only accessed by the timer thread
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+        
+        private Timeout(HashedWheelTimer timer, Runnable task, long deadline) {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+        }
+        
+        /**
+         * Cancels the task if it has not run yet.
+         *
+         * @return true if the task was cancelled, false if it already ran or was cancelled
+         */
+        public boolean cancel() {
+            if (!state.compareAndSet(INIT, CANCELLED)) return false;
+            
+            timer.pendingCount.decrementAndGet();
+            timer.cancelled.add(this);
+            return true;
+        }
+        
+        /**
+         * Checks if the task has been cancelled.
+         *
+         * @return true if the task was cancelled, false otherwise
+         */
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+        
+        /**
+         * Checks if the task has run.
+         *
+         * @return true if the task ran, false otherwise
+         */
+        public boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+        
+        private void expire() {
+            if (!state.compareAndSet(INIT, EXPIRED)) return;
+            
+            timer.pendingCount.decrementAndGet();
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Thread t = Thread.currentThread();
+                t.getUncaughtExceptionHandler().uncaughtException(t, e);
+            }
+        }
+    }
+    
+    private static class Bucket {
+        
+        private Timeout head;
+        private Timeout tail;
+        
+        private void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+        
+        private void expire() {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.remainingRounds <= 0) {
+                    remove(timeout);
+                    timeout.expire();
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+        
+        private void remove(Timeout timeout) {
+            if (timeout.bucket != this) return;
+            
+            if (timeout.prev != null) timeout.prev.next = timeout.next;
+            else head = timeout.next;
+            if (timeout.next != null) timeout.next.prev = timeout.prev;
+            else tail = timeout.prev;
+            
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+}
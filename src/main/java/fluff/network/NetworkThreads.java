@@ -0,0 +1,119 @@
+package fluff.network;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Provides the thread factories used by clients and servers to run their blocking loops,
+ * the pool handling dispatched packets and the timer running timeouts.
+ */
+public class NetworkThreads {
+    
+    private static final ThreadFactory PLATFORM = task -> {
+        Thread t = new Thread(task);
+        t.setDaemon(true);
+        return t;
+    };
+    
+    private static final ThreadFactory VIRTUAL = createVirtual();
+    
+    private static ThreadFactory createVirtual() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Returns a factory creating daemon platform threads. This is the default for every client and server.
+     *
+     * @return the platform thread factory
+     */
+    public static ThreadFactory platform() {
+        return PLATFORM;
+    }
+    
+    /**
+     * Returns a factory creating virtual threads. Requires a Java 21 or newer runtime.
+     *
+     * @return the virtual thread factory
+     * @throws UnsupportedOperationException if the runtime does not support virtual threads
+     */
+    public static ThreadFactory virtual() {
+        if (VIRTUAL == null) throw new UnsupportedOperationException("Virtual threads are not supported by this runtime!");
+        return VIRTUAL;
+    }
+    
+    /**
+     * Checks if the runtime supports virtual threads.
+     *
+     * @return true if virtual threads are supported, false otherwise
+     */
+    public static boolean isVirtualSupported() {
+        return VIRTUAL != null;
+    }
+    
+    /**
+     * Returns the pool shared by every client handling packets with the {@link fluff.network.packet.DispatchMode#POOL}
+     * and {@link fluff.network.packet.DispatchMode#SERIAL} modes, unless another executor is set. The pool is created
+     * on the first call, with one daemon thread per processor, and idle threads stop after a minute.
+     *
+     * @return the shared dispatch pool
+     */
+    public static ExecutorService dispatcher() {
+        return Dispatcher.POOL;
+    }
+    
+    /**
+     * Returns the timer shared by every module and client scheduling timeouts, unless another timer is set.
+     * The timer thread is a daemon platform thread started by the first scheduled task, with a 1 ms tick.
+     *
+     * @return the shared timer
+     */
+    public static HashedWheelTimer timer() {
+        return Timer.TIMER;
+    }
+    
+    /**
+     * Creates, names and starts a new thread using the specified factory.
+     *
+     * @param factory the thread factory
+     * @param name the name of the thread
+     * @param task the task to run
+     * @return the started thread
+     */
+    public static Thread start(ThreadFactory factory, String name, Runnable task) {
+        Thread t = factory.newThread(task);
+        t.setName(name);
+        t.start();
+        return t;
+    }
+    
+    private static class Dispatcher {
+        
+        private static final ExecutorService POOL = create();
+        
+        private static ExecutorService create() {
+            AtomicInteger count = new AtomicInteger();
+            int threads = Runtime.getRuntime().availableProcessors();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), task -> {
+                Thread t = PLATFORM.newThread(task);
+                t.setName("Packet Dispatcher " + count.incrementAndGet());
+                return t;
+            });
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        }
+    }
+    
+    private static class Timer {
+        
+        private static final HashedWheelTimer TIMER = new HashedWheelTimer("Network Timer");
+    }
+}
@@ -0,0 +1,64 @@
+package fluff.network;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Represents an executor running its tasks one at a time, in submission order, on another executor.
+ * No thread is dedicated to it, so any number of serial executors can share the same pool.
+ */
+public class SerialExecutor implements Executor {
+    
+    private final Executor executor;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    
+    /**
+     * Constructs a new serial executor.
+     *
+     * @param executor the executor running the tasks
+     */
+    public SerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+    
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(task);
+        schedule();
+    }
+    
+    private void schedule() {
+        if (tasks.isEmpty() || !scheduled.compareAndSet(false, true)) return;
+        
+        try {
+            executor.execute(this::drain);
+        } catch (RuntimeException e) {
+            scheduled.set(false);
+            throw e;
+        }
+    }
+    
+    private void drain() {
+        try {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        } finally {
+            scheduled.set(false);
+            schedule(); // tasks added after the last poll, or left by a failing task
+        }
+    }
+    
+    /**
+     * Gets the number of tasks waiting to run.
+     *
+     * @return the pending task count
+     */
+    public int getPendingTasks() {
+        return tasks.size();
+    }
+}
@@ -0,0 +1,52 @@
+package fluff.network.buffer;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A reusable input stream reading the remaining bytes of a {@link ByteBuffer} without copying them.
+ */
+public class ByteBufferInputStream extends InputStream {
+    
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    
+    protected ByteBuffer buffer = EMPTY;
+    
+    /**
+     * Sets the buffer to read from.
+     * 
+     * @param buffer the buffer
+     * @return this stream
+     */
+    public ByteBufferInputStream reset(ByteBuffer buffer) {
+        this.buffer = buffer;
+        return this;
+    }
+    
+    @Override
+    public int read() {
+        return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+    
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) return 0;
+        if (!buffer.hasRemaining()) return -1;
+        
+        len = Math.min(len, buffer.remaining());
+        buffer.get(b, off, len);
+        return len;
+    }
+    
+    @Override
+    public long skip(long n) {
+        int len = (int) Math.max(0, Math.min(n, buffer.remaining()));
+        buffer.position(buffer.position() + len);
+        return len;
+    }
+    
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+}
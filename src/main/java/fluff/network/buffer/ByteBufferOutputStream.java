@@ -0,0 +1,156 @@
+package fluff.network.buffer;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A reusable output stream writing into a growable {@link ByteBuffer}.
+ * Space can be reserved in front of the written bytes so a frame header can later be written in place.
+ */
+public class ByteBufferOutputStream extends OutputStream {
+    
+    protected final IBufferAllocator allocator;
+    protected final int initialCapacity;
+    protected final int maxRetainedCapacity;
+    
+    protected ByteBuffer buffer;
+    
+    /**
+     * Constructs a new stream using the specified allocator.
+     * 
+     * @param allocator the buffer allocator
+     * @param initialCapacity the capacity of the buffer allocated on the first reset
+     * @param maxRetainedCapacity the maximum capacity kept between resets, larger buffers are given back to the allocator
+     */
+    public ByteBufferOutputStream(IBufferAllocator allocator, int initialCapacity, int maxRetainedCapacity) {
+        this.allocator = allocator;
+        this.initialCapacity = initialCapacity;
+        this.maxRetainedCapacity = maxRetainedCapacity;
+    }
+    
+    /**
+     * Constructs a new stream using the specified allocator, which keeps its buffer regardless of its capacity.
+     * 
+     * @param allocator the buffer allocator
+     * @param initialCapacity the capacity of the buffer allocated on the first reset
+     */
+    public ByteBufferOutputStream(IBufferAllocator allocator, int initialCapacity) {
+        this(allocator, initialCapacity, Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Discards the written bytes and reserves the specified number of bytes in front of the next written bytes.
+     * 
+     * @param headroom the number of bytes to reserve
+     * @return this stream
+     */
+    public ByteBufferOutputStream reset(int headroom) {
+        if (buffer != null && buffer.capacity() > maxRetainedCapacity) release();
+        if (buffer == null) buffer = allocator.allocate(Math.max(initialCapacity, headroom));
+        
+        buffer.clear();
+        ensureCapacity(headroom);
+        buffer.position(headroom);
+        return this;
+    }
+    
+    /**
+     * Makes sure at least the specified number of bytes can be written without growing.
+     * 
+     * @param len the number of bytes
+     */
+    public void ensureCapacity(int len) {
+        if (buffer.remaining() >= len) return;
+        
+        ByteBuffer grown = allocator.allocate(Math.max(buffer.capacity() * 2, buffer.position() + len));
+        grown.put(buffer.flip());
+        allocator.release(buffer);
+        buffer = grown;
+    }
+    
+    @Override
+    public void write(int b) {
+        ensureCapacity(1);
+        buffer.put((byte) b);
+    }
+    
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureCapacity(len);
+        buffer.put(b, off, len);
+    }
+    
+    /**
+     * Writes the remaining bytes of the specified buffer.
+     * 
+     * @param src the bytes to write
+     */
+    public void write(ByteBuffer src) {
+        ensureCapacity(src.remaining());
+        buffer.put(src);
+    }
+    
+    /**
+     * Reserves the specified number of bytes at the current position, so they can be written later.
+     * 
+     * @param len the number of bytes to reserve
+     * @return the index of the first reserved byte
+     */
+    public int skip(int len) {
+        ensureCapacity(len);
+        int index = buffer.position();
+        buffer.position(index + len);
+        return index;
+    }
+    
+    /**
+     * Gets the underlying buffer, positioned after the written bytes. The buffer is replaced
+     * when the stream grows, so it is only valid until the next write.
+     * 
+     * @return the underlying buffer
+     */
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+    
+    /**
+     * Gets the number of bytes written so far, including the reserved headroom.
+     * 
+     * @return the size
+     */
+    public int size() {
+        return buffer.position();
+    }
+    
+    /**
+     * Flips the underlying buffer so it holds the headroom followed by the written bytes,
+     * starting at position 0. The buffer is only valid until the next reset.
+     * 
+     * @return the underlying buffer
+     */
+    public ByteBuffer flip() {
+        return buffer.flip();
+    }
+    
+    /**
+     * Flips the underlying buffer like {@link #flip()}, making sure it has at least the specified
+     * number of bytes of capacity after the written bytes.
+     * 
+     * @param tailroom the number of bytes to reserve after the limit
+     * @return the underlying buffer
+     */
+    public ByteBuffer flip(int tailroom) {
+        ensureCapacity(tailroom);
+        return buffer.flip();
+    }
+    
+    /**
+     * Gives the underlying buffer back to the allocator. The next reset allocates a new one.
+     */
+    public void release() {
+        if (buffer == null) return;
+        
+        allocator.release(buffer);
+        buffer = null;
+    }
+}
@@ -0,0 +1,35 @@
+package fluff.network.buffer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Allocates the buffers used to serialize, frame and receive packets.
+ */
+@FunctionalInterface
+public interface IBufferAllocator {
+    
+    /**
+     * Allocator creating heap buffers.
+     */
+    IBufferAllocator HEAP = ByteBuffer::allocate;
+    
+    /**
+     * Allocator creating direct buffers.
+     */
+    IBufferAllocator DIRECT = ByteBuffer::allocateDirect;
+    
+    /**
+     * Allocates a cleared buffer with at least the specified capacity.
+     * 
+     * @param capacity the minimum capacity
+     * @return the buffer
+     */
+    ByteBuffer allocate(int capacity);
+    
+    /**
+     * Gives a buffer back to this allocator. The buffer must not be used after this call.
+     * 
+     * @param buffer the buffer
+     */
+    default void release(ByteBuffer buffer) {}
+}
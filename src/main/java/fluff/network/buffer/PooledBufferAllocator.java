@@ -0,0 +1,203 @@
+package fluff.network.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread safe {@link IBufferAllocator} which recycles released buffers in power of two size classes.
+ * Buffers larger than the maximum retained capacity are never pooled. The allocator counts every allocation,
+ * reuse and discarded buffer, so the allocation rate can be monitored.
+ */
+public class PooledBufferAllocator implements IBufferAllocator {
+    
+    public static final int DEFAULT_MIN_CAPACITY = 256;
+    public static final int DEFAULT_MAX_RETAINED_CAPACITY = 1024 * 1024;
+    public static final int DEFAULT_MAX_BUFFERS_PER_CLASS = 256;
+    
+    protected final boolean direct;
+    protected final int minCapacity;
+    protected final int maxRetainedCapacity;
+    protected final int maxBuffersPerClass;
+    
+    protected final Queue<ByteBuffer>[] pools;
+    protected final AtomicIntegerArray poolSizes;
+    
+    protected final LongAdder allocations = new LongAdder();
+    protected final LongAdder allocatedBytes = new LongAdder();
+    protected final LongAdder reuses = new LongAdder();
+    protected final LongAdder releases = new LongAdder();
+    protected final LongAdder discards = new LongAdder();
+    
+    /**
+     * Constructs a new pooled allocator.
+     *
+     * @param direct true to allocate direct buffers, false for heap buffers
+     * @param minCapacity the capacity of the smallest size class, rounded up to a power of two
+     * @param maxRetainedCapacity the capacity of the largest pooled size class, rounded up to a power of two
+     * @param maxBuffersPerClass the maximum number of idle buffers kept per size class
+     */
+    public PooledBufferAllocator(boolean direct, int minCapacity, int maxRetainedCapacity, int maxBuffersPerClass) {
+        if (minCapacity <= 0 || maxRetainedCapacity < minCapacity) throw new IllegalArgumentException("Invalid capacity range!");
+        
+        this.direct = direct;
+        this.minCapacity = roundUp(minCapacity);
+        this.maxRetainedCapacity = roundUp(maxRetainedCapacity);
+        this.maxBuffersPerClass = maxBuffersPerClass;
+        
+        int classes = Integer.numberOfTrailingZeros(this.maxRetainedCapacity) - Integer.numberOfTrailingZeros(this.minCapacity) + 1;
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        Queue<ByteBuffer>[] pools = new Queue[classes];
+        this.pools = pools;
+        for (int i = 0; i < classes; i++) {
+            pools[i] = new ConcurrentLinkedQueue<>();
+        }
+        this.poolSizes = new AtomicIntegerArray(classes);
+    }
+    
+    /**
+     * Constructs a new pooled allocator with the default size classes.
+     *
+     * @param direct true to allocate direct buffers, false for heap buffers
+     */
+    public PooledBufferAllocator(boolean direct) {
+        this(direct, DEFAULT_MIN_CAPACITY, DEFAULT_MAX_RETAINED_CAPACITY, DEFAULT_MAX_BUFFERS_PER_CLASS);
+    }
+    
+    /**
+     * Constructs a new pooled allocator of heap buffers with the default size classes.
+     */
+    public PooledBufferAllocator() {
+        this(false);
+    }
+    
+    private static int roundUp(int capacity) {
+        return capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+    }
+    
+    /**
+     * Gets the size class index for the specified capacity.
+     *
+     * @param capacity the capacity
+     * @return the size class index, or -1 if the capacity is not pooled
+     */
+    protected int sizeClass(int capacity) {
+        if (capacity > maxRetainedCapacity) return -1;
+        
+        return Integer.numberOfTrailingZeros(roundUp(Math.max(capacity, minCapacity))) - Integer.numberOfTrailingZeros(minCapacity);
+    }
+    
+    /**
+     * Allocates a new buffer and counts the allocation.
+     *
+     * @param capacity the capacity
+     * @return the new buffer
+     */
+    protected ByteBuffer newBuffer(int capacity) {
+        allocations.increment();
+        allocatedBytes.add(capacity);
+        
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+    
+    @Override
+    public ByteBuffer allocate(int capacity) {
+        int index = sizeClass(capacity);
+        if (index == -1) return newBuffer(capacity);
+        
+        ByteBuffer buffer = pools[index].poll();
+        if (buffer == null) return newBuffer(minCapacity << index);
+        
+        poolSizes.decrementAndGet(index);
+        reuses.increment();
+        return buffer.clear();
+    }
+    
+    @Override
+    public void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        int index = sizeClass(capacity);
+        if (index == -1 || capacity != minCapacity << index || buffer.isDirect() != direct || buffer.isReadOnly()) {
+            discards.increment();
+            return;
+        }
+        
+        if (poolSizes.incrementAndGet(index) > maxBuffersPerClass) {
+            poolSizes.decrementAndGet(index);
+            discards.increment();
+            return;
+        }
+        
+        pools[index].offer(buffer);
+        releases.increment();
+    }
+    
+    /**
+     * Gets the maximum capacity of a pooled buffer.
+     *
+     * @return the maximum retained capacity
+     */
+    public int getMaxRetainedCapacity() {
+        return maxRetainedCapacity;
+    }
+    
+    /**
+     * Gets the number of buffers which had to be newly allocated.
+     *
+     * @return the allocation count
+     */
+    public long getAllocationCount() {
+        return allocations.sum();
+    }
+    
+    /**
+     * Gets the total capacity of the buffers which had to be newly allocated.
+     *
+     * @return the allocated bytes
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes.sum();
+    }
+    
+    /**
+     * Gets the number of allocations served by a pooled buffer.
+     *
+     * @return the reuse count
+     */
+    public long getReuseCount() {
+        return reuses.sum();
+    }
+    
+    /**
+     * Gets the number of buffers given back to the pool.
+     *
+     * @return the release count
+     */
+    public long getReleaseCount() {
+        return releases.sum();
+    }
+    
+    /**
+     * Gets the number of released buffers which were dropped because they are not pooled or the pool was full.
+     *
+     * @return the discard count
+     */
+    public long getDiscardCount() {
+        return discards.sum();
+    }
+    
+    /**
+     * Gets the number of idle buffers currently kept by the pool.
+     *
+     * @return the pooled buffer count
+     */
+    public int getPooledCount() {
+        int count = 0;
+        for (int i = 0; i < poolSizes.length(); i++) {
+            count += poolSizes.get(i);
+        }
+        return count;
+    }
+}
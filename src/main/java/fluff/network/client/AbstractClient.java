@@ -2,23 +2,47 @@ package fluff.network.client;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import fluff.bin.stream.BinaryInputStream;
 import fluff.bin.stream.BinaryOutputStream;
 import fluff.network.INetHandler;
 import fluff.network.NetworkException;
+import fluff.network.NetworkThreads;
+import fluff.network.SerialExecutor;
+import fluff.network.buffer.ByteBufferInputStream;
+import fluff.network.buffer.ByteBufferOutputStream;
+import fluff.network.buffer.IBufferAllocator;
+import fluff.network.metrics.ConnectionMetrics;
+import fluff.network.metrics.NetworkMetrics;
+import fluff.network.packet.DispatchMode;
+import fluff.network.packet.FrameFormat;
+import fluff.network.packet.IBufferChannel;
 import fluff.network.packet.IPacketBase;
 import fluff.network.packet.IPacketChannel;
 import fluff.network.packet.IPacketInbound;
 import fluff.network.packet.IPacketOutbound;
+import fluff.network.packet.IStreamReceiver;
+import fluff.network.packet.PacketBatch;
 import fluff.network.packet.PacketContext;
 import fluff.network.packet.PacketDescriptor;
+import fluff.network.packet.SharedPacket;
 
 /**
  * Abstract implementation of the {@link IClient} interface. Handles the core functionalities 
@@ -26,13 +50,99 @@ import fluff.network.packet.PacketDescriptor;
  */
 public abstract class AbstractClient implements IClient {
     
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+    public static final int DEFAULT_MAX_RETAINED_CAPACITY = 64 * 1024;
+    public static final long DEFAULT_REQUEST_TIMEOUT = 30000;
+    public static final int DEFAULT_STREAM_CHUNK_SIZE = 16 * 1024;
+    public static final int DEFAULT_MAX_STREAM_SIZE = 64 * 1024 * 1024;
+    
     protected Socket socket;
     protected BufferedInputStream socketIn;
     protected BufferedOutputStream socketOut;
     
     protected PacketContext<?> context;
     protected INetHandler handler;
-    protected IPacketChannel channel;
+    protected IBufferChannel channel;
+    protected ThreadFactory threadFactory = NetworkThreads.platform();
+    protected IBufferAllocator allocator = IBufferAllocator.HEAP;
+    protected int maxRetainedCapacity = DEFAULT_MAX_RETAINED_CAPACITY;
+    protected int maxFrameSize = IBufferChannel.DEFAULT_MAX_FRAME_SIZE;
+    protected int writeQueueCapacity;
+    protected OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+    protected long lowWatermark = 0;
+    protected long highWatermark = Long.MAX_VALUE;
+    protected Executor dispatchExecutor;
+    
+    /**
+     * The metrics recorded by this client, or null if metrics are disabled.
+     */
+    protected ConnectionMetrics metrics;
+    
+    /**
+     * The executor handling {@link DispatchMode#SERIAL} packets of the current connection in order, created on the first one.
+     */
+    protected SerialExecutor serialExecutor;
+    
+    /**
+     * The queue drained by the writer, or null if packets are written synchronously by the sending thread.
+     */
+    protected WriteQueue writeQueue;
+    
+    /**
+     * The thread draining the write queue, or null if packets are written synchronously.
+     */
+    protected volatile Thread writerThread;
+    
+    /**
+     * The locks guarding the send buffer and the read pause. They are {@link ReentrantLock}s rather than monitors,
+     * so virtual threads blocked on a socket write or a paused read do not pin their carrier thread.
+     */
+    protected final ReentrantLock sendLock = new ReentrantLock();
+    protected final ReentrantLock readPauseLock = new ReentrantLock();
+    protected final Condition readResumed = readPauseLock.newCondition();
+    protected volatile boolean readPaused;
+    protected ByteBufferOutputStream sendBytes;
+    protected BinaryOutputStream sendOut;
+    
+    protected ByteBuffer receiveBuffer;
+    
+    /**
+     * The chunk through which frames without an accessible array are copied to the socket output stream.
+     * Only used by the thread writing to the socket, which holds the send lock or is the writer.
+     */
+    protected byte[] writeChunk;
+    
+    /**
+     * The requests sent by this client which are waiting for their response.
+     */
+    protected final PendingRequests requests = new PendingRequests();
+    
+    /**
+     * The outbound streams of the current connection, whose chunks are sent when nothing else is waiting to be written.
+     */
+    protected StreamScheduler streams = new StreamScheduler();
+    protected int streamChunkSize = DEFAULT_STREAM_CHUNK_SIZE;
+    protected final AtomicInteger nextStreamID = new AtomicInteger();
+    protected final AtomicBoolean streamsPumping = new AtomicBoolean();
+    protected int maxStreamSize = DEFAULT_MAX_STREAM_SIZE;
+    
+    /**
+     * The inbound streams being put back together by stream ID. Only accessed by the receiving thread.
+     */
+    protected final Map<Integer, ByteBufferOutputStream> inboundStreams = new HashMap<>();
+    
+    /**
+     * The receivers of the inbound streams with a body by stream ID. Only accessed by the receiving thread.
+     */
+    protected final Map<Integer, IStreamReceiver> openStreams = new HashMap<>();
+    
+    /**
+     * The {@link System#nanoTime()} of the last frame received, and of the last frame sent.
+     */
+    protected volatile long lastReadTime;
+    protected volatile long lastWriteTime;
+    protected final ByteBufferInputStream receiveBytes = new ByteBufferInputStream();
+    protected final BinaryInputStream receiveIn = new BinaryInputStream(receiveBytes);
     
     /**
      * Opens a connection to the specified socket.
@@ -43,19 +153,41 @@ public abstract class AbstractClient implements IClient {
      */
     protected void openConnection(Socket socket) throws IOException, NetworkException {
         if (isConnected()) throw new NetworkException("Client already has a connection!");
+        if (writeQueueCapacity > 0) checkOverflowPolicy();
         
         this.socket = socket;
         this.socketIn = new BufferedInputStream(socket.getInputStream());
         this.socketOut = new BufferedOutputStream(socket.getOutputStream());
+        this.receiveBuffer = allocateReceiveBuffer(DEFAULT_BUFFER_SIZE).flip();
+        this.serialExecutor = null;
+        this.streams = new StreamScheduler();
+        this.lastReadTime = this.lastWriteTime = System.nanoTime();
+        requests.open();
+        
+        // the writer must exist before the receiver, which may answer a ping right away
+        this.writeQueue = null;
+        if (writeQueueCapacity > 0) {
+            this.writeQueue = createWriteQueue(writeQueueCapacity);
+            NetworkThreads.start(threadFactory, "Packet Writer", this::handleWrite);
+        }
         
-        Thread t = new Thread(this::handleReceive);
-        t.setName("Packet Receiver");
-        t.setDaemon(true);
-        t.start();
+        NetworkThreads.start(threadFactory, "Packet Receiver", this::handleReceive);
         
         onConnect();
     }
     
+    /**
+     * Checks that the overflow policy of the write queue fits the channel. Dropping frames of a channel
+     * keeping per connection state, like encryption or streaming compression, would corrupt the following frames.
+     *
+     * @throws NetworkException if the {@link OverflowPolicy#DROP_OLDEST} policy is used with a channel without a frame key
+     */
+    protected void checkOverflowPolicy() throws NetworkException {
+        if (overflowPolicy == OverflowPolicy.DROP_OLDEST && channel.getFrameKey() == null) {
+            throw new NetworkException("The DROP_OLDEST overflow policy requires a channel without per connection state!");
+        }
+    }
+    
     /**
      * Closes the current connection.
      */
@@ -73,6 +205,85 @@ public abstract class AbstractClient implements IClient {
         try {
             socket.close();
         } catch (IOException e) {}
+        
+        readPauseLock.lock();
+        try {
+            readResumed.signalAll();
+        } finally {
+            readPauseLock.unlock();
+        }
+        
+        releaseBuffers();
+    }
+    
+    /**
+     * Creates the write queue of a new connection, with the configured overflow policy and watermarks.
+     * 
+     * @param capacity the maximum number of queued packets
+     * @return the write queue
+     */
+    protected WriteQueue createWriteQueue(int capacity) {
+        WriteQueue queue = new WriteQueue(capacity, overflowPolicy, allocator);
+        if (highWatermark != Long.MAX_VALUE) queue.setWatermarks(lowWatermark, highWatermark);
+        queue.setWritabilityListener(this::onWritabilityChanged);
+        return queue;
+    }
+    
+    /**
+     * Gives the send and receive buffers back to the allocator.
+     */
+    protected void releaseBuffers() {
+        if (writeQueue != null) writeQueue.close();
+        
+        sendLock.lock();
+        try {
+            if (sendBytes != null) sendBytes.release();
+        } finally {
+            sendLock.unlock();
+        }
+    }
+    
+    /**
+     * Allocates a receive buffer. The socket input stream can only fill array backed buffers,
+     * so a heap buffer is used if the allocator does not provide one.
+     * 
+     * @param capacity the minimum capacity
+     * @return the receive buffer
+     */
+    protected ByteBuffer allocateReceiveBuffer(int capacity) {
+        ByteBuffer buffer = allocator.allocate(capacity);
+        if (buffer.hasArray()) return buffer;
+        
+        allocator.release(buffer);
+        return ByteBuffer.allocate(capacity);
+    }
+    
+    /**
+     * Gives the receive buffer back to the allocator. Called by the receiver thread once it stops.
+     */
+    protected void releaseReceiveBuffer() {
+        releaseInboundStreams();
+        
+        if (receiveBuffer == null) return;
+        
+        allocator.release(receiveBuffer);
+        receiveBuffer = null;
+    }
+    
+    /**
+     * Gives the buffers of the partially received streams back to the allocator, and aborts the streams
+     * whose body was not completely received. Called by the receiving thread once it stops.
+     */
+    protected void releaseInboundStreams() {
+        for (ByteBufferOutputStream bytes : inboundStreams.values()) {
+            bytes.release();
+        }
+        inboundStreams.clear();
+        
+        for (IStreamReceiver receiver : openStreams.values()) {
+            receiver.onAbort();
+        }
+        openStreams.clear();
     }
     
     /**
@@ -110,9 +321,24 @@ public abstract class AbstractClient implements IClient {
      */
     @Override
     public void onDisconnect() {
+        requests.close(new NetworkException("Connection closed!"));
+        streams.close(new NetworkException("Connection closed!"));
+        
         handler.onDisconnect();
     }
     
+    /**
+     * Called when the write queue crosses its high watermark, or drops back to its low watermark.
+     * Notifies the handler if it is a {@link WriteQueue.WritabilityListener}.
+     * 
+     * @param writable the new writability
+     */
+    protected void onWritabilityChanged(boolean writable) {
+        if (handler instanceof WriteQueue.WritabilityListener listener) {
+            listener.onWritabilityChanged(writable);
+        }
+    }
+    
     /**
      * Handles sending a packet to the server.
      * 
@@ -125,101 +351,1348 @@ public abstract class AbstractClient implements IClient {
         Class<? extends IPacketOutbound> packetClass = packet.getClass();
         if (!context.contains(packetClass)) throw new NetworkException("Invalid packet!");
         
-        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-        BinaryOutputStream out = new BinaryOutputStream(bytes);
-        
-        out.Int(context.getID(packetClass));
-        out.Data(packet);
-        
-        channel.write(socketOut, bytes);
+        sendLock.lock();
+        try {
+            long start = metrics != null ? System.nanoTime() : 0;
+            resetSendBytes();
+            
+            channel.getFrameFormat().writeID(sendBytes, context.getID(packetClass));
+            sendOut.Data(packet);
+            
+            if (metrics != null) metrics.onPacketSent(packetClass, sendBytes.size() - channel.headerSize());
+            writePayload(start, true);
+        } finally {
+            sendLock.unlock();
+        }
     }
     
     /**
-     * Handles receiving packets from the server.
+     * Handles sending a packet shared with other clients. The shared frame is written as is if the channel
+     * can share frames, otherwise only the shared payload is framed by this client's channel.
+     * 
+     * @param packet the shared packet to send
+     * @throws SocketException if a socket error occurs
+     * @throws IOException if an I/O error occurs
+     * @throws NetworkException if a network error occurs
      */
-    protected void handleReceive() {
-        while (isConnected()) {
-            try {
-                ByteArrayInputStream bytes = channel.read(socketIn);
-                BinaryInputStream in = new BinaryInputStream(bytes);
-                
-                int id = in.Int();
-                if (!context.contains(id)) throw new NetworkException("Packet does not exist!");
-                
-                PacketDescriptor descriptor = context.getDescriptor(id);
-                IPacketBase packetBase = descriptor.create();
-                if (!(packetBase instanceof IPacketInbound packet)) throw new NetworkException("Received outbound packet!");
-                
-                in.Data(packet);
+    protected void handleSend(SharedPacket packet) throws SocketException, IOException, NetworkException {
+        sendLock.lock();
+        try {
+            long start = metrics != null ? System.nanoTime() : 0;
+            ByteBuffer frame = packet.frame(context, channel); // may encode with this client's channel
+            if (frame != null) {
+                if (metrics != null) {
+                    onSharedPacketSent(packet);
+                    metrics.onFrameSent(frame.remaining(), -1, System.nanoTime() - start);
+                }
+                writeSharedFrame(frame);
+                lastWriteTime = System.nanoTime();
+            } else {
+                ByteBuffer payload = packet.payload(context, channel.getFrameFormat());
+                resetSendBytes();
+                sendBytes.write(payload);
                 
-                receive(descriptor, packet);
-            } catch (SocketException e) {
-                onError(ClientErrorType.CONNECTION, e);
-            } catch (IOException | NetworkException e) {
-                onError(ClientErrorType.READ, e);
+                if (metrics != null) onSharedPacketSent(packet);
+                writePayload(start, true);
             }
+        } finally {
+            sendLock.unlock();
         }
     }
     
     /**
-     * Receives and handles an inbound packet.
+     * Handles sending a batch of packets to the server, in a single frame.
      * 
-     * @param descriptor the packet descriptor
-     * @param packet the packet to handle
+     * @param batch the batch to send
+     * @throws SocketException if a socket error occurs
+     * @throws IOException if an I/O error occurs
+     * @throws NetworkException if a network error occurs
      */
-    protected void receive(PacketDescriptor descriptor, IPacketInbound packet) {
-        Objects.requireNonNull(handler);
-        Objects.requireNonNull(descriptor);
-        Objects.requireNonNull(packet);
+    protected void handleSend(PacketBatch batch) throws SocketException, IOException, NetworkException {
+        sendLock.lock();
+        try {
+            long start = metrics != null ? System.nanoTime() : 0;
+            resetSendBytes();
+            
+            PacketBatch.write(sendBytes, sendOut, context, channel.getFrameFormat(), batch.getPackets());
+            
+            if (metrics != null) onBatchSent(batch.getPackets(), sendBytes.buffer().duplicate().flip().position(channel.headerSize()));
+            writePayload(start, true);
+        } finally {
+            sendLock.unlock();
+        }
+    }
+    
+    /**
+     * Handles sending a frame with a reserved packet ID followed by a correlation ID and optionally a packet,
+     * such as a {@link PacketContext#REQUEST_ID} frame.
+     * 
+     * @param id the reserved packet ID
+     * @param correlationID the correlation ID
+     * @param packet the packet to send, or null to only send the correlation ID
+     * @throws SocketException if a socket error occurs
+     * @throws IOException if an I/O error occurs
+     * @throws NetworkException if a network error occurs
+     */
+    protected void handleSendCorrelated(int id, int correlationID, IPacketOutbound packet) throws SocketException, IOException, NetworkException {
+        Class<? extends IPacketOutbound> packetClass = packet != null ? packet.getClass() : null;
+        if (packetClass != null && !context.contains(packetClass)) throw new NetworkException("Invalid packet!");
         
-        descriptor.handle(handler, packet);
+        sendLock.lock();
+        try {
+            long start = metrics != null ? System.nanoTime() : 0;
+            resetSendBytes();
+            
+            FrameFormat format = channel.getFrameFormat();
+            format.writeID(sendBytes, id);
+            int index = sendBytes.skip(Integer.BYTES);
+            sendBytes.buffer().putInt(index, correlationID);
+            if (packetClass != null) {
+                int packetStart = sendBytes.size();
+                format.writeID(sendBytes, context.getID(packetClass));
+                sendOut.Data(packet);
+                
+                if (metrics != null) metrics.onPacketSent(packetClass, sendBytes.size() - packetStart);
+            }
+            
+            writePayload(start, false);
+        } finally {
+            sendLock.unlock();
+        }
     }
     
-    @Override
-    public void send(IPacketOutbound packet) {
-        Objects.requireNonNull(context);
-        Objects.requireNonNull(channel);
-        Objects.requireNonNull(packet);
+    /**
+     * Writes the next chunk of the outbound stream with the highest priority. The stream is scheduled again
+     * before its chunk is written, so the writer can find it as soon as the chunk is written.
+     * 
+     * @return true if a chunk was written, false if no stream is waiting or the chunk could not be written
+     */
+    protected boolean writeNextChunk() {
+        return writeNextChunk(false);
+    }
+    
+    /**
+     * Writes the next chunk of the outbound stream with the highest priority. The thread draining the write queue
+     * must never wait for the send lock, since a sender may hold it while waiting for room in the queue,
+     * so it gives up if the lock is taken. The frame it queues is then written as soon as the sender is done.
+     * 
+     * @param writer true if the current thread drains the write queue
+     * @return true if a chunk was written, false if no stream is waiting or the chunk could not be written
+     */
+    protected boolean writeNextChunk(boolean writer) {
+        if (streams.isEmpty()) return false;
         
+        OutboundStream stream = null;
+        boolean last = false;
         try {
-            handleSend(packet);
+            if (writer) {
+                if (!sendLock.tryLock()) return false;
+            } else {
+                sendLock.lock();
+            }
+            try {
+                StreamScheduler streams = this.streams;
+                stream = streams.poll();
+                if (stream == null) return false;
+                
+                long start = metrics != null ? System.nanoTime() : 0;
+                resetSendBytes();
+                channel.getFrameFormat().writeID(sendBytes, PacketContext.STREAM_CHUNK_ID);
+                int index = sendBytes.skip(Integer.BYTES + 1);
+                byte flags = stream.writeChunk(sendBytes, streamChunkSize);
+                sendBytes.buffer().putInt(index, stream.getID()).put(index + Integer.BYTES, flags);
+                last = stream.isFinished();
+                
+                if (!last) streams.add(stream);
+                if (last && metrics != null) metrics.onPacketSent(stream.getPacketClass(), (int) Math.min(stream.getSize(), Integer.MAX_VALUE));
+                writePayload(start, false);
+                if (last) stream.complete();
+                return true;
+            } finally {
+                sendLock.unlock();
+            }
         } catch (SocketException e) {
+            if (last) stream.fail(e);
             onError(ClientErrorType.CONNECTION, e);
         } catch (IOException | NetworkException e) {
+            if (last) stream.fail(e);
             onError(ClientErrorType.WRITE, e);
         }
+        return false;
     }
     
-    @Override
-    public void disconnect() {
-        closeConnection();
+    /**
+     * Called after a stream was scheduled, to start sending its chunks. With a write queue, the writer sends the next
+     * chunk whenever the queue is empty, so the first one is written right away if nothing is queued. Without one,
+     * the chunks are written by a task of the dispatch executor, each one taking the send lock on its own so packets
+     * sent by other threads are written in between.
+     */
+    protected void onStreamQueued() {
+        WriteQueue queue = writeQueue;
+        if (queue != null) {
+            if (queue.isEmpty()) writeNextChunk();
+        } else if (streamsPumping.compareAndSet(false, true)) {
+            getDispatchExecutor().execute(this::pumpStreams);
+        }
     }
     
-    @Override
-    public boolean isConnected() {
-        return socket != null && socket.isConnected() && !socket.isClosed();
+    /**
+     * Writes the chunks of every outbound stream, until none is left or the connection is closed.
+     */
+    protected void pumpStreams() {
+        do {
+            while (isConnected() && writeNextChunk());
+            streamsPumping.set(false);
+        } while (isConnected() && !streams.isEmpty() && streamsPumping.compareAndSet(false, true));
     }
     
     /**
-     * Sets the packet context and handler unsafely and initializes the handler.
+     * Handles sending an empty frame with a reserved packet ID, such as {@link PacketContext#PING_ID}.
      * 
-     * @param context the packet context
-     * @param handler the network handler
+     * @param id the reserved packet ID
+     * @throws SocketException if a socket error occurs
+     * @throws IOException if an I/O error occurs
+     * @throws NetworkException if a network error occurs
      */
-    protected void setContextUnsafe(PacketContext<?> context, INetHandler handler) {
-        this.context = context;
-        this.handler = handler;
+    protected void handleSendControl(int id) throws SocketException, IOException, NetworkException {
+        sendLock.lock();
+        try {
+            long start = metrics != null ? System.nanoTime() : 0;
+            resetSendBytes();
+            
+            channel.getFrameFormat().writeID(sendBytes, id);
+            
+            writePayload(start, false);
+        } finally {
+            sendLock.unlock();
+        }
+    }
+    
+    /**
+     * Encodes the payload written in the send buffer and writes the frame, recording it if metrics are enabled.
+     * Must be called while holding the send lock.
+     * 
+     * @param start the {@link System#nanoTime()} at which the payload started being serialized, if metrics are enabled
+     * @param droppable true if the frame may be dropped by the {@link OverflowPolicy#DROP_OLDEST} policy
+     * @throws SocketException if a socket error occurs
+     * @throws IOException if an I/O error occurs
+     * @throws NetworkException if a network error occurs
+     */
+    protected void writePayload(long start, boolean droppable) throws SocketException, IOException, NetworkException {
+        ConnectionMetrics metrics = this.metrics;
+        if (metrics == null) {
+            writeFrame(channel.encode(sendBytes.flip(channel.trailerSize())), droppable);
+        } else {
+            long serialized = System.nanoTime();
+            ByteBuffer frame = channel.encode(sendBytes.flip(channel.trailerSize()));
+            metrics.onFrameSent(frame.remaining(), serialized - start, System.nanoTime() - serialized);
+            writeFrame(frame, droppable);
+        }
+        lastWriteTime = System.nanoTime();
+    }
+    
+    private void onSharedPacketSent(SharedPacket packet) throws IOException, NetworkException {
+        ByteBuffer payload = packet.payload(context, channel.getFrameFormat());
+        if (packet.getBatch() != null) {
+            onBatchSent(packet.getBatch(), payload);
+        } else {
+            metrics.onPacketSent(packet.getPacket().getClass(), payload.remaining());
+        }
+    }
+    
+    /**
+     * Records the packets of a serialized batch, each one with the size of its ID and data like a single packet.
+     */
+    private void onBatchSent(List<IPacketOutbound> packets, ByteBuffer payload) throws NetworkException {
+        FrameFormat format = channel.getFrameFormat();
+        format.readID(payload);
+        for (IPacketOutbound packet : packets) {
+            int index = payload.position();
+            int len = format.getLength(payload, index);
+            payload.position(index + format.lengthSize(len) + len);
+            
+            metrics.onPacketSent(packet.getClass(), len);
+        }
+    }
+    
+    /**
+     * Prepares the send buffer for a new frame. Must be called while holding the send lock.
+     * Fails once the client is closed, so no send buffer is taken from the allocator after {@link #releaseBuffers()}.
+     * 
+     * @throws SocketException if the client is closed
+     */
+    protected void resetSendBytes() throws SocketException {
+        if (!isConnected()) throw new SocketException("Client is closed!");
+        if (sendBytes == null) {
+            sendBytes = new ByteBufferOutputStream(allocator, DEFAULT_BUFFER_SIZE, maxRetainedCapacity);
+            sendOut = new BinaryOutputStream(sendBytes);
+        }
+        sendBytes.reset(channel.headerSize());
+    }
+    
+    /**
+     * Writes an encoded frame to the socket, or queues a copy of it if this client has a write queue.
+     * Must be called while holding the send lock.
+     * 
+     * @param frame the frame returned by the channel, only valid during this call
+     * @param droppable true if the frame may be dropped by the {@link OverflowPolicy#DROP_OLDEST} policy
+     * @throws SocketException if a socket error occurs
+     * @throws IOException if an I/O error occurs
+     */
+    protected void writeFrame(ByteBuffer frame, boolean droppable) throws SocketException, IOException {
+        if (writeQueue != null) {
+            queueFrame(frame, true, droppable);
+            return;
+        }
         
-        handler.onInit(this);
+        writeToSocket(frame);
+        socketOut.flush();
     }
     
-    @Override
-    public <V extends INetHandler> void setContext(PacketContext<? super V> context, V handler) {
-        setContextUnsafe(context, handler);
+    /**
+     * Writes a frame shared with other clients. Unlike {@link #writeFrame(ByteBuffer, boolean)}, the frame is queued
+     * without being copied, since it stays valid until it is written. Must be called while holding the send lock.
+     * 
+     * @param frame the shared frame
+     * @throws SocketException if a socket error occurs
+     * @throws IOException if an I/O error occurs
+     */
+    protected void writeSharedFrame(ByteBuffer frame) throws SocketException, IOException {
+        if (writeQueue != null) {
+            queueFrame(frame, false, true);
+            return;
+        }
+        
+        writeFrame(frame, true);
     }
     
-    @Override
-    public void setChannel(IPacketChannel channel) {
-        this.channel = channel;
+    /**
+     * Queues a frame in the write queue.
+     * 
+     * @param frame the frame
+     * @param copy true to queue a copy of the frame, false to queue the frame itself
+     * @param droppable true if the frame may be dropped by the {@link OverflowPolicy#DROP_OLDEST} policy
+     * @throws SocketException if the queue overflowed with the {@link OverflowPolicy#DISCONNECT} policy
+     * @throws IOException if an I/O error occurs
+     */
+    protected void queueFrame(ByteBuffer frame, boolean copy, boolean droppable) throws SocketException, IOException {
+        ByteBuffer queued = frame;
+        if (copy) {
+            queued = allocator.allocate(frame.remaining());
+            queued.put(frame).flip();
+        }
+        
+        if (!writeQueue.offer(queued, copy, droppable, canBlock())) throw new SocketException("Write queue overflow!");
+        
+        onFrameQueued();
+    }
+    
+    /**
+     * Checks if the sending thread may wait for room in the write queue. The writer never waits for room
+     * in its own queue, since nothing else would drain it.
+     * 
+     * @return true if the current thread may block, false otherwise
+     */
+    protected boolean canBlock() {
+        return Thread.currentThread() != writerThread;
+    }
+    
+    /**
+     * Called after a frame was queued, to wake up the writer.
+     */
+    protected void onFrameQueued() {}
+    
+    /**
+     * Writes the remaining bytes of a frame to the socket output stream, without flushing it.
+     * Frames in direct buffers are copied in bulk through a reused chunk.
+     * 
+     * @param frame the frame
+     * @throws SocketException if a socket error occurs
+     * @throws IOException if an I/O error occurs
+     */
+    protected void writeToSocket(ByteBuffer frame) throws SocketException, IOException {
+        if (frame.hasArray()) {
+            socketOut.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+            frame.position(frame.limit());
+            return;
+        }
+        
+        if (writeChunk == null) writeChunk = new byte[DEFAULT_BUFFER_SIZE];
+        while (frame.hasRemaining()) {
+            int n = Math.min(frame.remaining(), writeChunk.length);
+            frame.get(writeChunk, 0, n);
+            socketOut.write(writeChunk, 0, n);
+        }
+    }
+    
+    /**
+     * Drains the write queue, writing every frame queued at the same time with a single flush.
+     */
+    protected void handleWrite() {
+        writerThread = Thread.currentThread();
+        
+        WriteQueue queue = writeQueue;
+        while (true) {
+            WriteQueue.Entry entry;
+            try {
+                entry = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (entry == null) return;
+            
+            try {
+                do {
+                    try {
+                        writeToSocket(entry.buffer);
+                    } finally {
+                        queue.complete(entry);
+                    }
+                } while ((entry = queue.poll()) != null);
+                
+                socketOut.flush();
+                
+                if (queue.isEmpty()) writeNextChunk(true);
+            } catch (SocketException e) {
+                onError(ClientErrorType.CONNECTION, e);
+            } catch (IOException e) {
+                onError(ClientErrorType.WRITE, e);
+            }
+        }
+    }
+    
+    /**
+     * Handles receiving packets from the server.
+     */
+    protected void handleReceive() {
+        while (isConnected()) {
+            if (readPaused) {
+                awaitReadResumed();
+                continue;
+            }
+            
+            try {
+                handleReceive(readFrame());
+            } catch (SocketException e) {
+                onError(ClientErrorType.CONNECTION, e);
+            } catch (IOException | NetworkException e) {
+                onError(ClientErrorType.READ, e);
+            }
+        }
+        
+        releaseReceiveBuffer();
+    }
+    
+    /**
+     * Waits until reading is resumed or the connection is closed.
+     */
+    protected void awaitReadResumed() {
+        readPauseLock.lock();
+        try {
+            while (readPaused && isConnected()) {
+                try {
+                    readResumed.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        } finally {
+            readPauseLock.unlock();
+        }
+    }
+    
+    /**
+     * Blocks until the channel decodes the next frame from the socket.
+     * 
+     * @return the payload of the frame
+     * @throws IOException if an I/O error occurs
+     * @throws NetworkException if a network error occurs
+     */
+    protected ByteBuffer readFrame() throws IOException, NetworkException {
+        ByteBuffer payload;
+        while ((payload = decodeFrame(receiveBuffer)) == null) {
+            receiveBuffer.compact();
+            if (!receiveBuffer.hasRemaining()) {
+                int maxCapacity = getMaxReceiveCapacity();
+                if (receiveBuffer.capacity() >= maxCapacity) {
+                    receiveBuffer.flip();
+                    throw new NetworkException("Frame exceeds the maximum size of " + maxFrameSize + " bytes!");
+                }
+                
+                ByteBuffer grown = allocateReceiveBuffer((int) Math.min((long) receiveBuffer.capacity() * 2, maxCapacity)).put(receiveBuffer.flip());
+                allocator.release(receiveBuffer);
+                receiveBuffer = grown;
+            }
+            
+            int n = socketIn.read(receiveBuffer.array(), receiveBuffer.arrayOffset() + receiveBuffer.position(), receiveBuffer.remaining());
+            if (n > 0) receiveBuffer.position(receiveBuffer.position() + n);
+            receiveBuffer.flip();
+            
+            if (n == -1) throw new EOFException("Connection closed!");
+        }
+        return payload;
+    }
+    
+    /**
+     * Gets the maximum number of bytes buffered while receiving a frame, which is the maximum frame size
+     * plus some room for the framing of the channel. Channels which do not check the claimed length
+     * of a frame are stopped by this limit instead.
+     * 
+     * @return the maximum receive capacity
+     */
+    protected int getMaxReceiveCapacity() {
+        return (int) Math.min((long) maxFrameSize + DEFAULT_BUFFER_SIZE, Integer.MAX_VALUE - 8);
+    }
+    
+    /**
+     * Decodes the next frame from the received bytes. If the channel fails, the received bytes are discarded,
+     * since the stream can not be resynchronized.
+     * 
+     * @param input the received bytes
+     * @return the payload of the frame, or null if the frame is not complete yet
+     * @throws IOException if an I/O error occurs
+     * @throws NetworkException if a network error occurs
+     */
+    protected ByteBuffer decodeFrame(ByteBuffer input) throws IOException, NetworkException {
+        try {
+            ConnectionMetrics metrics = this.metrics;
+            if (metrics == null) return channel.decode(input);
+            
+            long start = System.nanoTime();
+            int position = input.position();
+            ByteBuffer payload = channel.decode(input);
+            if (payload != null) metrics.onFrameReceived(input.position() - position, System.nanoTime() - start);
+            return payload;
+        } catch (IOException | NetworkException e) {
+            input.position(input.limit());
+            throw e;
+        }
+    }
+    
+    /**
+     * Handles a single packet decoded by the channel.
+     * 
+     * @param payload the payload of the frame
+     * @throws IOException if an I/O error occurs
+     * @throws NetworkException if a network error occurs
+     */
+    protected void handleReceive(ByteBuffer payload) throws IOException, NetworkException {
+        lastReadTime = System.nanoTime();
+        
+        int id = channel.getFrameFormat().readID(payload);
+        switch (id) {
+            case PacketContext.BATCH_ID:
+                handleReceiveBatch(payload);
+                break;
+            case PacketContext.PING_ID:
+                handleSendControl(PacketContext.PONG_ID);
+                break;
+            case PacketContext.PONG_ID:
+                break;
+            case PacketContext.REQUEST_ID:
+                handleReceiveRequest(readCorrelationID(payload), payload);
+                break;
+            case PacketContext.RESPONSE_ID:
+                handleReceiveResponse(readCorrelationID(payload), payload);
+                break;
+            case PacketContext.REQUEST_FAILED_ID:
+                requests.fail(readCorrelationID(payload), new NetworkException("Request failed!"));
+                break;
+            case PacketContext.STREAM_CHUNK_ID:
+                handleReceiveChunk(payload);
+                break;
+            default:
+                handleReceive(id, payload);
+                break;
+        }
+    }
+    
+    /**
+     * Handles the packets of a batch frame in order.
+     * 
+     * @param payload the packets of the batch, each one prefixed with its length
+     * @throws IOException if an I/O error occurs
+     * @throws NetworkException if a network error occurs
+     */
+    protected void handleReceiveBatch(ByteBuffer payload) throws IOException, NetworkException {
+        FrameFormat format = channel.getFrameFormat();
+        while (payload.hasRemaining()) {
+            int start = payload.position();
+            int len = format.getLength(payload, start);
+            int offset = start + format.lengthSize(len);
+            if (len == -1 || payload.limit() - offset < len) throw new NetworkException("Truncated batch!");
+            
+            ByteBuffer packet = payload.slice(offset, len);
+            payload.position(offset + len);
+            
+            int id = format.readID(packet);
+            if (id == PacketContext.BATCH_ID) throw new NetworkException("Nested batch!");
+            
+            handleReceive(id, packet);
+        }
+    }
+    
+    /**
+     * Handles a single packet.
+     * 
+     * @param id the packet ID
+     * @param payload the packet data
+     * @throws IOException if an I/O error occurs
+     * @throws NetworkException if a network error occurs
+     */
+    protected void handleReceive(int id, ByteBuffer payload) throws IOException, NetworkException {
+        PacketDescriptor descriptor = getDescriptor(id);
+        if (descriptor.isRequest()) throw new NetworkException("Received request without correlation ID!");
+        if (descriptor.isStream()) throw new NetworkException("Received stream header outside a stream!");
+        
+        receive(descriptor, readPacket(descriptor, payload));
+    }
+    
+    /**
+     * Handles a chunk of an inbound stream. The chunks of a stream with a body are passed to its receiver,
+     * and the chunks of other streams are put back together until the last one is received.
+     * 
+     * @param payload the stream ID, flags and chunk
+     * @throws IOException if an I/O error occurs
+     * @throws NetworkException if a network error occurs
+     */
+    protected void handleReceiveChunk(ByteBuffer payload) throws IOException, NetworkException {
+        if (payload.remaining() < Integer.BYTES + 1) throw new NetworkException("Truncated stream chunk!");
+        
+        int streamID = payload.getInt();
+        byte flags = payload.get();
+        if ((flags & OutboundStream.OPEN_CHUNK) != 0) {
+            handleOpenStream(streamID, payload);
+            return;
+        }
+        
+        boolean last = (flags & OutboundStream.LAST_CHUNK) != 0;
+        IStreamReceiver receiver = openStreams.get(streamID);
+        if (receiver != null) {
+            handleStreamBody(streamID, receiver, payload, last, (flags & OutboundStream.ABORTED_CHUNK) != 0);
+            return;
+        }
+        
+        ByteBufferOutputStream bytes = inboundStreams.get(streamID);
+        if (bytes == null) {
+            if (last) { // single chunk stream
+                handleReceiveStream(payload);
+                return;
+            }
+            
+            bytes = new ByteBufferOutputStream(allocator, Math.max(payload.remaining() * 2, DEFAULT_BUFFER_SIZE)).reset(0);
+            inboundStreams.put(streamID, bytes);
+        }
+        if ((long) bytes.size() + payload.remaining() > maxStreamSize) throw new NetworkException("Stream exceeds the maximum size of " + maxStreamSize + " bytes!");
+        
+        bytes.write(payload);
+        if (!last) return;
+        
+        inboundStreams.remove(streamID);
+        try {
+            handleReceiveStream(bytes.flip());
+        } finally {
+            bytes.release();
+        }
+    }
+    
+    /**
+     * Handles the header of a stream with a body, and opens the stream with the receiver returned by its descriptor.
+     * 
+     * @param streamID the stream ID
+     * @param data the header packet ID and data
+     * @throws IOException if an I/O error occurs
+     * @throws NetworkException if a network error occurs
+     */
+    protected void handleOpenStream(int streamID, ByteBuffer data) throws IOException, NetworkException {
+        if (openStreams.containsKey(streamID) || inboundStreams.containsKey(streamID)) throw new NetworkException("Duplicate stream " + streamID + "!");
+        
+        PacketDescriptor descriptor = getDescriptor(channel.getFrameFormat().readID(data));
+        if (!descriptor.isStream()) throw new NetworkException("Received stream body for a non-stream packet!");
+        
+        IPacketInbound packet = readPacket(descriptor, data);
+        IStreamReceiver receiver;
+        try {
+            receiver = descriptor.open(handler, packet);
+        } finally {
+            descriptor.release(packet);
+        }
+        openStreams.put(streamID, receiver != null ? receiver : IStreamReceiver.DISCARD);
+    }
+    
+    /**
+     * Passes a chunk of a stream body to its receiver. If the receiver fails, the rest of the body is discarded.
+     * 
+     * @param streamID the stream ID
+     * @param receiver the receiver of the stream
+     * @param chunk the chunk
+     * @param last whether the chunk is the last one
+     * @param aborted whether the sender failed to read the body
+     */
+    protected void handleStreamBody(int streamID, IStreamReceiver receiver, ByteBuffer chunk, boolean last, boolean aborted) {
+        try {
+            if (chunk.hasRemaining()) receiver.onChunk(chunk);
+        } catch (IOException e) {
+            receiver.onAbort();
+            receiver = IStreamReceiver.DISCARD;
+            openStreams.put(streamID, receiver);
+        }
+        if (!last) return;
+        
+        openStreams.remove(streamID);
+        if (aborted) {
+            receiver.onAbort();
+        } else {
+            receiver.onComplete();
+        }
+    }
+    
+    /**
+     * Handles the packet of a completely received stream.
+     * 
+     * @param data the packet ID and data
+     * @throws IOException if an I/O error occurs
+     * @throws NetworkException if a network error occurs
+     */
+    protected void handleReceiveStream(ByteBuffer data) throws IOException, NetworkException {
+        handleReceive(channel.getFrameFormat().readID(data), data);
+    }
+    
+    /**
+     * Reads the correlation ID following a reserved packet ID.
+     * 
+     * @param payload the payload of the frame
+     * @return the correlation ID
+     * @throws NetworkException if the frame is too short
+     */
+    protected int readCorrelationID(ByteBuffer payload) throws NetworkException {
+        if (payload.remaining() < Integer.BYTES) throw new NetworkException("Truncated correlation ID!");
+        
+        return payload.getInt();
+    }
+    
+    /**
+     * Handles a request, answering it with a {@link PacketContext#RESPONSE_ID} frame once its descriptor responds,
+     * or with a {@link PacketContext#REQUEST_FAILED_ID} frame if it is not a registered request.
+     * 
+     * @param correlationID the correlation ID of the request
+     * @param payload the packet ID and data of the request
+     * @throws IOException if an I/O error occurs
+     * @throws NetworkException if a network error occurs
+     */
+    protected void handleReceiveRequest(int correlationID, ByteBuffer payload) throws IOException, NetworkException {
+        int id = channel.getFrameFormat().readID(payload);
+        PacketDescriptor descriptor = context.getDescriptor(id);
+        if (descriptor == null || !descriptor.isRequest()) {
+            handleSendCorrelated(PacketContext.REQUEST_FAILED_ID, correlationID, null);
+            return;
+        }
+        
+        IPacketInbound packet = readPacket(descriptor, payload);
+        dispatch(descriptor.getDispatchMode(), () -> respond(correlationID, descriptor, packet));
+    }
+    
+    /**
+     * Handles the response to a request sent by this client, completing its future. Responses to requests
+     * which already completed, for example because they timed out, are dropped.
+     * 
+     * @param correlationID the correlation ID of the request
+     * @param payload the packet ID and data of the response
+     * @throws IOException if an I/O error occurs
+     * @throws NetworkException if a network error occurs
+     */
+    protected void handleReceiveResponse(int correlationID, ByteBuffer payload) throws IOException, NetworkException {
+        int id = channel.getFrameFormat().readID(payload);
+        PacketDescriptor descriptor = getDescriptor(id);
+        
+        requests.complete(correlationID, readPacket(descriptor, payload));
+    }
+    
+    /**
+     * Gets the descriptor of a received packet.
+     * 
+     * @param id the packet ID
+     * @return the packet descriptor
+     * @throws NetworkException if no packet is registered with the ID
+     */
+    protected PacketDescriptor getDescriptor(int id) throws NetworkException {
+        PacketDescriptor descriptor = context.getDescriptor(id);
+        if (descriptor == null) throw new NetworkException("Packet does not exist!");
+        
+        return descriptor;
+    }
+    
+    /**
+     * Creates a packet from its descriptor and deserializes it.
+     * 
+     * @param descriptor the packet descriptor
+     * @param payload the packet data
+     * @return the packet
+     * @throws IOException if an I/O error occurs
+     * @throws NetworkException if a network error occurs
+     */
+    protected IPacketInbound readPacket(PacketDescriptor descriptor, ByteBuffer payload) throws IOException, NetworkException {
+        receiveBytes.reset(payload);
+        
+        IPacketBase packetBase = descriptor.create();
+        if (!(packetBase instanceof IPacketInbound packet)) throw new NetworkException("Received outbound packet!");
+        
+        ConnectionMetrics metrics = this.metrics;
+        if (metrics == null) {
+            receiveIn.Data(packet);
+        } else {
+            int size = payload.remaining();
+            long start = System.nanoTime();
+            receiveIn.Data(packet);
+            metrics.onPacketReceived(packet.getClass(), size, System.nanoTime() - start);
+        }
+        return packet;
+    }
+    
+    /**
+     * Receives an inbound packet and handles it on the thread selected by the {@link DispatchMode} of its descriptor.
+     * 
+     * @param descriptor the packet descriptor
+     * @param packet the packet to handle
+     */
+    protected void receive(PacketDescriptor descriptor, IPacketInbound packet) {
+        Objects.requireNonNull(handler);
+        Objects.requireNonNull(descriptor);
+        Objects.requireNonNull(packet);
+        
+        switch (descriptor.getDispatchMode()) {
+            case INLINE:
+                handle(descriptor, packet);
+                break;
+            case POOL:
+                getDispatchExecutor().execute(() -> handle(descriptor, packet));
+                break;
+            case SERIAL:
+                if (serialExecutor == null) serialExecutor = new SerialExecutor(getDispatchExecutor());
+                serialExecutor.execute(() -> handle(descriptor, packet));
+                break;
+        }
+    }
+    
+    /**
+     * Runs a task on the thread selected by a {@link DispatchMode}.
+     * 
+     * @param mode the dispatch mode
+     * @param task the task
+     */
+    protected void dispatch(DispatchMode mode, Runnable task) {
+        switch (mode) {
+            case INLINE:
+                task.run();
+                break;
+            case POOL:
+                getDispatchExecutor().execute(task);
+                break;
+            case SERIAL:
+                if (serialExecutor == null) serialExecutor = new SerialExecutor(getDispatchExecutor());
+                serialExecutor.execute(task);
+                break;
+        }
+    }
+    
+    /**
+     * Handles a request, sends its response, then gives it back to the pool of its descriptor. If the descriptor
+     * fails or returns no response, the requesting client is told the request failed.
+     * 
+     * @param correlationID the correlation ID of the request
+     * @param descriptor the request descriptor
+     * @param packet the request packet
+     */
+    protected void respond(int correlationID, PacketDescriptor descriptor, IPacketInbound packet) {
+        IPacketOutbound response = null;
+        try {
+            ConnectionMetrics metrics = this.metrics;
+            if (metrics == null) {
+                response = descriptor.respond(handler, packet);
+            } else {
+                Class<?> packetClass = packet.getClass();
+                long start = System.nanoTime();
+                response = descriptor.respond(handler, packet);
+                metrics.onHandled(packetClass, System.nanoTime() - start);
+            }
+        } finally {
+            descriptor.release(packet);
+            
+            try {
+                if (response != null) {
+                    handleSendCorrelated(PacketContext.RESPONSE_ID, correlationID, response);
+                } else {
+                    handleSendCorrelated(PacketContext.REQUEST_FAILED_ID, correlationID, null);
+                }
+            } catch (SocketException e) {
+                onError(ClientErrorType.CONNECTION, e);
+            } catch (IOException | NetworkException e) {
+                onError(ClientErrorType.WRITE, e);
+            }
+        }
+    }
+    
+    /**
+     * Handles an inbound packet, then gives it back to the pool of its descriptor.
+     * 
+     * @param descriptor the packet descriptor
+     * @param packet the packet to handle
+     */
+    protected void handle(PacketDescriptor descriptor, IPacketInbound packet) {
+        ConnectionMetrics metrics = this.metrics;
+        if (metrics == null) {
+            descriptor.handle(handler, packet);
+        } else {
+            Class<?> packetClass = packet.getClass();
+            long start = System.nanoTime();
+            descriptor.handle(handler, packet);
+            metrics.onHandled(packetClass, System.nanoTime() - start);
+        }
+        descriptor.release(packet);
+    }
+    
+    @Override
+    public void send(IPacketOutbound packet) {
+        Objects.requireNonNull(context);
+        Objects.requireNonNull(channel);
+        Objects.requireNonNull(packet);
+        
+        try {
+            handleSend(packet);
+        } catch (SocketException e) {
+            onError(ClientErrorType.CONNECTION, e);
+        } catch (IOException | NetworkException e) {
+            onError(ClientErrorType.WRITE, e);
+        }
+    }
+    
+    @Override
+    public PacketBatch batch() {
+        return new PacketBatch(this::send);
+    }
+    
+    @Override
+    public void send(PacketBatch batch) {
+        Objects.requireNonNull(context);
+        Objects.requireNonNull(channel);
+        Objects.requireNonNull(batch);
+        
+        try {
+            handleSend(batch);
+        } catch (SocketException e) {
+            onError(ClientErrorType.CONNECTION, e);
+        } catch (IOException | NetworkException e) {
+            onError(ClientErrorType.WRITE, e);
+        }
+    }
+    
+    /**
+     * Sends a packet shared with other clients, without serializing it again.
+     * 
+     * @param packet the shared packet to send
+     */
+    public void send(SharedPacket packet) {
+        Objects.requireNonNull(context);
+        Objects.requireNonNull(channel);
+        Objects.requireNonNull(packet);
+        
+        try {
+            handleSend(packet);
+        } catch (SocketException e) {
+            onError(ClientErrorType.CONNECTION, e);
+        } catch (IOException | NetworkException e) {
+            onError(ClientErrorType.WRITE, e);
+        }
+    }
+    
+    /**
+     * Sends a request and returns the future completed by its response. Any number of requests may be in flight
+     * at the same time. The future is completed on the thread receiving packets, so long continuations should
+     * use the asynchronous methods of the future.
+     * 
+     * @param <R> the type of the response packet
+     * @param packet the request packet, registered with {@link PacketContext#registerRequest} by the peer
+     * @param timeout the time in milliseconds to wait for the response, or 0 to wait until the connection is closed
+     * @return the future completed by the response, or failed if the request could not be sent, failed or timed out
+     * @see PendingRequests
+     */
+    @SuppressWarnings("unchecked")
+    public <R extends IPacketInbound> CompletableFuture<R> request(IPacketOutbound packet, long timeout) {
+        Objects.requireNonNull(context);
+        Objects.requireNonNull(channel);
+        Objects.requireNonNull(packet);
+        
+        CompletableFuture<IPacketInbound> future = new CompletableFuture<>();
+        int correlationID = requests.add(future, timeout);
+        if (future.isDone()) return (CompletableFuture<R>) future;
+        
+        try {
+            handleSendCorrelated(PacketContext.REQUEST_ID, correlationID, packet);
+        } catch (SocketException e) {
+            future.completeExceptionally(e);
+            onError(ClientErrorType.CONNECTION, e);
+        } catch (IOException | NetworkException e) {
+            future.completeExceptionally(e);
+            onError(ClientErrorType.WRITE, e);
+        }
+        return (CompletableFuture<R>) future;
+    }
+    
+    /**
+     * Sends a request and returns the future completed by its response, failing after {@link #DEFAULT_REQUEST_TIMEOUT}.
+     * 
+     * @param <R> the type of the response packet
+     * @param packet the request packet, registered with {@link PacketContext#registerRequest} by the peer
+     * @return the future completed by the response
+     * @see #request(IPacketOutbound, long)
+     */
+    public <R extends IPacketInbound> CompletableFuture<R> request(IPacketOutbound packet) {
+        return request(packet, DEFAULT_REQUEST_TIMEOUT);
+    }
+    
+    /**
+     * Gets the requests sent by this client which are waiting for their response.
+     * 
+     * @return the pending requests
+     */
+    public PendingRequests getPendingRequests() {
+        return requests;
+    }
+    
+    /**
+     * Sends a packet as a stream, split in chunks which are only written when no other packet is waiting,
+     * so a large packet does not delay the small packets sent after it. Streams with a higher priority
+     * are sent first, and streams with the same priority are interleaved. The peer handles the packet
+     * like any other once its last chunk is received.
+     * 
+     * @param packet the packet to send
+     * @param priority the priority of the stream
+     * @return the future completed once the last chunk was written, or failed if the stream was abandoned
+     * @see #setStreamChunkSize(int)
+     */
+    public CompletableFuture<Void> sendStream(IPacketOutbound packet, int priority) {
+        return queueStream(packet, null, priority);
+    }
+    
+    /**
+     * Serializes a packet and schedules it as a stream.
+     * 
+     * @param packet the packet, or the header of the body
+     * @param body the body, or null if the packet is sent alone
+     * @param priority the priority of the stream
+     * @return the future completed once the last chunk was written, or failed if the stream was abandoned
+     */
+    protected CompletableFuture<Void> queueStream(IPacketOutbound packet, InputStream body, int priority) {
+        Objects.requireNonNull(context);
+        Objects.requireNonNull(channel);
+        Objects.requireNonNull(packet);
+        
+        Class<? extends IPacketOutbound> packetClass = packet.getClass();
+        ByteBufferOutputStream bytes = new ByteBufferOutputStream(allocator, DEFAULT_BUFFER_SIZE).reset(0);
+        try {
+            if (!context.contains(packetClass)) throw new NetworkException("Invalid packet!");
+            
+            channel.getFrameFormat().writeID(bytes, context.getID(packetClass));
+            new BinaryOutputStream(bytes).Data(packet);
+        } catch (IOException | NetworkException e) {
+            bytes.release();
+            onError(ClientErrorType.WRITE, e);
+            return CompletableFuture.failedFuture(e);
+        }
+        
+        int id = nextStreamID.getAndIncrement();
+        OutboundStream stream = body != null
+                ? new OutboundStream(id, priority, packetClass, bytes, body)
+                : new OutboundStream(id, priority, packetClass, bytes);
+        streams.add(stream);
+        onStreamQueued();
+        return stream.getFuture();
+    }
+    
+    /**
+     * Sends a header packet followed by a body of any size as a stream. Like {@link #sendStream(IPacketOutbound, int)},
+     * its chunks are only written when no other packet is waiting, but the body is read one chunk at a time
+     * by the writing thread, so it is never buffered by either client. Since the send lock is held while
+     * a chunk is read, the body should not block for long. The peer opens the stream with the descriptor
+     * registered by {@link PacketContext#registerStream}, and its receiver gets the body chunk by chunk.
+     * 
+     * @param header the header packet to send
+     * @param body the body, closed once the stream completes
+     * @param priority the priority of the stream
+     * @return the future completed once the last chunk was written, or failed if the stream was abandoned or the body could not be read
+     * @see #setStreamChunkSize(int)
+     */
+    public CompletableFuture<Void> sendStream(IPacketOutbound header, InputStream body, int priority) {
+        Objects.requireNonNull(body);
+        
+        return queueStream(header, body, priority);
+    }
+    
+    /**
+     * Sends a packet as a stream with priority 0.
+     * 
+     * @param packet the packet to send
+     * @return the future completed once the last chunk was written, or failed if the stream was abandoned
+     * @see #sendStream(IPacketOutbound, int)
+     */
+    public CompletableFuture<Void> sendStream(IPacketOutbound packet) {
+        return sendStream(packet, 0);
+    }
+    
+    /**
+     * Sends an empty keepalive frame, which the peer answers with another one. Keepalive frames are
+     * never passed to the handler, but reset the idle times of both clients.
+     * 
+     * @see IdleMonitor
+     */
+    public void sendKeepalive() {
+        Objects.requireNonNull(channel);
+        
+        try {
+            handleSendControl(PacketContext.PING_ID);
+        } catch (SocketException e) {
+            onError(ClientErrorType.CONNECTION, e);
+        } catch (IOException | NetworkException e) {
+            onError(ClientErrorType.WRITE, e);
+        }
+    }
+    
+    @Override
+    public void disconnect() {
+        closeConnection();
+    }
+    
+    @Override
+    public boolean isWritable() {
+        WriteQueue queue = writeQueue;
+        return queue == null || queue.isWritable();
+    }
+    
+    @Override
+    public boolean isConnected() {
+        return socket != null && socket.isConnected() && !socket.isClosed();
+    }
+    
+    /**
+     * Gets the {@link System#nanoTime()} at which the last frame was received, or the connection was opened.
+     * 
+     * @return the last read time
+     */
+    public long getLastReadTime() {
+        return lastReadTime;
+    }
+    
+    /**
+     * Gets the {@link System#nanoTime()} at which the last frame was sent, or the connection was opened.
+     * 
+     * @return the last write time
+     */
+    public long getLastWriteTime() {
+        return lastWriteTime;
+    }
+    
+    /**
+     * Sets the packet context and handler unsafely and initializes the handler.
+     * 
+     * @param context the packet context
+     * @param handler the network handler
+     */
+    protected void setContextUnsafe(PacketContext<?> context, INetHandler handler) {
+        this.context = context;
+        this.handler = handler;
+        
+        handler.onInit(this);
+    }
+    
+    @Override
+    public <V extends INetHandler> void setContext(PacketContext<? super V> context, V handler) {
+        setContextUnsafe(context, handler);
+    }
+    
+    @Override
+    public void setChannel(IPacketChannel channel) {
+        this.channel = IBufferChannel.of(channel);
+    }
+    
+    /**
+     * Sets the allocator used for the send and receive buffers. Must be called before the connection is opened.
+     * 
+     * @param allocator the buffer allocator
+     */
+    public void setBufferAllocator(IBufferAllocator allocator) {
+        this.allocator = allocator;
+    }
+    
+    /**
+     * Enables the write queue. Packets are then written by a writer, which coalesces the frames queued
+     * while it was busy into a single flush, instead of by the sending thread. Must be called before
+     * the connection is opened.
+     * 
+     * The {@link OverflowPolicy#DROP_OLDEST} policy requires a channel with a frame key,
+     * see {@link IBufferChannel#getFrameKey()}.
+     * 
+     * @param capacity the maximum number of queued packets, or 0 to write synchronously
+     * @param overflowPolicy what to do when a packet is sent while the queue is full
+     */
+    public void setWriteQueue(int capacity, OverflowPolicy overflowPolicy) {
+        this.writeQueueCapacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+    }
+    
+    /**
+     * Sets the write queue watermarks, so {@link #isWritable()} reports when too many bytes are waiting to be written.
+     * Has no effect if the write queue is disabled.
+     * 
+     * @param lowWatermark the pending bytes at or below which the client becomes writable again
+     * @param highWatermark the pending bytes at or above which the client becomes unwritable
+     * @see WriteQueue#setWatermarks(long, long)
+     */
+    public void setWriteWatermarks(long lowWatermark, long highWatermark) {
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+        
+        WriteQueue queue = writeQueue;
+        if (queue != null) queue.setWatermarks(lowWatermark, highWatermark);
+    }
+    
+    /**
+     * Gets the maximum number of queued packets.
+     * 
+     * @return the write queue capacity, or 0 if packets are written synchronously
+     */
+    public int getWriteQueueCapacity() {
+        return writeQueueCapacity;
+    }
+    
+    /**
+     * Pauses or resumes reading from the socket. While paused, received bytes stay in the socket buffers,
+     * so the peer is eventually slowed down by TCP flow control.
+     * 
+     * @param paused true to pause reading, false to resume it
+     */
+    public void setReadPaused(boolean paused) {
+        readPauseLock.lock();
+        try {
+            this.readPaused = paused;
+            readResumed.signalAll();
+        } finally {
+            readPauseLock.unlock();
+        }
+    }
+    
+    /**
+     * Checks if reading from the socket is paused.
+     * 
+     * @return true if reading is paused, false otherwise
+     */
+    public boolean isReadPaused() {
+        return readPaused;
+    }
+    
+    /**
+     * Gets the write queue of this client.
+     * 
+     * @return the write queue, or null if packets are written synchronously
+     */
+    public WriteQueue getWriteQueue() {
+        return writeQueue;
+    }
+    
+    /**
+     * Sets the size of the stream chunks. Smaller chunks let other packets be written sooner,
+     * at the cost of more frames.
+     * 
+     * @param streamChunkSize the maximum number of packet bytes per chunk
+     */
+    public void setStreamChunkSize(int streamChunkSize) {
+        if (streamChunkSize <= 0) throw new IllegalArgumentException("Invalid stream chunk size " + streamChunkSize + "!");
+        
+        this.streamChunkSize = streamChunkSize;
+    }
+    
+    /**
+     * Sets the maximum size of a received frame. Larger frames close the connection before they are buffered.
+     * The channel enforces its own limit on the length claimed by a frame.
+     * 
+     * @param maxFrameSize the maximum frame size
+     */
+    public void setMaxFrameSize(int maxFrameSize) {
+        if (maxFrameSize <= 0) throw new IllegalArgumentException("Invalid maximum frame size " + maxFrameSize + "!");
+        
+        this.maxFrameSize = maxFrameSize;
+    }
+    
+    /**
+     * Sets the maximum size of a received stream without a body, which is buffered until its last chunk.
+     * Larger streams close the connection. Streams with a body are never buffered.
+     * 
+     * @param maxStreamSize the maximum stream size
+     */
+    public void setMaxStreamSize(int maxStreamSize) {
+        if (maxStreamSize <= 0) throw new IllegalArgumentException("Invalid maximum stream size " + maxStreamSize + "!");
+        
+        this.maxStreamSize = maxStreamSize;
+    }
+    
+    /**
+     * Gets the outbound streams waiting for their next chunk to be sent.
+     * 
+     * @return the stream scheduler
+     */
+    public StreamScheduler getStreamScheduler() {
+        return streams;
+    }
+    
+    /**
+     * Sets the maximum send buffer capacity kept between packets. After a larger packet is sent,
+     * the grown buffer is given back to the allocator.
+     * 
+     * @param maxRetainedCapacity the maximum retained capacity
+     */
+    public void setMaxRetainedCapacity(int maxRetainedCapacity) {
+        this.maxRetainedCapacity = maxRetainedCapacity;
+    }
+    
+    @Override
+    public void setThreadFactory(ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+    }
+    
+    /**
+     * Sets the executor handling the packets dispatched with the {@link DispatchMode#POOL}
+     * and {@link DispatchMode#SERIAL} modes. Must be called before the connection is opened.
+     * 
+     * @param dispatchExecutor the dispatch executor, or null for {@link NetworkThreads#dispatcher()}
+     */
+    public void setDispatchExecutor(Executor dispatchExecutor) {
+        this.dispatchExecutor = dispatchExecutor;
+    }
+    
+    /**
+     * Enables or disables metrics. The client records its own counters, also added to the specified metrics,
+     * which may be shared with other clients. Must be called before the connection is opened.
+     * 
+     * @param metrics the metrics to record into, or null to disable metrics
+     */
+    public void setMetrics(NetworkMetrics metrics) {
+        this.metrics = metrics != null ? new ConnectionMetrics(metrics) : null;
+    }
+    
+    /**
+     * Gets the metrics recorded by this client.
+     * 
+     * @return the metrics, or null if metrics are disabled
+     */
+    public ConnectionMetrics getMetrics() {
+        return metrics;
+    }
+    
+    /**
+     * Gets the executor handling the packets which are not handled inline.
+     * 
+     * @return the dispatch executor
+     */
+    public Executor getDispatchExecutor() {
+        return dispatchExecutor != null ? dispatchExecutor : NetworkThreads.dispatcher();
     }
 }
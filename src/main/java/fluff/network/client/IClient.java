@@ -1,9 +1,12 @@
 package fluff.network.client;
 
+import java.util.concurrent.ThreadFactory;
+
 import fluff.network.INetHandler;
 import fluff.network.NetworkException;
 import fluff.network.packet.IPacketChannel;
 import fluff.network.packet.IPacketOutbound;
+import fluff.network.packet.PacketBatch;
 import fluff.network.packet.PacketContext;
 
 /**
@@ -18,6 +21,27 @@ public interface IClient {
      */
     void send(IPacketOutbound packet);
     
+    /**
+     * Sends the packets of the specified batch in a single frame.
+     * By default, the packets are sent one by one with {@link #send(IPacketOutbound)}.
+     * 
+     * @param batch the batch to send
+     */
+    default void send(PacketBatch batch) {
+        for (IPacketOutbound packet : batch.getPackets()) {
+            send(packet);
+        }
+    }
+    
+    /**
+     * Opens a batch of packets, sent in a single frame with {@link #send(PacketBatch)} once committed.
+     * 
+     * @return the new batch
+     */
+    default PacketBatch batch() {
+        return new PacketBatch(this::send);
+    }
+    
     /**
      * Disconnects the client.
      */
@@ -42,6 +66,18 @@ public interface IClient {
      */
     boolean isConnected();
     
+    /**
+     * Checks if packets can be sent without piling up, meaning the bytes waiting to be written
+     * are below the write queue high watermark.
+     * 
+     * By default, the client is always writable.
+     * 
+     * @return true if the client is writable, false otherwise
+     */
+    default boolean isWritable() {
+        return true;
+    }
+    
     /**
      * Sets the packet context and handler for the client and initializes the handler.
      * 
@@ -57,4 +93,14 @@ public interface IClient {
      * @param channel the packet channel
      */
     void setChannel(IPacketChannel channel);
+    
+    /**
+     * Sets the thread factory used to create the packet receiver thread.
+     * 
+     * By default, the thread factory is ignored.
+     * 
+     * @param threadFactory the thread factory
+     * @see fluff.network.NetworkThreads
+     */
+    default void setThreadFactory(ThreadFactory threadFactory) {}
 }
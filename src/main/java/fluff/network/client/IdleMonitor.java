@@ -0,0 +1,149 @@
+package fluff.network.client;
+
+import java.util.concurrent.TimeUnit;
+
+import fluff.network.HashedWheelTimer;
+import fluff.network.NetworkThreads;
+
+/**
+ * Watches the idle times of a connected client. A keepalive frame is sent once nothing was sent for the keepalive
+ * interval, and the client is disconnected once nothing was received for the read idle timeout, so connections which
+ * silently died do not linger until the operating system notices. Since the peer answers every keepalive frame,
+ * the read idle timeout should be longer than the keepalive interval.
+ * <p>
+ * Checks run on a shared {@link HashedWheelTimer}, one task per client at a time, while keepalive frames are sent
+ * and clients disconnected on the dispatch executor of the client, so a slow socket never delays the timer.
+ * The monitor stops by itself once the client is disconnected.
+ */
+public class IdleMonitor {
+    
+    private final AbstractClient client;
+    private final long readIdleTimeout;
+    private final long keepaliveInterval;
+    private final HashedWheelTimer timer;
+    
+    private HashedWheelTimer.Timeout timeout;
+    private boolean stopped;
+    
+    /**
+     * Constructs a new idle monitor.
+     *
+     * @param client the client to watch
+     * @param readIdleTimeout the time in milliseconds without receiving anything before disconnecting the client, or 0 to never disconnect it
+     * @param keepaliveInterval the time in milliseconds without sending anything before sending a keepalive frame, or 0 to never send one
+     * @param timer the timer running the checks
+     */
+    public IdleMonitor(AbstractClient client, long readIdleTimeout, long keepaliveInterval, HashedWheelTimer timer) {
+        if (readIdleTimeout < 0) throw new IllegalArgumentException("Invalid read idle timeout " + readIdleTimeout + "!");
+        if (keepaliveInterval < 0) throw new IllegalArgumentException("Invalid keepalive interval " + keepaliveInterval + "!");
+        
+        this.client = client;
+        this.readIdleTimeout = TimeUnit.MILLISECONDS.toNanos(readIdleTimeout);
+        this.keepaliveInterval = TimeUnit.MILLISECONDS.toNanos(keepaliveInterval);
+        this.timer = timer;
+    }
+    
+    /**
+     * Constructs a new idle monitor running on the shared {@link NetworkThreads#timer()}.
+     *
+     * @param client the client to watch
+     * @param readIdleTimeout the time in milliseconds without receiving anything before disconnecting the client, or 0 to never disconnect it
+     * @param keepaliveInterval the time in milliseconds without sending anything before sending a keepalive frame, or 0 to never send one
+     */
+    public IdleMonitor(AbstractClient client, long readIdleTimeout, long keepaliveInterval) {
+        this(client, readIdleTimeout, keepaliveInterval, NetworkThreads.timer());
+    }
+    
+    /**
+     * Starts watching the client. Must be called once the client is connected.
+     *
+     * @return this monitor
+     */
+    public IdleMonitor start() {
+        schedule(nextCheck(System.nanoTime()));
+        return this;
+    }
+    
+    /**
+     * Stops watching the client.
+     */
+    public synchronized void stop() {
+        stopped = true;
+        if (timeout != null) timeout.cancel();
+    }
+    
+    /**
+     * Checks if the monitor has stopped, either explicitly or because the client disconnected.
+     *
+     * @return true if the monitor is stopped, false otherwise
+     */
+    public synchronized boolean isStopped() {
+        return stopped;
+    }
+    
+    /**
+     * Gets the watched client.
+     *
+     * @return the client
+     */
+    public AbstractClient getClient() {
+        return client;
+    }
+    
+    private void check() {
+        if (!client.isConnected()) {
+            stop();
+            return;
+        }
+        
+        long now = System.nanoTime();
+        if (readIdleTimeout > 0 && now - client.getLastReadTime() >= readIdleTimeout) {
+            stop();
+            client.getDispatchExecutor().execute(this::onReadIdle);
+            return;
+        }
+        
+        if (keepaliveInterval > 0 && now - client.getLastWriteTime() >= keepaliveInterval) {
+            client.getDispatchExecutor().execute(client::sendKeepalive);
+            schedule(Math.min(keepaliveInterval, nextReadCheck(now)));
+            return;
+        }
+        
+        schedule(nextCheck(now));
+    }
+    
+    private long nextCheck(long now) {
+        long delay = nextReadCheck(now);
+        if (keepaliveInterval > 0) delay = Math.min(delay, client.getLastWriteTime() + keepaliveInterval - now);
+        return delay;
+    }
+    
+    private long nextReadCheck(long now) {
+        return readIdleTimeout > 0 ? client.getLastReadTime() + readIdleTimeout - now : Long.MAX_VALUE;
+    }
+    
+    private synchronized void schedule(long delay) {
+        if (stopped || delay == Long.MAX_VALUE) return;
+        
+        timeout = timer.schedule(this::check, Math.max(delay, 0), TimeUnit.NANOSECONDS);
+    }
+    
+    private void onReadIdle() {
+        if (client instanceof IdleListener listener) {
+            listener.onReadIdle();
+        } else {
+            client.disconnect();
+        }
+    }
+    
+    /**
+     * Represents a client handling its own read idle timeout, instead of being disconnected.
+     */
+    public static interface IdleListener {
+        
+        /**
+         * Called on the dispatch executor when nothing was received for the read idle timeout. The monitor is stopped.
+         */
+        void onReadIdle();
+    }
+}
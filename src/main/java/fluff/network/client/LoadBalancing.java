@@ -0,0 +1,23 @@
+package fluff.network.client;
+
+/**
+ * Enum representing how a {@link PooledClient} picks the connection sending a packet.
+ */
+public enum LoadBalancing {
+    
+    /**
+     * The connections take turns.
+     */
+    ROUND_ROBIN,
+    
+    /**
+     * The connection with the fewest packets being sent, requests waiting for a response and packets waiting
+     * to be written is picked. Ties are broken round-robin.
+     */
+    LEAST_PENDING,
+    
+    /**
+     * Packets of the same class are always sent by the same connection while it is alive, so they arrive in order.
+     */
+    KEY_AFFINITY;
+}
@@ -0,0 +1,206 @@
+package fluff.network.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+import fluff.network.buffer.ByteBufferOutputStream;
+
+/**
+ * Represents a serialized packet being sent in chunks by a {@link StreamScheduler}, interleaved with
+ * the other streams and packets of the same client. The packet is either sent whole, or as a header
+ * followed by a body read from an {@link InputStream} one chunk at a time, so the body is never buffered.
+ */
+public class OutboundStream {
+    
+    /**
+     * The flag of the last chunk of a stream.
+     */
+    public static final byte LAST_CHUNK = 1;
+    
+    /**
+     * The flag of the header chunk of a stream with a body, which opens the stream on the receiving side.
+     */
+    public static final byte OPEN_CHUNK = 2;
+    
+    /**
+     * The flag of the last chunk of a stream whose body could not be read completely.
+     */
+    public static final byte ABORTED_CHUNK = 4;
+    
+    private final int id;
+    private final int priority;
+    private final Class<?> packetClass;
+    private final ByteBufferOutputStream bytes;
+    private final ByteBuffer payload;
+    private final InputStream body;
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+    
+    private byte[] scratch;
+    private long size;
+    private boolean finished;
+    private IOException bodyError;
+    
+    /**
+     * Constructs a new outbound stream.
+     *
+     * @param id the stream ID, unique among the streams of the client
+     * @param priority the priority, higher priorities being sent first
+     * @param packetClass the class of the serialized packet
+     * @param bytes the stream holding the serialized packet, released once the stream completes
+     */
+    public OutboundStream(int id, int priority, Class<?> packetClass, ByteBufferOutputStream bytes) {
+        this.id = id;
+        this.priority = priority;
+        this.packetClass = packetClass;
+        this.bytes = bytes;
+        this.payload = bytes.flip();
+        this.body = null;
+        this.size = payload.remaining();
+    }
+    
+    /**
+     * Constructs a new outbound stream made of a header packet followed by a body.
+     *
+     * @param id the stream ID, unique among the streams of the client
+     * @param priority the priority, higher priorities being sent first
+     * @param packetClass the class of the header packet
+     * @param bytes the stream holding the serialized header packet, released once the stream completes
+     * @param body the body, read by the writing thread and closed once the stream completes
+     */
+    public OutboundStream(int id, int priority, Class<?> packetClass, ByteBufferOutputStream bytes, InputStream body) {
+        this.id = id;
+        this.priority = priority;
+        this.packetClass = packetClass;
+        this.bytes = bytes;
+        this.payload = bytes.flip();
+        this.body = body;
+    }
+    
+    /**
+     * Writes the next chunk of the stream. A stream with a body first writes its whole header,
+     * then reads the body until it ends or fails. Must only be called by the thread which polled the stream.
+     *
+     * @param out the stream to write the chunk to
+     * @param maxSize the maximum chunk size, the header excepted
+     * @return the flags of the chunk
+     */
+    public byte writeChunk(ByteBufferOutputStream out, int maxSize) {
+        if (body == null) {
+            int len = Math.min(maxSize, payload.remaining());
+            out.write(payload.slice(payload.position(), len));
+            payload.position(payload.position() + len);
+            
+            finished = !payload.hasRemaining();
+            return finished ? LAST_CHUNK : 0;
+        }
+        
+        if (payload.hasRemaining()) {
+            size += payload.remaining();
+            out.write(payload);
+            return OPEN_CHUNK;
+        }
+        
+        if (scratch == null || scratch.length < maxSize) scratch = new byte[maxSize];
+        finished = true;
+        try {
+            int len = body.readNBytes(scratch, 0, maxSize);
+            out.write(scratch, 0, len);
+            size += len;
+            
+            finished = len < maxSize;
+            return finished ? LAST_CHUNK : 0;
+        } catch (IOException e) {
+            bodyError = e;
+            return LAST_CHUNK | ABORTED_CHUNK;
+        }
+    }
+    
+    /**
+     * Checks if the last chunk was written.
+     *
+     * @return true if no chunk remains to be sent, false otherwise
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+    
+    /**
+     * Completes the stream once its last chunk was written, and releases its payload. The stream fails instead
+     * if its body could not be read.
+     */
+    public void complete() {
+        release();
+        if (bodyError != null) {
+            future.completeExceptionally(bodyError);
+        } else {
+            future.complete(null);
+        }
+    }
+    
+    /**
+     * Fails the stream, and releases its payload.
+     *
+     * @param e the cause of the failure
+     */
+    public void fail(Throwable e) {
+        release();
+        future.completeExceptionally(e);
+    }
+    
+    private void release() {
+        bytes.release();
+        if (body == null) return;
+        
+        try {
+            body.close();
+        } catch (IOException e) {}
+    }
+    
+    /**
+     * Gets the stream ID.
+     *
+     * @return the stream ID
+     */
+    public int getID() {
+        return id;
+    }
+    
+    /**
+     * Gets the priority of the stream.
+     *
+     * @return the priority
+     */
+    public int getPriority() {
+        return priority;
+    }
+    
+    /**
+     * Gets the class of the serialized packet.
+     *
+     * @return the packet class
+     */
+    public Class<?> getPacketClass() {
+        return packetClass;
+    }
+    
+    /**
+     * Gets the size of the serialized packet, packet ID included. For a stream with a body,
+     * only the bytes written so far are counted.
+     *
+     * @return the size in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+    
+    /**
+     * Gets the future completed once the last chunk was written or queued, or failed if the stream was abandoned.
+     *
+     * @return the future
+     */
+    public CompletableFuture<Void> getFuture() {
+        return future;
+    }
+}
@@ -0,0 +1,25 @@
+package fluff.network.client;
+
+/**
+ * Enum representing what happens when a packet is sent while the write queue of a client is full.
+ */
+public enum OverflowPolicy {
+    
+    /**
+     * The sending thread waits until the queue has room. Event loop threads never wait,
+     * so the queue may exceed its capacity when they send.
+     */
+    BLOCK,
+    
+    /**
+     * The oldest queued packet sent without a response, stream or correlation is dropped to make room.
+     * Frames which later frames depend on are never dropped, so the queue may still block when only those are queued.
+     * Requires a channel with a frame key, so channels keeping per connection state, like encryption, are rejected.
+     */
+    DROP_OLDEST,
+    
+    /**
+     * The client is disconnected.
+     */
+    DISCONNECT;
+}
@@ -0,0 +1,141 @@
+package fluff.network.client;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fluff.network.HashedWheelTimer;
+import fluff.network.NetworkThreads;
+import fluff.network.packet.IPacketInbound;
+
+/**
+ * Tracks the requests of a client waiting for their response, by correlation ID. Any number of requests
+ * may be in flight at the same time, and responses may arrive in any order.
+ * <p>
+ * Timeouts run on a shared {@link HashedWheelTimer}. A request is forgotten as soon as its future completes,
+ * whether it was answered, timed out, failed or was cancelled by the caller, so late responses are dropped.
+ * <p>
+ * Once closed, every request fails, including the ones added later, until the requests are opened again.
+ */
+public class PendingRequests {
+    
+    private final Map<Integer, CompletableFuture<IPacketInbound>> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger nextID = new AtomicInteger();
+    private final HashedWheelTimer timer;
+    private volatile Throwable closeCause;
+    
+    /**
+     * Constructs new pending requests.
+     *
+     * @param timer the timer running the timeouts
+     */
+    public PendingRequests(HashedWheelTimer timer) {
+        this.timer = timer;
+    }
+    
+    /**
+     * Constructs new pending requests with timeouts running on the shared {@link NetworkThreads#timer()}.
+     */
+    public PendingRequests() {
+        this(NetworkThreads.timer());
+    }
+    
+    /**
+     * Adds a request waiting for its response. The future fails with a {@link TimeoutException}
+     * if no response arrives in time, or right away if the requests are closed.
+     *
+     * @param future the future completed by the response
+     * @param timeout the time in milliseconds to wait for the response, or 0 to wait until the connection is closed
+     * @return the correlation ID of the request
+     */
+    public int add(CompletableFuture<IPacketInbound> future, long timeout) {
+        if (timeout < 0) throw new IllegalArgumentException("Invalid timeout " + timeout + "!");
+        
+        int id;
+        do {
+            id = nextID.getAndIncrement();
+        } while (pending.putIfAbsent(id, future) != null);
+        
+        // checked after the request is visible, so either this or close fails it
+        Throwable cause = closeCause;
+        if (cause != null) {
+            pending.remove(id, future);
+            future.completeExceptionally(cause);
+            return id;
+        }
+        
+        int correlationID = id;
+        HashedWheelTimer.Timeout expiry = timeout > 0
+                ? timer.schedule(() -> future.completeExceptionally(new TimeoutException("Request " + correlationID + " timed out!")), timeout, TimeUnit.MILLISECONDS)
+                : null;
+        future.whenComplete((response, e) -> {
+            pending.remove(correlationID, future);
+            if (expiry != null) expiry.cancel();
+        });
+        return id;
+    }
+    
+    /**
+     * Completes a request with its response.
+     *
+     * @param correlationID the correlation ID of the request
+     * @param response the response packet
+     * @return true if the request was waiting, false if it already completed
+     */
+    public boolean complete(int correlationID, IPacketInbound response) {
+        CompletableFuture<IPacketInbound> future = pending.get(correlationID);
+        return future != null && future.complete(response);
+    }
+    
+    /**
+     * Fails a request.
+     *
+     * @param correlationID the correlation ID of the request
+     * @param e the cause of the failure
+     * @return true if the request was waiting, false if it already completed
+     */
+    public boolean fail(int correlationID, Throwable e) {
+        CompletableFuture<IPacketInbound> future = pending.get(correlationID);
+        return future != null && future.completeExceptionally(e);
+    }
+    
+    /**
+     * Fails every waiting request, for example once the connection is closed.
+     *
+     * @param e the cause of the failures
+     */
+    public void failAll(Throwable e) {
+        for (CompletableFuture<IPacketInbound> future : pending.values()) {
+            future.completeExceptionally(e);
+        }
+    }
+    
+    /**
+     * Closes the requests, failing every waiting request and the ones added until they are opened again.
+     *
+     * @param cause the cause of the failures
+     */
+    public void close(Throwable cause) {
+        closeCause = cause;
+        failAll(cause);
+    }
+    
+    /**
+     * Opens the requests again after they were closed, for example once a new connection is opened.
+     */
+    public void open() {
+        closeCause = null;
+    }
+    
+    /**
+     * Gets the number of requests waiting for their response.
+     *
+     * @return the pending request count
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+}
@@ -0,0 +1,572 @@
+package fluff.network.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+import fluff.functions.gen.Func;
+import fluff.network.HashedWheelTimer;
+import fluff.network.INetHandler;
+import fluff.network.NetworkException;
+import fluff.network.NetworkThreads;
+import fluff.network.packet.IPacketChannel;
+import fluff.network.packet.IPacketInbound;
+import fluff.network.packet.IPacketOutbound;
+import fluff.network.packet.PacketBatch;
+import fluff.network.packet.PacketContext;
+import fluff.network.packet.channels.DefaultPacketChannel;
+
+/**
+ * A client keeping several connections to one or more servers, each one with its own socket, receiver thread
+ * and send lock, so sending scales with the number of connections. Packets are spread over the connections
+ * according to the {@link LoadBalancing}, and {@link #send(Object, IPacketOutbound)} keeps the packets of the same key
+ * in order by always sending them with the same connection.
+ * <p>
+ * Dead connections are replaced in the background, waiting longer after each failed attempt. Packets sent while
+ * no connection is alive are dropped, and requests fail.
+ */
+public class PooledClient implements IClient {
+    
+    public static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+    public static final long DEFAULT_RECONNECT_DELAY = 100;
+    public static final long DEFAULT_MAX_RECONNECT_DELAY = 10000;
+    
+    private final List<InetSocketAddress> endpoints;
+    private final AtomicReferenceArray<Connection> connections;
+    private final AtomicInteger next = new AtomicInteger();
+    
+    private PacketContext<?> context;
+    private INetHandler handler;
+    private Func<? extends INetHandler> handlerFunc;
+    private Func<? extends IPacketChannel> channelFunc = DefaultPacketChannel::new;
+    private ThreadFactory threadFactory = NetworkThreads.platform();
+    private Consumer<? super AbstractClient> configurator;
+    private HashedWheelTimer timer = NetworkThreads.timer();
+    private LoadBalancing loadBalancing = LoadBalancing.ROUND_ROBIN;
+    private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private long reconnectDelay = DEFAULT_RECONNECT_DELAY;
+    private long maxReconnectDelay = DEFAULT_MAX_RECONNECT_DELAY;
+    
+    private volatile boolean open;
+    
+    /**
+     * Constructs a new pooled client opening the specified number of connections to each endpoint.
+     *
+     * @param connectionsPerEndpoint the number of connections to each endpoint
+     * @param endpoints the addresses of the servers
+     */
+    public PooledClient(int connectionsPerEndpoint, InetSocketAddress... endpoints) {
+        if (connectionsPerEndpoint <= 0) throw new IllegalArgumentException("Invalid connection count " + connectionsPerEndpoint + "!");
+        if (endpoints.length == 0) throw new IllegalArgumentException("No endpoint!");
+        
+        this.endpoints = List.of(endpoints);
+        this.connections = new AtomicReferenceArray<>(connectionsPerEndpoint * endpoints.length);
+    }
+    
+    /**
+     * Constructs a new pooled client opening the specified number of connections to a single server.
+     *
+     * @param host the hostname of the server
+     * @param port the port of the server
+     * @param connections the number of connections
+     */
+    public PooledClient(String host, int port, int connections) {
+        this(connections, new InetSocketAddress(host, port));
+    }
+    
+    /**
+     * Opens every connection. Connections which can not be opened are retried in the background.
+     *
+     * @throws IOException if an I/O error occurs when opening the connections and none could be opened
+     * @throws NetworkException if a network error occurs when opening the connections and none could be opened
+     */
+    public void connect() throws IOException, NetworkException {
+        Objects.requireNonNull(context);
+        if (open) throw new NetworkException("Client already has a connection!");
+        
+        open = true;
+        Exception error = null;
+        int opened = 0;
+        for (int slot = 0; slot < connections.length(); slot++) {
+            try {
+                openConnection(slot, reconnectDelay);
+                opened++;
+            } catch (IOException | NetworkException e) {
+                if (error == null) error = e;
+            }
+        }
+        
+        if (opened == 0) {
+            disconnect();
+            if (error instanceof IOException e) throw e;
+            throw (NetworkException) error;
+        }
+        onConnect();
+    }
+    
+    /**
+     * Opens a new connection in the specified slot, replacing the dead one. Does nothing if the slot
+     * was already filled, for example by a reconnect task scheduled before the client was reconnected.
+     *
+     * @param slot the slot of the connection
+     * @param delay the delay which preceded this attempt
+     * @throws IOException if an I/O error occurs
+     * @throws NetworkException if a network error occurs
+     */
+    protected void openConnection(int slot, long delay) throws IOException, NetworkException {
+        Connection connection = new Connection(slot, delay);
+        if (!connections.compareAndSet(slot, null, connection)) return;
+        
+        try {
+            connection.setThreadFactory(threadFactory);
+            connection.setChannel(channelFunc.invoke());
+            if (handlerFunc != null) {
+                connection.setContextUnsafe(context, handlerFunc.invoke());
+            } else {
+                connection.context = context;
+                connection.handler = handler;
+            }
+            if (configurator != null) configurator.accept(connection);
+        } catch (RuntimeException e) {
+            connections.compareAndSet(slot, connection, null);
+            throw e;
+        }
+        
+        Socket socket = new Socket();
+        try {
+            socket.connect(endpoints.get(slot % endpoints.size()), connectTimeout);
+            connection.openConnection(socket);
+            connection.established = true;
+        } catch (IOException | NetworkException e) {
+            connection.disconnect();
+            socket.close();
+            onConnectionLost(connection);
+            throw e;
+        }
+        
+        // the client may have been disconnected, and even reconnected, while the socket was opening
+        if (!open || connections.get(slot) != connection) connection.disconnect();
+    }
+    
+    /**
+     * Called when a connection is closed or could not be opened. Schedules its replacement, right after
+     * the reconnect delay if it was established, or after twice the previous delay otherwise.
+     *
+     * @param connection the lost connection
+     */
+    protected void onConnectionLost(Connection connection) {
+        if (!open || !connections.compareAndSet(connection.slot, connection, null)) return;
+        
+        long delay = connection.established ? reconnectDelay : Math.min(connection.delay * 2, maxReconnectDelay);
+        timer.schedule(() -> NetworkThreads.start(threadFactory, "Packet Pool Connector", () -> reconnect(connection.slot, delay)), delay, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Tries to replace the connection of a slot. A failed attempt schedules the next one.
+     *
+     * @param slot the slot of the connection
+     * @param delay the delay which preceded this attempt
+     */
+    protected void reconnect(int slot, long delay) {
+        if (!open) return;
+        
+        try {
+            openConnection(slot, delay);
+        } catch (IOException | NetworkException e) {}
+    }
+    
+    /**
+     * Picks the connection sending the next packet.
+     *
+     * @param key the key of the packet, or null to pick a connection according to the load balancing
+     * @return the connection, or null if no connection is alive
+     */
+    protected AbstractClient select(Object key) {
+        int n = connections.length();
+        if (key == null && loadBalancing == LoadBalancing.LEAST_PENDING) {
+            // the scan starts at a rotating slot, so ties are broken round-robin
+            int start = Math.floorMod(next.getAndIncrement(), n);
+            Connection best = null;
+            long bestLoad = Long.MAX_VALUE;
+            for (int i = 0; i < n; i++) {
+                Connection connection = connections.get((start + i) % n);
+                if (connection == null || !connection.isConnected()) continue;
+                
+                long load = connection.getLoad();
+                if (load < bestLoad) {
+                    best = connection;
+                    bestLoad = load;
+                }
+            }
+            return best;
+        }
+        
+        int start;
+        if (key != null) {
+            int h = key.hashCode();
+            start = Math.floorMod(h ^ (h >>> 16), n);
+        } else {
+            start = Math.floorMod(next.getAndIncrement(), n);
+        }
+        for (int i = 0; i < n; i++) {
+            Connection connection = connections.get((start + i) % n);
+            if (connection != null && connection.isConnected()) return connection;
+        }
+        return null;
+    }
+    
+    /**
+     * Picks the connection sending the specified packet.
+     *
+     * @param packet the packet
+     * @return the connection, or null if no connection is alive
+     */
+    protected AbstractClient select(IPacketOutbound packet) {
+        return select(loadBalancing == LoadBalancing.KEY_AFFINITY ? packet.getClass() : null);
+    }
+    
+    @Override
+    public void send(IPacketOutbound packet) {
+        Objects.requireNonNull(packet);
+        
+        AbstractClient connection = select(packet);
+        if (connection != null) connection.send(packet);
+    }
+    
+    /**
+     * Sends the specified outbound packet with the connection of the specified key, so the packets
+     * of the same key arrive in order while that connection is alive.
+     *
+     * @param key the ordering key
+     * @param packet the outbound packet to send
+     */
+    public void send(Object key, IPacketOutbound packet) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(packet);
+        
+        AbstractClient connection = select(key);
+        if (connection != null) connection.send(packet);
+    }
+    
+    @Override
+    public PacketBatch batch() {
+        return new PacketBatch(this::send);
+    }
+    
+    @Override
+    public void send(PacketBatch batch) {
+        Objects.requireNonNull(batch);
+        
+        AbstractClient connection = select((Object) null);
+        if (connection != null) connection.send(batch);
+    }
+    
+    /**
+     * Sends a request with the connection picked by the load balancing.
+     *
+     * @param <R> the type of the response packet
+     * @param packet the request packet, registered with {@link PacketContext#registerRequest} by the peer
+     * @param timeout the time in milliseconds to wait for the response, or 0 to wait until the connection is closed
+     * @return the future completed by the response, or failed if no connection is alive
+     * @see AbstractClient#request(IPacketOutbound, long)
+     */
+    public <R extends IPacketInbound> CompletableFuture<R> request(IPacketOutbound packet, long timeout) {
+        Objects.requireNonNull(packet);
+        
+        AbstractClient connection = select(packet);
+        if (connection == null) return CompletableFuture.failedFuture(new NetworkException("No connection available!"));
+        
+        return connection.request(packet, timeout);
+    }
+    
+    /**
+     * Sends a request with the connection picked by the load balancing, failing after {@link AbstractClient#DEFAULT_REQUEST_TIMEOUT}.
+     *
+     * @param <R> the type of the response packet
+     * @param packet the request packet, registered with {@link PacketContext#registerRequest} by the peer
+     * @return the future completed by the response, or failed if no connection is alive
+     * @see #request(IPacketOutbound, long)
+     */
+    public <R extends IPacketInbound> CompletableFuture<R> request(IPacketOutbound packet) {
+        return request(packet, AbstractClient.DEFAULT_REQUEST_TIMEOUT);
+    }
+    
+    /**
+     * Sends a header packet followed by a body as a stream, with the connection picked by the load balancing.
+     *
+     * @param header the header packet to send
+     * @param body the body, closed once the stream completes
+     * @param priority the priority of the stream
+     * @return the future completed once the last chunk was written, or failed if no connection is alive
+     * @see AbstractClient#sendStream(IPacketOutbound, InputStream, int)
+     */
+    public CompletableFuture<Void> sendStream(IPacketOutbound header, InputStream body, int priority) {
+        Objects.requireNonNull(header);
+        
+        AbstractClient connection = select(header);
+        if (connection == null) return CompletableFuture.failedFuture(new NetworkException("No connection available!"));
+        
+        return connection.sendStream(header, body, priority);
+    }
+    
+    /**
+     * Closes every connection and stops replacing them.
+     */
+    @Override
+    public void disconnect() {
+        if (!open) return;
+        
+        open = false;
+        for (int slot = 0; slot < connections.length(); slot++) {
+            Connection connection = connections.getAndSet(slot, null);
+            if (connection != null) connection.disconnect();
+        }
+        onDisconnect();
+    }
+    
+    /**
+     * Called once the first connections are opened.
+     *
+     * @throws NetworkException if a network error occurs
+     */
+    @Override
+    public void onConnect() throws NetworkException {}
+    
+    /**
+     * Called once the client is disconnected, after every connection was closed.
+     */
+    @Override
+    public void onDisconnect() {}
+    
+    /**
+     * Checks if at least one connection is alive.
+     *
+     * @return true if a connection is alive, false otherwise
+     */
+    @Override
+    public boolean isConnected() {
+        for (int slot = 0; slot < connections.length(); slot++) {
+            Connection connection = connections.get(slot);
+            if (connection != null && connection.isConnected()) return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Checks if at least one alive connection is writable.
+     *
+     * @return true if a connection is writable, false otherwise
+     */
+    @Override
+    public boolean isWritable() {
+        for (int slot = 0; slot < connections.length(); slot++) {
+            Connection connection = connections.get(slot);
+            if (connection != null && connection.isConnected() && connection.isWritable()) return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Sets the packet context and a handler shared by every connection. The handler is initialized with this client,
+     * is notified of the connection and disconnection of each connection, and handles packets from several
+     * receiver threads at once.
+     *
+     * @param <V> the type of the net handler
+     * @param context the packet context
+     * @param handler the net handler
+     */
+    @Override
+    public <V extends INetHandler> void setContext(PacketContext<? super V> context, V handler) {
+        this.context = context;
+        this.handler = handler;
+        this.handlerFunc = null;
+        
+        handler.onInit(this);
+    }
+    
+    /**
+     * Sets the packet context and the function creating the handler of each connection.
+     * Each handler is initialized with its own connection.
+     *
+     * @param <V> the type of the net handler
+     * @param context the packet context
+     * @param handlerFunc the function to create the handler of a connection
+     */
+    public <V extends INetHandler> void setConnectionContext(PacketContext<? super V> context, Func<V> handlerFunc) {
+        this.context = context;
+        this.handler = null;
+        this.handlerFunc = handlerFunc;
+    }
+    
+    /**
+     * Sets a packet channel shared by every connection. Channels keeping state between frames,
+     * such as encrypting or streaming compression channels, must be set with {@link #setConnectionChannel(Func)} instead.
+     *
+     * @param channel the packet channel
+     */
+    @Override
+    public void setChannel(IPacketChannel channel) {
+        Objects.requireNonNull(channel);
+        
+        this.channelFunc = () -> channel;
+    }
+    
+    /**
+     * Sets the function creating the packet channel of each connection.
+     *
+     * @param channelFunc the function to create a packet channel
+     */
+    public void setConnectionChannel(Func<? extends IPacketChannel> channelFunc) {
+        this.channelFunc = channelFunc;
+    }
+    
+    @Override
+    public void setThreadFactory(ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+    }
+    
+    /**
+     * Sets the function configuring each connection before it is opened, for example
+     * to set its write queue, buffer allocator or metrics.
+     *
+     * @param configurator the function configuring a connection
+     */
+    public void setConfigurator(Consumer<? super AbstractClient> configurator) {
+        this.configurator = configurator;
+    }
+    
+    /**
+     * Sets how the connection sending a packet is picked.
+     *
+     * @param loadBalancing the load balancing
+     */
+    public void setLoadBalancing(LoadBalancing loadBalancing) {
+        this.loadBalancing = Objects.requireNonNull(loadBalancing);
+    }
+    
+    /**
+     * Sets the time to wait for a connection to be opened.
+     *
+     * @param connectTimeout the timeout in milliseconds, or 0 to wait indefinitely
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        if (connectTimeout < 0) throw new IllegalArgumentException("Invalid connect timeout " + connectTimeout + "!");
+        
+        this.connectTimeout = connectTimeout;
+    }
+    
+    /**
+     * Sets the delays before a dead connection is replaced. The delay doubles after each failed attempt, up to the maximum.
+     *
+     * @param reconnectDelay the delay in milliseconds after a connection is lost
+     * @param maxReconnectDelay the maximum delay in milliseconds
+     */
+    public void setReconnectDelay(long reconnectDelay, long maxReconnectDelay) {
+        if (reconnectDelay <= 0) throw new IllegalArgumentException("Invalid reconnect delay " + reconnectDelay + "!");
+        if (maxReconnectDelay < reconnectDelay) throw new IllegalArgumentException("Invalid max reconnect delay " + maxReconnectDelay + "!");
+        
+        this.reconnectDelay = reconnectDelay;
+        this.maxReconnectDelay = maxReconnectDelay;
+    }
+    
+    /**
+     * Sets the timer scheduling the replacement of dead connections.
+     *
+     * @param timer the timer
+     */
+    public void setTimer(HashedWheelTimer timer) {
+        this.timer = Objects.requireNonNull(timer);
+    }
+    
+    /**
+     * Gets the connections which are currently alive.
+     *
+     * @return the alive connections
+     */
+    public List<AbstractClient> getConnections() {
+        List<AbstractClient> list = new ArrayList<>();
+        for (int slot = 0; slot < connections.length(); slot++) {
+            Connection connection = connections.get(slot);
+            if (connection != null && connection.isConnected()) list.add(connection);
+        }
+        return list;
+    }
+    
+    /**
+     * Gets the number of connections kept by this client, alive or not.
+     *
+     * @return the connection count
+     */
+    public int getPoolSize() {
+        return connections.length();
+    }
+    
+    /**
+     * Represents a single connection of a {@link PooledClient}, replaced by a new one once closed.
+     */
+    protected class Connection extends AbstractClient {
+        
+        protected final int slot;
+        protected final long delay;
+        protected final AtomicInteger sending = new AtomicInteger();
+        protected volatile boolean established;
+        
+        /**
+         * Constructs a new connection.
+         *
+         * @param slot the slot of the connection
+         * @param delay the delay which preceded the attempt to open it
+         */
+        protected Connection(int slot, long delay) {
+            this.slot = slot;
+            this.delay = delay;
+        }
+        
+        /**
+         * Gets the number of packets being sent, requests waiting for a response and packets waiting to be written.
+         *
+         * @return the load of the connection
+         */
+        protected long getLoad() {
+            WriteQueue queue = writeQueue;
+            return sending.get() + requests.getPendingCount() + (queue != null ? queue.getPendingPackets() : 0);
+        }
+        
+        @Override
+        public void send(IPacketOutbound packet) {
+            sending.incrementAndGet();
+            try {
+                super.send(packet);
+            } finally {
+                sending.decrementAndGet();
+            }
+        }
+        
+        @Override
+        public void send(PacketBatch batch) {
+            sending.incrementAndGet();
+            try {
+                super.send(batch);
+            } finally {
+                sending.decrementAndGet();
+            }
+        }
+        
+        @Override
+        public void onDisconnect() {
+            super.onDisconnect();
+            
+            onConnectionLost(this);
+        }
+    }
+}
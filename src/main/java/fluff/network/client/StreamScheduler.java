@@ -0,0 +1,93 @@
+package fluff.network.client;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Schedules the chunks of the outbound streams of a client. The stream with the highest priority is sent first,
+ * and streams with the same priority take turns, one chunk each. A stream is removed while its chunk is taken,
+ * and added back until its last chunk is taken, so its chunks are always sent in order.
+ * <p>
+ * Once closed, the scheduler fails every stream, including the ones added later.
+ */
+public class StreamScheduler {
+    
+    private final TreeMap<Integer, ArrayDeque<OutboundStream>> streams = new TreeMap<>(Comparator.reverseOrder());
+    private int size;
+    private Throwable closeCause;
+    
+    /**
+     * Adds a stream behind the streams of the same priority, or fails it if the scheduler is closed.
+     *
+     * @param stream the stream
+     */
+    public void add(OutboundStream stream) {
+        Throwable cause;
+        synchronized (this) {
+            cause = closeCause;
+            if (cause == null) {
+                streams.computeIfAbsent(stream.getPriority(), p -> new ArrayDeque<>()).offer(stream);
+                size++;
+                return;
+            }
+        }
+        stream.fail(cause);
+    }
+    
+    /**
+     * Removes the first stream of the highest priority.
+     *
+     * @return the stream, or null if no stream is waiting
+     */
+    public synchronized OutboundStream poll() {
+        Map.Entry<Integer, ArrayDeque<OutboundStream>> e = streams.firstEntry();
+        if (e == null) return null;
+        
+        OutboundStream stream = e.getValue().poll();
+        if (e.getValue().isEmpty()) streams.remove(e.getKey());
+        size--;
+        return stream;
+    }
+    
+    /**
+     * Closes the scheduler and fails every waiting stream.
+     *
+     * @param cause the cause of the failures
+     */
+    public void close(Throwable cause) {
+        ArrayDeque<OutboundStream> failed = new ArrayDeque<>();
+        synchronized (this) {
+            if (closeCause != null) return;
+            
+            closeCause = cause;
+            for (ArrayDeque<OutboundStream> queue : streams.values()) {
+                failed.addAll(queue);
+            }
+            streams.clear();
+            size = 0;
+        }
+        for (OutboundStream stream : failed) {
+            stream.fail(cause);
+        }
+    }
+    
+    /**
+     * Checks if no stream is waiting. Streams whose chunk is being sent are not counted.
+     *
+     * @return true if no stream is waiting, false otherwise
+     */
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+    
+    /**
+     * Gets the number of waiting streams.
+     *
+     * @return the stream count
+     */
+    public synchronized int size() {
+        return size;
+    }
+}
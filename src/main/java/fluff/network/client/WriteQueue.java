@@ -0,0 +1,400 @@
+package fluff.network.client;
+
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import fluff.network.buffer.IBufferAllocator;
+
+/**
+ * A bounded queue of encoded frames waiting to be written to a client socket.
+ * Frames are counted as pending from the moment they are queued until they are completely written.
+ * The queue becomes unwritable once the pending bytes reach the high watermark, and writable again
+ * once they drop to the low watermark.
+ * <p>
+ * The {@link OverflowPolicy#DROP_OLDEST} policy only drops frames queued as droppable, which must be self-contained:
+ * a frame whose loss would break the framing state shared with later frames, such as a stream chunk, a response
+ * or a frame of a stateful channel, must never be marked droppable.
+ * <p>
+ * The queue is guarded by a {@link ReentrantLock} rather than its monitor, so virtual threads waiting for room
+ * or for the next frame do not pin their carrier thread.
+ */
+public class WriteQueue {
+    
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
+    
+    protected final int capacity;
+    protected final OverflowPolicy policy;
+    protected final IBufferAllocator allocator;
+    
+    protected final Queue<Entry> entries = new ArrayDeque<>();
+    protected final ReentrantLock lock = new ReentrantLock();
+    protected final Condition changed = lock.newCondition();
+    
+    protected long lowWatermark = 0;
+    protected long highWatermark = Long.MAX_VALUE;
+    protected volatile boolean writable = true;
+    protected WritabilityListener listener;
+    
+    /**
+     * The pending counts are only updated under the lock, but volatile so they can be read without it.
+     */
+    protected volatile int pendingPackets;
+    protected volatile long pendingBytes;
+    protected long droppedPackets;
+    protected volatile long lastWriteLatency;
+    protected boolean closed;
+    
+    /**
+     * Constructs a new write queue.
+     * 
+     * @param capacity the maximum number of queued frames
+     * @param policy what to do when a frame is queued while the queue is full
+     * @param allocator the allocator owning the queued frame buffers
+     */
+    public WriteQueue(int capacity, OverflowPolicy policy, IBufferAllocator allocator) {
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive!");
+        
+        this.capacity = capacity;
+        this.policy = policy;
+        this.allocator = allocator;
+    }
+    
+    /**
+     * Queues a frame which can not be dropped. Frames queued after the queue was closed are silently dropped.
+     * 
+     * @param frame the frame to write
+     * @param owned true if the frame buffer must be given back to the allocator once written or dropped
+     * @param mayBlock false if the calling thread must never wait for room, even with the {@link OverflowPolicy#BLOCK} policy
+     * @return false if the queue overflowed and the client must be disconnected, true otherwise
+     * @throws InterruptedIOException if the thread was interrupted while waiting for room
+     */
+    public boolean offer(ByteBuffer frame, boolean owned, boolean mayBlock) throws InterruptedIOException {
+        return offer(frame, owned, false, mayBlock);
+    }
+    
+    /**
+     * Queues a frame. Frames queued after the queue was closed are silently dropped.
+     * With the {@link OverflowPolicy#DROP_OLDEST} policy, the oldest droppable frame makes room, and a full queue
+     * without droppable frames is handled like with the {@link OverflowPolicy#BLOCK} policy.
+     * 
+     * @param frame the frame to write
+     * @param owned true if the frame buffer must be given back to the allocator once written or dropped
+     * @param droppable true if the frame may be dropped by the {@link OverflowPolicy#DROP_OLDEST} policy
+     * @param mayBlock false if the calling thread must never wait for room, even with the {@link OverflowPolicy#BLOCK} policy
+     * @return false if the queue overflowed and the client must be disconnected, true otherwise
+     * @throws InterruptedIOException if the thread was interrupted while waiting for room
+     */
+    public boolean offer(ByteBuffer frame, boolean owned, boolean droppable, boolean mayBlock) throws InterruptedIOException {
+        boolean offered;
+        boolean writabilityChanged;
+        lock.lock();
+        try {
+            offered = enqueue(frame, owned, droppable, mayBlock);
+            writabilityChanged = updateWritability();
+        } finally {
+            lock.unlock();
+        }
+        if (writabilityChanged) fireWritabilityChanged();
+        return offered;
+    }
+    
+    private boolean enqueue(ByteBuffer frame, boolean owned, boolean droppable, boolean mayBlock) throws InterruptedIOException {
+        while (!closed && entries.size() >= capacity) {
+            if (policy == OverflowPolicy.DROP_OLDEST && dropOldest()) {
+                droppedPackets++;
+            } else if (policy == OverflowPolicy.DISCONNECT) {
+                if (owned) allocator.release(frame);
+                return false;
+            } else if (mayBlock) {
+                try {
+                    changed.await();
+                } catch (InterruptedException e) {
+                    if (owned) allocator.release(frame);
+                    throw new InterruptedIOException("Interrupted while waiting for the write queue!");
+                }
+            } else {
+                break;
+            }
+        }
+        if (closed) {
+            if (owned) allocator.release(frame);
+            return true;
+        }
+        
+        Entry entry = new Entry(frame, owned, droppable, System.nanoTime());
+        entries.offer(entry);
+        pendingPackets++;
+        pendingBytes += entry.size;
+        changed.signalAll();
+        return true;
+    }
+    
+    private boolean dropOldest() {
+        Iterator<Entry> it = entries.iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (!entry.droppable) continue;
+            
+            it.remove();
+            finish(entry, false);
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Waits for the next frame and removes it from the queue.
+     * 
+     * @return the next frame, or null if the queue was closed
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public Entry take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (entries.isEmpty() && !closed) {
+                changed.await();
+            }
+            return poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Removes the next frame from the queue, if any.
+     * 
+     * @return the next frame, or null if the queue is empty
+     */
+    public Entry poll() {
+        lock.lock();
+        try {
+            Entry entry = entries.poll();
+            if (entry != null) changed.signalAll();
+            return entry;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Removes up to the specified number of frames from the queue.
+     * 
+     * @param batch the array receiving the frames
+     * @param offset the index of the first frame in the array
+     * @param max the maximum number of frames
+     * @return the number of frames removed
+     */
+    public int drainTo(Entry[] batch, int offset, int max) {
+        lock.lock();
+        try {
+            int n = 0;
+            Entry entry;
+            while (n < max && (entry = entries.poll()) != null) {
+                batch[offset + n++] = entry;
+            }
+            if (n > 0) changed.signalAll();
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Marks a frame removed from the queue as completely written, or abandoned.
+     * 
+     * @param entry the frame
+     */
+    public void complete(Entry entry) {
+        boolean writabilityChanged;
+        lock.lock();
+        try {
+            finish(entry, true);
+            writabilityChanged = updateWritability();
+        } finally {
+            lock.unlock();
+        }
+        if (writabilityChanged) fireWritabilityChanged();
+    }
+    
+    private void finish(Entry entry, boolean written) {
+        pendingPackets--;
+        pendingBytes -= entry.size;
+        if (written) lastWriteLatency = System.nanoTime() - entry.time;
+        
+        if (entry.owned) allocator.release(entry.buffer);
+    }
+    
+    private boolean updateWritability() {
+        if (closed) return false;
+        
+        if (writable && pendingBytes >= highWatermark) {
+            writable = false;
+            return true;
+        }
+        if (!writable && pendingBytes <= lowWatermark) {
+            writable = true;
+            return true;
+        }
+        return false;
+    }
+    
+    private void fireWritabilityChanged() {
+        WritabilityListener listener = this.listener;
+        if (listener != null) listener.onWritabilityChanged(writable);
+    }
+    
+    /**
+     * Sets the pending byte thresholds at which the queue changes its writability.
+     * 
+     * @param lowWatermark the pending bytes at or below which an unwritable queue becomes writable again
+     * @param highWatermark the pending bytes at or above which the queue becomes unwritable
+     */
+    public void setWatermarks(long lowWatermark, long highWatermark) {
+        if (lowWatermark < 0 || highWatermark <= lowWatermark) throw new IllegalArgumentException("Invalid watermarks!");
+        
+        boolean writabilityChanged;
+        lock.lock();
+        try {
+            this.lowWatermark = lowWatermark;
+            this.highWatermark = highWatermark;
+            writabilityChanged = updateWritability();
+        } finally {
+            lock.unlock();
+        }
+        if (writabilityChanged) fireWritabilityChanged();
+    }
+    
+    /**
+     * Sets the listener notified when the writability of the queue changes.
+     * It is called by the thread which changed it, outside of the queue lock.
+     * 
+     * @param listener the listener, or null
+     */
+    public void setWritabilityListener(WritabilityListener listener) {
+        this.listener = listener;
+    }
+    
+    /**
+     * Checks if the pending bytes are below the high watermark, or went back to the low watermark since they reached it.
+     * 
+     * @return true if the queue is writable, false otherwise
+     */
+    public boolean isWritable() {
+        return writable;
+    }
+    
+    /**
+     * Closes the queue, dropping every queued frame and waking up waiting threads.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            
+            Entry entry;
+            while ((entry = entries.poll()) != null) {
+                finish(entry, false);
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Checks if no frame is queued. Frames removed from the queue but not written yet are not counted.
+     * 
+     * @return true if the queue is empty, false otherwise
+     */
+    public boolean isEmpty() {
+        lock.lock();
+        try {
+            return entries.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Gets the number of frames queued or being written.
+     * 
+     * @return the pending packet count
+     */
+    public int getPendingPackets() {
+        return pendingPackets;
+    }
+    
+    /**
+     * Gets the number of bytes queued or being written.
+     * 
+     * @return the pending byte count
+     */
+    public long getPendingBytes() {
+        return pendingBytes;
+    }
+    
+    /**
+     * Gets the number of droppable frames dropped by the {@link OverflowPolicy#DROP_OLDEST} policy.
+     * 
+     * @return the dropped packet count
+     */
+    public long getDroppedPackets() {
+        lock.lock();
+        try {
+            return droppedPackets;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Gets the time between queueing and completing the last written frame.
+     * 
+     * @return the last write latency in nanoseconds
+     */
+    public long getLastWriteLatency() {
+        return lastWriteLatency;
+    }
+    
+    /**
+     * Represents a writability listener.
+     */
+    public static interface WritabilityListener {
+        
+        /**
+         * Called when the pending bytes cross the high watermark, or drop back to the low watermark.
+         * 
+         * @param writable the new writability
+         */
+        void onWritabilityChanged(boolean writable);
+    }
+    
+    /**
+     * Represents a queued frame.
+     */
+    public static class Entry {
+        
+        public final ByteBuffer buffer;
+        public final boolean owned;
+        public final boolean droppable;
+        public final long time;
+        public final int size;
+        
+        public Entry(ByteBuffer buffer, boolean owned, long time) {
+            this(buffer, owned, false, time);
+        }
+        
+        public Entry(ByteBuffer buffer, boolean owned, boolean droppable, long time) {
+            this.buffer = buffer;
+            this.owned = owned;
+            this.droppable = droppable;
+            this.time = time;
+            this.size = buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package fluff.network.metrics;
+
+/**
+ * Represents the counters of a single client, which also records into the shared {@link NetworkMetrics}.
+ * Sent frames are recorded while holding the send lock of the client and received frames by its single
+ * reading thread, so the counters are plain volatile fields instead of atomic ones.
+ */
+public class ConnectionMetrics {
+    
+    private final NetworkMetrics shared;
+    
+    private volatile long bytesIn;
+    private volatile long bytesOut;
+    private volatile long framesIn;
+    private volatile long framesOut;
+    private volatile long packetsIn;
+    private volatile long packetsOut;
+    
+    /**
+     * Constructs new connection metrics.
+     *
+     * @param shared the metrics shared with other clients
+     */
+    public ConnectionMetrics(NetworkMetrics shared) {
+        this.shared = shared;
+    }
+    
+    /**
+     * Records a serialized outbound packet. Must be called while holding the send lock.
+     *
+     * @param packetClass the packet class
+     * @param size the serialized size, packet ID included
+     */
+    public void onPacketSent(Class<?> packetClass, int size) {
+        packetsOut++;
+        shared.onPacketSent(packetClass, size);
+    }
+    
+    /**
+     * Records a frame serialized and encoded. Must be called while holding the send lock.
+     *
+     * @param size the frame size
+     * @param serializeNanos the serialization time, or -1 if a shared frame was sent as is
+     * @param encodeNanos the encoding time
+     */
+    public void onFrameSent(int size, long serializeNanos, long encodeNanos) {
+        framesOut++;
+        bytesOut += size;
+        if (serializeNanos >= 0) shared.onSerialized(serializeNanos);
+        shared.onFrameSent(size, encodeNanos);
+    }
+    
+    /**
+     * Records a frame decoded. Must be called by the reading thread.
+     *
+     * @param size the frame size
+     * @param nanos the decoding time
+     */
+    public void onFrameReceived(int size, long nanos) {
+        framesIn++;
+        bytesIn += size;
+        shared.onFrameReceived(size, nanos);
+    }
+    
+    /**
+     * Records a deserialized inbound packet. Must be called by the reading thread.
+     *
+     * @param packetClass the packet class
+     * @param size the serialized size, packet ID excluded
+     * @param nanos the deserialization time
+     */
+    public void onPacketReceived(Class<?> packetClass, int size, long nanos) {
+        packetsIn++;
+        shared.onPacketReceived(packetClass, size, nanos);
+    }
+    
+    /**
+     * Records the execution of a packet handler. May be called by any thread.
+     *
+     * @param packetClass the packet class
+     * @param nanos the execution time
+     */
+    public void onHandled(Class<?> packetClass, long nanos) {
+        shared.onHandled(packetClass, nanos);
+    }
+    
+    /**
+     * Gets the metrics shared with other clients.
+     *
+     * @return the shared metrics
+     */
+    public NetworkMetrics getShared() {
+        return shared;
+    }
+    
+    /**
+     * Gets the number of frame bytes received by this client.
+     *
+     * @return the received byte count
+     */
+    public long getBytesIn() {
+        return bytesIn;
+    }
+    
+    /**
+     * Gets the number of frame bytes sent by this client.
+     *
+     * @return the sent byte count
+     */
+    public long getBytesOut() {
+        return bytesOut;
+    }
+    
+    /**
+     * Gets the number of frames received by this client.
+     *
+     * @return the received frame count
+     */
+    public long getFramesIn() {
+        return framesIn;
+    }
+    
+    /**
+     * Gets the number of frames sent by this client.
+     *
+     * @return the sent frame count
+     */
+    public long getFramesOut() {
+        return framesOut;
+    }
+    
+    /**
+     * Gets the number of packets received by this client.
+     *
+     * @return the received packet count
+     */
+    public long getPacketsIn() {
+        return packetsIn;
+    }
+    
+    /**
+     * Gets the number of packets sent by this client, batched packets included.
+     *
+     * @return the sent packet count
+     */
+    public long getPacketsOut() {
+        return packetsOut;
+    }
+    
+    @Override
+    public String toString() {
+        return "bytes.in=" + bytesIn + " bytes.out=" + bytesOut + " frames.in=" + framesIn + " frames.out=" + framesOut
+                + " packets.in=" + packetsIn + " packets.out=" + packetsOut;
+    }
+}
@@ -0,0 +1,145 @@
+package fluff.network.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Represents a lock-free histogram of durations in nanoseconds. Values are counted in logarithmic buckets,
+ * each power of 2 being split in {@value #SUB_BUCKETS} linear sub-buckets, so percentiles are accurate to about 6%
+ * while recording stays a single atomic increment, whatever the range of the values.
+ */
+public class LatencyHistogram {
+    
+    public static final int SUB_BUCKETS = 16;
+    
+    private static final int SUB_BITS = 4;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+    
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+    
+    /**
+     * Records a duration. Negative durations are recorded as 0.
+     *
+     * @param nanos the duration in nanoseconds
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        counts.incrementAndGet(index(value));
+        total.add(value);
+        max.accumulate(value);
+    }
+    
+    /**
+     * Clears every recorded duration. Durations recorded concurrently may be partially kept.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        total.reset();
+        max.reset();
+    }
+    
+    /**
+     * Takes a snapshot of the recorded durations.
+     *
+     * @return the snapshot
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new Snapshot(copy, count, total.sum(), max.get());
+    }
+    
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+    
+    private static long highestValue(int index) {
+        if (index < SUB_BUCKETS) return index;
+        
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = SUB_BUCKETS + index % SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+    
+    /**
+     * Represents the durations recorded by a histogram at some point.
+     */
+    public static class Snapshot {
+        
+        private final long[] counts;
+        private final long count;
+        private final long total;
+        private final long max;
+        
+        private Snapshot(long[] counts, long count, long total, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.total = total;
+            this.max = max;
+        }
+        
+        /**
+         * Gets the duration below which the specified fraction of the recorded durations fall.
+         *
+         * @param percentile the fraction, between 0 and 1
+         * @return the duration in nanoseconds, rounded up to its bucket, or 0 if nothing was recorded
+         */
+        public long getPercentile(double percentile) {
+            if (count == 0) return 0;
+            
+            long rank = Math.max((long) Math.ceil(percentile * count), 1);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(highestValue(i), max);
+            }
+            return max;
+        }
+        
+        /**
+         * Gets the number of recorded durations.
+         *
+         * @return the count
+         */
+        public long getCount() {
+            return count;
+        }
+        
+        /**
+         * Gets the mean of the recorded durations.
+         *
+         * @return the mean in nanoseconds, or 0 if nothing was recorded
+         */
+        public double getMean() {
+            return count == 0 ? 0 : (double) total / count;
+        }
+        
+        /**
+         * Gets the longest recorded duration.
+         *
+         * @return the maximum in nanoseconds
+         */
+        public long getMax() {
+            return max;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("count=%d mean=%.0fns p50=%dns p90=%dns p99=%dns p999=%dns max=%dns",
+                    count, getMean(), getPercentile(0.5), getPercentile(0.9), getPercentile(0.99), getPercentile(0.999), max);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package fluff.network.metrics;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Represents the values of metrics at some point, to be logged or exported.
+ */
+public class MetricsSnapshot {
+    
+    private final long time = System.currentTimeMillis();
+    private final Map<String, Long> counters = new LinkedHashMap<>();
+    private final Map<String, LatencyHistogram.Snapshot> latencies = new LinkedHashMap<>();
+    
+    void counter(String name, long value) {
+        counters.put(name, value);
+    }
+    
+    void latency(String name, LatencyHistogram.Snapshot snapshot) {
+        latencies.put(name, snapshot);
+    }
+    
+    /**
+     * Gets the wall clock time at which the snapshot was taken.
+     *
+     * @return the time in milliseconds
+     */
+    public long getTime() {
+        return time;
+    }
+    
+    /**
+     * Gets the counters by name.
+     *
+     * @return an unmodifiable view of the counters
+     */
+    public Map<String, Long> getCounters() {
+        return Collections.unmodifiableMap(counters);
+    }
+    
+    /**
+     * Gets the duration histograms by name.
+     *
+     * @return an unmodifiable view of the histograms
+     */
+    public Map<String, LatencyHistogram.Snapshot> getLatencies() {
+        return Collections.unmodifiableMap(latencies);
+    }
+    
+    /**
+     * Flattens the snapshot into named values, such as {@code bytes.in} or {@code handle.p99}.
+     * Durations are in nanoseconds.
+     *
+     * @return the values by name
+     */
+    public Map<String, Number> toMap() {
+        Map<String, Number> map = new LinkedHashMap<>(counters);
+        for (Map.Entry<String, LatencyHistogram.Snapshot> e : latencies.entrySet()) {
+            LatencyHistogram.Snapshot s = e.getValue();
+            map.put(e.getKey() + ".count", s.getCount());
+            map.put(e.getKey() + ".mean", s.getMean());
+            map.put(e.getKey() + ".p50", s.getPercentile(0.5));
+            map.put(e.getKey() + ".p99", s.getPercentile(0.99));
+            map.put(e.getKey() + ".max", s.getMax());
+        }
+        return map;
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> e : counters.entrySet()) {
+            sb.append(e.getKey()).append(' ').append(e.getValue()).append('\n');
+        }
+        for (Map.Entry<String, LatencyHistogram.Snapshot> e : latencies.entrySet()) {
+            sb.append(e.getKey()).append(' ').append(e.getValue()).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,264 @@
+package fluff.network.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Represents the metrics shared by every client of a server, or by any group of clients. Counters are striped
+ * {@link LongAdder}s and durations are recorded in {@link LatencyHistogram}s, so recording never blocks.
+ * <p>
+ * Clients only record metrics once {@link fluff.network.client.AbstractClient#setMetrics(NetworkMetrics)}
+ * is called, and skip every measurement otherwise.
+ */
+public class NetworkMetrics {
+    
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder framesIn = new LongAdder();
+    private final LongAdder framesOut = new LongAdder();
+    private final LongAdder packetsIn = new LongAdder();
+    private final LongAdder packetsOut = new LongAdder();
+    private final LongAdder connects = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    
+    private final LatencyHistogram serializeTime = new LatencyHistogram();
+    private final LatencyHistogram deserializeTime = new LatencyHistogram();
+    private final LatencyHistogram encodeTime = new LatencyHistogram();
+    private final LatencyHistogram decodeTime = new LatencyHistogram();
+    private final LatencyHistogram handleTime = new LatencyHistogram();
+    
+    private final Map<Class<?>, PacketMetrics> packets = new ConcurrentHashMap<>();
+    
+    /**
+     * Gets the metrics of a packet type, creating them on the first call.
+     *
+     * @param packetClass the packet class
+     * @return the packet metrics
+     */
+    public PacketMetrics getPacketMetrics(Class<?> packetClass) {
+        PacketMetrics metrics = packets.get(packetClass);
+        return metrics != null ? metrics : packets.computeIfAbsent(packetClass, PacketMetrics::new);
+    }
+    
+    /**
+     * Records a serialized outbound packet.
+     *
+     * @param packetClass the packet class
+     * @param size the serialized size, packet ID included
+     */
+    public void onPacketSent(Class<?> packetClass, int size) {
+        packetsOut.increment();
+        getPacketMetrics(packetClass).onSent(size);
+    }
+    
+    /**
+     * Records the serialization time of a frame payload.
+     *
+     * @param nanos the serialization time
+     */
+    public void onSerialized(long nanos) {
+        serializeTime.record(nanos);
+    }
+    
+    /**
+     * Records a frame encoded by the channel.
+     *
+     * @param size the frame size
+     * @param nanos the encoding time
+     */
+    public void onFrameSent(int size, long nanos) {
+        framesOut.increment();
+        bytesOut.add(size);
+        encodeTime.record(nanos);
+    }
+    
+    /**
+     * Records a frame decoded by the channel.
+     *
+     * @param size the frame size
+     * @param nanos the decoding time
+     */
+    public void onFrameReceived(int size, long nanos) {
+        framesIn.increment();
+        bytesIn.add(size);
+        decodeTime.record(nanos);
+    }
+    
+    /**
+     * Records a deserialized inbound packet.
+     *
+     * @param packetClass the packet class
+     * @param size the serialized size, packet ID excluded
+     * @param nanos the deserialization time
+     */
+    public void onPacketReceived(Class<?> packetClass, int size, long nanos) {
+        packetsIn.increment();
+        deserializeTime.record(nanos);
+        getPacketMetrics(packetClass).onReceived(size);
+    }
+    
+    /**
+     * Records the execution of a packet handler.
+     *
+     * @param packetClass the packet class
+     * @param nanos the execution time
+     */
+    public void onHandled(Class<?> packetClass, long nanos) {
+        handleTime.record(nanos);
+        getPacketMetrics(packetClass).onHandled(nanos);
+    }
+    
+    /**
+     * Records a client connecting.
+     */
+    public void onConnect() {
+        connects.increment();
+    }
+    
+    /**
+     * Records a client disconnecting.
+     */
+    public void onDisconnect() {
+        disconnects.increment();
+    }
+    
+    /**
+     * Records an error.
+     */
+    public void onError() {
+        errors.increment();
+    }
+    
+    /**
+     * Clears every counter and histogram. Values recorded concurrently may be partially kept.
+     */
+    public void reset() {
+        for (LongAdder counter : new LongAdder[] { bytesIn, bytesOut, framesIn, framesOut, packetsIn, packetsOut, connects, disconnects, errors }) {
+            counter.reset();
+        }
+        for (LatencyHistogram histogram : new LatencyHistogram[] { serializeTime, deserializeTime, encodeTime, decodeTime, handleTime }) {
+            histogram.reset();
+        }
+        for (PacketMetrics metrics : packets.values()) {
+            metrics.reset();
+        }
+    }
+    
+    /**
+     * Takes a snapshot of every counter and histogram.
+     *
+     * @return the snapshot
+     */
+    public MetricsSnapshot snapshot() {
+        MetricsSnapshot snapshot = new MetricsSnapshot();
+        snapshot.counter("bytes.in", bytesIn.sum());
+        snapshot.counter("bytes.out", bytesOut.sum());
+        snapshot.counter("frames.in", framesIn.sum());
+        snapshot.counter("frames.out", framesOut.sum());
+        snapshot.counter("packets.in", packetsIn.sum());
+        snapshot.counter("packets.out", packetsOut.sum());
+        snapshot.counter("connects", connects.sum());
+        snapshot.counter("disconnects", disconnects.sum());
+        snapshot.counter("connections", connects.sum() - disconnects.sum());
+        snapshot.counter("errors", errors.sum());
+        
+        snapshot.latency("serialize", serializeTime.snapshot());
+        snapshot.latency("deserialize", deserializeTime.snapshot());
+        snapshot.latency("encode", encodeTime.snapshot());
+        snapshot.latency("decode", decodeTime.snapshot());
+        snapshot.latency("handle", handleTime.snapshot());
+        
+        for (PacketMetrics metrics : packets.values()) {
+            String name = "packet." + metrics.getPacketClass().getName();
+            snapshot.counter(name + ".sent", metrics.getSent());
+            snapshot.counter(name + ".sent.bytes", metrics.getSentBytes());
+            snapshot.counter(name + ".received", metrics.getReceived());
+            snapshot.counter(name + ".received.bytes", metrics.getReceivedBytes());
+            snapshot.latency(name + ".handle", metrics.getHandleTime().snapshot());
+        }
+        return snapshot;
+    }
+    
+    /**
+     * Gets the number of frame bytes received.
+     *
+     * @return the received byte count
+     */
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+    
+    /**
+     * Gets the number of frame bytes sent.
+     *
+     * @return the sent byte count
+     */
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+    
+    /**
+     * Gets the number of packets received.
+     *
+     * @return the received packet count
+     */
+    public long getPacketsIn() {
+        return packetsIn.sum();
+    }
+    
+    /**
+     * Gets the number of packets sent, batched packets included.
+     *
+     * @return the sent packet count
+     */
+    public long getPacketsOut() {
+        return packetsOut.sum();
+    }
+    
+    /**
+     * Gets the histogram of the time spent serializing frame payloads.
+     *
+     * @return the serialize time histogram
+     */
+    public LatencyHistogram getSerializeTime() {
+        return serializeTime;
+    }
+    
+    /**
+     * Gets the histogram of the time spent deserializing packets.
+     *
+     * @return the deserialize time histogram
+     */
+    public LatencyHistogram getDeserializeTime() {
+        return deserializeTime;
+    }
+    
+    /**
+     * Gets the histogram of the time spent by channels encoding frames, encryption included.
+     *
+     * @return the encode time histogram
+     */
+    public LatencyHistogram getEncodeTime() {
+        return encodeTime;
+    }
+    
+    /**
+     * Gets the histogram of the time spent by channels decoding frames, decryption included.
+     *
+     * @return the decode time histogram
+     */
+    public LatencyHistogram getDecodeTime() {
+        return decodeTime;
+    }
+    
+    /**
+     * Gets the histogram of the handler execution times of every packet type.
+     *
+     * @return the handle time histogram
+     */
+    public LatencyHistogram getHandleTime() {
+        return handleTime;
+    }
+}
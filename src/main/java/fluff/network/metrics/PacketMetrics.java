@@ -0,0 +1,102 @@
+package fluff.network.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Represents the counters of a single packet type.
+ */
+public class PacketMetrics {
+    
+    private final Class<?> packetClass;
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder sentBytes = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder receivedBytes = new LongAdder();
+    private final LatencyHistogram handleTime = new LatencyHistogram();
+    
+    /**
+     * Constructs new packet metrics.
+     *
+     * @param packetClass the packet class
+     */
+    public PacketMetrics(Class<?> packetClass) {
+        this.packetClass = packetClass;
+    }
+    
+    void onSent(int size) {
+        sent.increment();
+        sentBytes.add(size);
+    }
+    
+    void onReceived(int size) {
+        received.increment();
+        receivedBytes.add(size);
+    }
+    
+    void onHandled(long nanos) {
+        handleTime.record(nanos);
+    }
+    
+    void reset() {
+        sent.reset();
+        sentBytes.reset();
+        received.reset();
+        receivedBytes.reset();
+        handleTime.reset();
+    }
+    
+    /**
+     * Gets the packet class.
+     *
+     * @return the packet class
+     */
+    public Class<?> getPacketClass() {
+        return packetClass;
+    }
+    
+    /**
+     * Gets the number of packets sent, batched packets included.
+     *
+     * @return the sent packet count
+     */
+    public long getSent() {
+        return sent.sum();
+    }
+    
+    /**
+     * Gets the number of serialized bytes sent, packet IDs included. Batched packets are counted without their bytes,
+     * which are only part of the frame counters.
+     *
+     * @return the sent byte count
+     */
+    public long getSentBytes() {
+        return sentBytes.sum();
+    }
+    
+    /**
+     * Gets the number of packets received.
+     *
+     * @return the received packet count
+     */
+    public long getReceived() {
+        return received.sum();
+    }
+    
+    /**
+     * Gets the number of serialized bytes received, packet IDs excluded.
+     *
+     * @return the received byte count
+     */
+    public long getReceivedBytes() {
+        return receivedBytes.sum();
+    }
+    
+    /**
+     * Gets the histogram of the handler execution times.
+     *
+     * @return the handle time histogram
+     */
+    public LatencyHistogram getHandleTime() {
+        return handleTime;
+    }
+}
@@ -0,0 +1,136 @@
+package fluff.network.packet;
+
+import java.util.Map;
+import java.util.function.BiFunction;
+
+import fluff.functions.gen.Func;
+import fluff.functions.gen.obj.obj.VoidFunc2;
+import fluff.network.INetHandler;
+
+/**
+ * Represents a frozen packet context, produced by {@link PacketContext#compile()} once registration is complete.
+ * Descriptors are looked up in an array indexed by packet ID and packet IDs are cached per class,
+ * so lookups neither box IDs nor hash keys. A compiled context can not be modified.
+ *
+ * @param <V> the type of network handler
+ */
+public class CompiledPacketContext<V extends INetHandler> extends PacketContext<V> {
+    
+    /**
+     * The largest ID range covered by the descriptor array. Contexts with more sparse IDs use the descriptor map.
+     */
+    public static final int MAX_ARRAY_SPAN = 1 << 16;
+    
+    private final PacketDescriptor[] descriptorArray;
+    private final int minID;
+    private final ClassValue<Integer> classIDs = new ClassValue<>() {
+        
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            return ids.get(type);
+        }
+    };
+    
+    /**
+     * Constructs a new compiled packet context from the current registrations of the specified context.
+     *
+     * @param context the packet context to compile
+     */
+    protected CompiledPacketContext(PacketContext<V> context) {
+        super(context.getName());
+        
+        descriptors.putAll(context.descriptors);
+        ids.putAll(context.ids);
+        
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int id : descriptors.keySet()) {
+            min = Math.min(min, id);
+            max = Math.max(max, id);
+        }
+        
+        if (descriptors.isEmpty() || (long) max - min >= MAX_ARRAY_SPAN) {
+            this.descriptorArray = null;
+            this.minID = 0;
+        } else {
+            this.descriptorArray = new PacketDescriptor[max - min + 1];
+            this.minID = min;
+            for (Map.Entry<Integer, PacketDescriptor> e : descriptors.entrySet()) {
+                descriptorArray[e.getKey() - min] = e.getValue();
+            }
+        }
+    }
+    
+    @Override
+    protected <P extends IPacketBase> PacketContext<V> register(int id, PacketDescriptor descriptor) {
+        throw new IllegalStateException("Packet context " + name + " is compiled!");
+    }
+    
+    @Override
+    public <P extends IPacket> PacketContext<V> register(int id, Class<P> packetClass, Func<P> packetFunc, VoidFunc2<V, P> handleFunc) {
+        throw new IllegalStateException("Packet context " + name + " is compiled!");
+    }
+    
+    @Override
+    public <P extends IPacketInbound> PacketContext<V> registerInbound(int id, Func<P> packetFunc, VoidFunc2<V, P> handleFunc) {
+        throw new IllegalStateException("Packet context " + name + " is compiled!");
+    }
+    
+    @Override
+    public <P extends IPacket> PacketContext<V> registerRequest(int id, Class<P> packetClass, Func<P> packetFunc, BiFunction<V, P, ? extends IPacketOutbound> respondFunc) {
+        throw new IllegalStateException("Packet context " + name + " is compiled!");
+    }
+    
+    @Override
+    public <P extends IPacket> PacketContext<V> registerStream(int id, Class<P> packetClass, Func<P> packetFunc, BiFunction<V, P, ? extends IStreamReceiver> openFunc) {
+        throw new IllegalStateException("Packet context " + name + " is compiled!");
+    }
+    
+    @Override
+    public <P extends IPacketOutbound> PacketContext<V> registerOutbound(int id, Class<P> packetClass) {
+        throw new IllegalStateException("Packet context " + name + " is compiled!");
+    }
+    
+    @Override
+    public PacketContext<V> unregister(int id) {
+        throw new IllegalStateException("Packet context " + name + " is compiled!");
+    }
+    
+    @Override
+    public PacketContext<V> setDispatchMode(int id, DispatchMode dispatchMode) {
+        throw new IllegalStateException("Packet context " + name + " is compiled!");
+    }
+    
+    @Override
+    public PacketContext<V> setPooled(int id, int capacity) {
+        throw new IllegalStateException("Packet context " + name + " is compiled!");
+    }
+    
+    @Override
+    public CompiledPacketContext<V> compile() {
+        return this;
+    }
+    
+    @Override
+    public boolean contains(int id) {
+        return getDescriptor(id) != null;
+    }
+    
+    @Override
+    public boolean contains(Class<? extends IPacketBase> packetClass) {
+        return classIDs.get(packetClass) != null;
+    }
+    
+    @Override
+    public PacketDescriptor getDescriptor(int id) {
+        if (descriptorArray == null) return descriptors.get(id);
+        
+        int index = id - minID;
+        return index >= 0 && index < descriptorArray.length ? descriptorArray[index] : null;
+    }
+    
+    @Override
+    public int getID(Class<? extends IPacketBase> packetClass) {
+        return classIDs.get(packetClass);
+    }
+}
@@ -0,0 +1,26 @@
+package fluff.network.packet;
+
+/**
+ * Enum representing on which thread a received packet is handled. Packets are always read
+ * and deserialized by the thread reading the connection, only their handling is dispatched.
+ */
+public enum DispatchMode {
+    
+    /**
+     * The packet is handled by the thread reading the connection, without any handoff.
+     * A slow handler delays reading the next packets of the connection.
+     */
+    INLINE,
+    
+    /**
+     * The packet is handled by the dispatch executor, in no particular order
+     * relative to the other packets of the connection.
+     */
+    POOL,
+    
+    /**
+     * The packet is handled by the dispatch executor, after every serial packet received before it
+     * from the same connection has been handled.
+     */
+    SERIAL;
+}
@@ -0,0 +1,243 @@
+package fluff.network.packet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import fluff.network.NetworkException;
+
+/**
+ * Enum representing how packet IDs and frame lengths are written on the wire.
+ * Both peers of a connection must use the same format.
+ */
+public enum FrameFormat {
+    
+    /**
+     * Packet IDs and frame lengths are written as 4 byte big-endian integers.
+     */
+    FIXED,
+    
+    /**
+     * Packet IDs are written as zigzag varints and frame lengths as varints,
+     * so IDs between -64 and 63 and frames shorter than 128 bytes take a single byte.
+     */
+    COMPACT;
+    
+    /**
+     * The maximum size of a varint encoded integer.
+     */
+    public static final int MAX_VARINT_SIZE = 5;
+    
+    /**
+     * Writes a packet ID.
+     *
+     * @param out the output stream
+     * @param id the packet ID
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeID(OutputStream out, int id) throws IOException {
+        if (this == FIXED) {
+            writeInt(out, id);
+        } else {
+            writeVarInt(out, (id << 1) ^ (id >> 31));
+        }
+    }
+    
+    /**
+     * Reads a packet ID from the remaining bytes of the buffer.
+     *
+     * @param in the buffer
+     * @return the packet ID
+     * @throws NetworkException if the ID is truncated or malformed
+     */
+    public int readID(ByteBuffer in) throws NetworkException {
+        if (this == FIXED) {
+            if (in.remaining() < 4) throw new NetworkException("Truncated packet ID!");
+            return in.getInt();
+        }
+        
+        int start = in.position();
+        int size = varIntSize(in, start);
+        if (size == -1) throw new NetworkException("Invalid packet ID!");
+        
+        int zigzag = getVarInt(in, start);
+        in.position(start + size);
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+    
+    /**
+     * Writes a frame length.
+     *
+     * @param out the output stream
+     * @param length the frame length
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeLength(OutputStream out, int length) throws IOException {
+        if (this == FIXED) {
+            writeInt(out, length);
+        } else {
+            writeVarInt(out, length);
+        }
+    }
+    
+    /**
+     * Reads a frame length from the input stream.
+     *
+     * @param in the input stream
+     * @return the frame length, or -1 if the stream ended before the length
+     * @throws IOException if an I/O error occurs
+     * @throws NetworkException if the length is malformed
+     */
+    public int readLength(InputStream in) throws IOException, NetworkException {
+        int value = 0;
+        if (this == FIXED) {
+            for (int i = 0; i < 4; i++) {
+                int b = in.read();
+                if (b == -1) return -1;
+                
+                value = (value << 8) | b;
+            }
+            if (value < 0) throw new NetworkException("Invalid frame length " + value + "!");
+            return value;
+        }
+        
+        for (int i = 0; i < MAX_VARINT_SIZE; i++) {
+            int b = in.read();
+            if (b == -1) return -1;
+            
+            value |= (b & 0x7F) << (7 * i);
+            if ((b & 0x80) == 0) {
+                if (value < 0) break;
+                return value;
+            }
+        }
+        throw new NetworkException("Invalid frame length!");
+    }
+    
+    /**
+     * Gets the number of bytes taken by a frame length.
+     *
+     * @param length the frame length
+     * @return the size of the length
+     */
+    public int lengthSize(int length) {
+        return this == FIXED ? 4 : varIntSize(length);
+    }
+    
+    /**
+     * Gets the number of bytes reserved for the length in front of every frame.
+     *
+     * @return the maximum size of a length
+     */
+    public int maxLengthSize() {
+        return this == FIXED ? 4 : MAX_VARINT_SIZE;
+    }
+    
+    /**
+     * Writes a frame length at the specified index, without moving the buffer position.
+     *
+     * @param buffer the buffer
+     * @param index the index of the first byte of the length
+     * @param length the frame length
+     */
+    public void putLength(ByteBuffer buffer, int index, int length) {
+        if (this == FIXED) {
+            buffer.putInt(index, length);
+            return;
+        }
+        
+        while ((length & ~0x7F) != 0) {
+            buffer.put(index++, (byte) ((length & 0x7F) | 0x80));
+            length >>>= 7;
+        }
+        buffer.put(index, (byte) length);
+    }
+    
+    /**
+     * Reads a frame length at the specified index, without moving the buffer position.
+     *
+     * @param buffer the buffer
+     * @param index the index of the first byte of the length
+     * @return the frame length, or -1 if the length is not complete yet
+     * @throws NetworkException if the length is malformed
+     */
+    public int getLength(ByteBuffer buffer, int index) throws NetworkException {
+        if (this == FIXED) {
+            if (buffer.limit() - index < 4) return -1;
+            
+            int length = buffer.getInt(index);
+            if (length < 0) throw new NetworkException("Invalid frame length " + length + "!");
+            return length;
+        }
+        
+        if (varIntSize(buffer, index) == -1) {
+            if (buffer.limit() - index >= MAX_VARINT_SIZE) throw new NetworkException("Invalid frame length!");
+            return -1;
+        }
+        
+        int length = getVarInt(buffer, index);
+        if (length < 0) throw new NetworkException("Invalid frame length!");
+        return length;
+    }
+    
+    /**
+     * Reads a frame length at the specified index like {@link #getLength(ByteBuffer, int)}, rejecting lengths
+     * above the specified maximum before the frame is received.
+     *
+     * @param buffer the buffer
+     * @param index the index of the first byte of the length
+     * @param maxLength the maximum frame length
+     * @return the frame length, or -1 if the length is not complete yet
+     * @throws NetworkException if the length is malformed or exceeds the maximum
+     */
+    public int getLength(ByteBuffer buffer, int index, int maxLength) throws NetworkException {
+        int length = getLength(buffer, index);
+        if (length > maxLength) throw new NetworkException("Frame length " + length + " exceeds the maximum of " + maxLength + "!");
+        return length;
+    }
+    
+    private static void writeInt(OutputStream out, int value) throws IOException {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+    
+    private static void writeVarInt(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+    
+    /**
+     * Gets the number of bytes taken by a varint.
+     *
+     * @param value the value
+     * @return the size of the varint
+     */
+    public static int varIntSize(int value) {
+        return (31 - Integer.numberOfLeadingZeros(value | 1)) / 7 + 1;
+    }
+    
+    private static int varIntSize(ByteBuffer buffer, int index) {
+        int end = Math.min(buffer.limit(), index + MAX_VARINT_SIZE);
+        for (int i = index; i < end; i++) {
+            if ((buffer.get(i) & 0x80) == 0) return i - index + 1;
+        }
+        return -1;
+    }
+    
+    private static int getVarInt(ByteBuffer buffer, int index) {
+        int size = varIntSize(buffer, index);
+        if (size == -1) return -1;
+        
+        int value = 0;
+        for (int i = 0; i < size; i++) {
+            value |= (buffer.get(index + i) & 0x7F) << (7 * i);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,141 @@
+package fluff.network.packet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import fluff.network.NetworkException;
+import fluff.network.packet.channels.PacketChannelAdapter;
+
+/**
+ * Represents a packet channel framing packets directly in {@link ByteBuffer}s, without intermediate byte array copies.
+ * Clients always talk to their channel through this interface; plain {@link IPacketChannel}s are wrapped
+ * in a {@link PacketChannelAdapter}.
+ */
+public interface IBufferChannel extends IPacketChannel {
+    
+    /**
+     * The default maximum payload size accepted by the channels and clients, checked before anything is allocated.
+     */
+    int DEFAULT_MAX_FRAME_SIZE = 16 * 1024 * 1024;
+    
+    /**
+     * Returns a buffer channel for the specified packet channel, wrapping it if needed.
+     *
+     * @param channel the packet channel
+     * @return the buffer channel
+     */
+    static IBufferChannel of(IPacketChannel channel) {
+        return channel instanceof IBufferChannel bufferChannel ? bufferChannel : new PacketChannelAdapter(channel);
+    }
+    
+    /**
+     * Gets the number of bytes reserved in front of every payload, so the frame header can be written in place.
+     *
+     * @return the header size
+     */
+    int headerSize();
+    
+    /**
+     * Gets the format of the packet ID written in front of every payload. Channels framing packets
+     * with a length prefix use the same format for it.
+     *
+     * @return the frame format
+     */
+    default FrameFormat getFrameFormat() {
+        return FrameFormat.FIXED;
+    }
+    
+    /**
+     * Gets the number of bytes the channel may append after every payload, like an authentication tag.
+     *
+     * @return the trailer size
+     */
+    default int trailerSize() {
+        return 0;
+    }
+    
+    /**
+     * Frames a payload. On entry the frame starts at its position with {@link #headerSize()} reserved bytes,
+     * followed by the payload up to its limit. Callers should leave {@link #trailerSize()} bytes of capacity
+     * after the limit, so the channel can append to the frame in place.
+     *
+     * @param frame the reserved header followed by the payload
+     * @return a buffer whose remaining bytes are the complete frame, either the given buffer or one owned
+     *         by this channel that stays valid until the next call
+     * @throws IOException if an I/O error occurs while encoding
+     * @throws NetworkException if a network-related error occurs while encoding
+     */
+    ByteBuffer encode(ByteBuffer frame) throws IOException, NetworkException;
+    
+    /**
+     * Decodes the next frame from the remaining bytes of the input. If the frame is complete, the input position
+     * is moved past it; otherwise nothing is consumed.
+     *
+     * @param input the received bytes
+     * @return the payload of the frame, valid until the next call or until the input is modified,
+     *         or null if the frame is not complete yet
+     * @throws IOException if an I/O error occurs while decoding
+     * @throws NetworkException if a network-related error occurs while decoding
+     */
+    ByteBuffer decode(ByteBuffer input) throws IOException, NetworkException;
+    
+    /**
+     * Gets a key identifying the frame format of this channel, if its frames only depend on the payload.
+     * Channels returning equal keys produce identical frames for identical payloads, so a frame encoded once
+     * can be written by every connection, like when broadcasting. Channels which transform payloads
+     * with per connection state, like encryption, must return null.
+     *
+     * @return the frame format key, or null if frames can not be shared
+     */
+    default Object getFrameKey() {
+        return null;
+    }
+
+    @Override
+    default ByteArrayInputStream read(BufferedInputStream input) throws IOException, NetworkException {
+        ByteBuffer buffer = ByteBuffer.allocate(256).flip();
+        ByteBuffer payload;
+        int n = 0;
+        while ((payload = decode(buffer)) == null) {
+            buffer.compact();
+            if (!buffer.hasRemaining()) buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer.flip());
+            
+            input.mark(buffer.remaining());
+            n = input.read(buffer.array(), buffer.position(), buffer.remaining());
+            if (n == -1) return EMPTY;
+            
+            buffer.position(buffer.position() + n).flip();
+        }
+        
+        // the bytes read past the frame all come from the last read, and belong to the next frame
+        if (buffer.hasRemaining()) {
+            input.reset();
+            input.skipNBytes(n - buffer.remaining());
+        }
+        
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        return new ByteArrayInputStream(bytes);
+    }
+    
+    @Override
+    default void write(BufferedOutputStream output, ByteArrayOutputStream bytes) throws IOException, NetworkException {
+        ByteBuffer frame = ByteBuffer.allocate(headerSize() + bytes.size() + trailerSize());
+        frame.position(headerSize());
+        frame.put(bytes.toByteArray());
+        
+        frame = encode(frame.flip());
+        if (frame.hasArray()) {
+            output.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+        } else {
+            byte[] encoded = new byte[frame.remaining()];
+            frame.get(encoded);
+            output.write(encoded);
+        }
+        output.flush();
+    }
+}
@@ -0,0 +1,71 @@
+package fluff.network.packet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import fluff.network.NetworkException;
+import fluff.network.packet.channels.PipelinePacketChannel;
+
+/**
+ * Represents a stage of a {@link PipelinePacketChannel}, transforming complete payloads on their way to and from the framing.
+ * Stages work on the buffers of the pipeline, in place when they can, so stacking them does not copy the payload
+ * more than the transformations themselves require.
+ */
+public interface IChannelStage {
+    
+    /**
+     * Gets the number of bytes reserved in front of every payload for this stage.
+     *
+     * @return the header size
+     */
+    default int headerSize() {
+        return 0;
+    }
+    
+    /**
+     * Gets the number of bytes this stage may append after every payload.
+     *
+     * @return the trailer size
+     */
+    default int trailerSize() {
+        return 0;
+    }
+    
+    /**
+     * Transforms an outgoing payload. On entry the frame starts at its position with {@link #headerSize()} reserved bytes,
+     * followed by the payload up to its limit, and has at least the specified headroom before its position
+     * for the stages after this one.
+     * <p>
+     * The returned buffer must keep the headroom before its position, and the stage must only append after the limit
+     * if the capacity also leaves the specified tailroom, otherwise it writes into a buffer it owns.
+     *
+     * @param frame the reserved header followed by the payload
+     * @param headroom the bytes needed before the position of the returned buffer
+     * @param tailroom the bytes needed after the limit of the returned buffer
+     * @return a buffer whose remaining bytes are the transformed payload, either the given buffer or one owned
+     *         by this stage that stays valid until the next call
+     * @throws IOException if an I/O error occurs while encoding
+     * @throws NetworkException if a network-related error occurs while encoding
+     */
+    ByteBuffer encode(ByteBuffer frame, int headroom, int tailroom) throws IOException, NetworkException;
+    
+    /**
+     * Reverses the transformation of an incoming payload.
+     *
+     * @param payload the remaining bytes are the payload, as produced by {@link #encode(ByteBuffer, int, int)}
+     * @return the original payload, valid until the next call or until the given payload is modified
+     * @throws IOException if an I/O error occurs while decoding
+     * @throws NetworkException if a network-related error occurs while decoding
+     */
+    ByteBuffer decode(ByteBuffer payload) throws IOException, NetworkException;
+    
+    /**
+     * Gets a key identifying the transformation of this stage, if its output only depends on the payload.
+     * See {@link IBufferChannel#getFrameKey()}.
+     *
+     * @return the stage key, or null if the output can not be shared
+     */
+    default Object getStageKey() {
+        return null;
+    }
+}
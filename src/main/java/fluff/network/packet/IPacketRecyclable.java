@@ -0,0 +1,14 @@
+package fluff.network.packet;
+
+/**
+ * Represents a pooled inbound packet which clears its state before being reused,
+ * for example to drop references to large objects. Pooled packets not implementing
+ * this interface are simply overwritten by the next read.
+ */
+public interface IPacketRecyclable extends IPacketBase {
+
+	/**
+	 * Called when the packet is given back to its pool, after it has been handled.
+	 */
+	void recycle();
+}
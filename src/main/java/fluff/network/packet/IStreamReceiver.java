@@ -0,0 +1,42 @@
+package fluff.network.packet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the body of a stream packet chunk by chunk, so the body never has to fit in memory.
+ * Chunks are passed in order by the thread receiving packets, and are only valid during the call.
+ */
+public interface IStreamReceiver {
+    
+    /**
+     * A receiver ignoring the body of a stream.
+     */
+    IStreamReceiver DISCARD = new IStreamReceiver() {
+        
+        @Override
+        public void onChunk(ByteBuffer chunk) {}
+        
+        @Override
+        public void onComplete() {}
+    };
+    
+    /**
+     * Called for every chunk of the body.
+     *
+     * @param chunk the chunk, only valid during this call
+     * @throws IOException if the chunk can not be consumed, which aborts the stream
+     */
+    void onChunk(ByteBuffer chunk) throws IOException;
+    
+    /**
+     * Called once the whole body was received.
+     */
+    void onComplete();
+    
+    /**
+     * Called instead of {@link #onComplete()} if the body will never be complete, because the sender failed
+     * to read it, a chunk could not be consumed or the connection was closed.
+     */
+    default void onAbort() {}
+}
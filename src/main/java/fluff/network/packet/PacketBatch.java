@@ -0,0 +1,135 @@
+package fluff.network.packet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import fluff.bin.stream.BinaryOutputStream;
+import fluff.network.NetworkException;
+import fluff.network.buffer.ByteBufferOutputStream;
+
+/**
+ * Represents outbound packets collected to be sent together in a single frame, with a single write and flush.
+ * The frame carries the {@link PacketContext#BATCH_ID} packet ID followed by every packet, each one prefixed
+ * with its length, and the receiving client handles them in order.
+ * <p>
+ * A batch is not thread safe and can only be committed once.
+ */
+public class PacketBatch {
+    
+    private final List<IPacketOutbound> packets = new ArrayList<>();
+    private final Consumer<PacketBatch> committer;
+    private boolean committed;
+    
+    /**
+     * Constructs a new batch.
+     *
+     * @param committer the function sending the batch once committed
+     */
+    public PacketBatch(Consumer<PacketBatch> committer) {
+        this.committer = committer;
+    }
+    
+    /**
+     * Adds a packet to the batch.
+     *
+     * @param packet the outbound packet to send
+     * @return this batch
+     * @throws IllegalStateException if the batch is already committed
+     */
+    public PacketBatch send(IPacketOutbound packet) {
+        Objects.requireNonNull(packet);
+        if (committed) throw new IllegalStateException("Batch already committed!");
+        
+        packets.add(packet);
+        return this;
+    }
+    
+    /**
+     * Sends every packet of the batch. Empty batches send nothing.
+     *
+     * @throws IllegalStateException if the batch is already committed
+     */
+    public void commit() {
+        if (committed) throw new IllegalStateException("Batch already committed!");
+        
+        committed = true;
+        if (!packets.isEmpty()) committer.accept(this);
+    }
+    
+    /**
+     * Gets the packets of the batch.
+     *
+     * @return an unmodifiable view of the packets, in sending order
+     */
+    public List<IPacketOutbound> getPackets() {
+        return Collections.unmodifiableList(packets);
+    }
+    
+    /**
+     * Gets the number of packets in the batch.
+     *
+     * @return the packet count
+     */
+    public int size() {
+        return packets.size();
+    }
+    
+    /**
+     * Checks if the batch has been committed.
+     *
+     * @return true if the batch is committed, false otherwise
+     */
+    public boolean isCommitted() {
+        return committed;
+    }
+    
+    /**
+     * Serializes the batch ID followed by every packet with its length.
+     *
+     * @param bytes the stream receiving the payload
+     * @param out the binary stream writing into the same bytes
+     * @param context the packet context of the receiving client
+     * @param format the frame format of the packet IDs and lengths
+     * @param packets the packets to serialize
+     * @throws IOException if an I/O error occurs while serializing
+     * @throws NetworkException if a packet is not registered in the context
+     */
+    public static void write(ByteBufferOutputStream bytes, BinaryOutputStream out, PacketContext<?> context, FrameFormat format, List<IPacketOutbound> packets) throws IOException, NetworkException {
+        format.writeID(bytes, PacketContext.BATCH_ID);
+        
+        int maxLengthSize = format.maxLengthSize();
+        for (IPacketOutbound packet : packets) {
+            Class<? extends IPacketOutbound> packetClass = packet.getClass();
+            if (!context.contains(packetClass)) throw new NetworkException("Invalid packet!");
+            
+            int index = bytes.skip(maxLengthSize);
+            format.writeID(bytes, context.getID(packetClass));
+            out.Data(packet);
+            
+            ByteBuffer buffer = bytes.buffer();
+            int len = buffer.position() - index - maxLengthSize;
+            int lengthSize = format.lengthSize(len);
+            if (lengthSize < maxLengthSize) { // move the packet back against its length
+                move(buffer, index + maxLengthSize, index + lengthSize, len);
+                buffer.position(index + lengthSize + len);
+            }
+            format.putLength(buffer, index, len);
+        }
+    }
+    
+    private static void move(ByteBuffer buffer, int from, int to, int len) {
+        if (buffer.hasArray()) {
+            System.arraycopy(buffer.array(), buffer.arrayOffset() + from, buffer.array(), buffer.arrayOffset() + to, len);
+            return;
+        }
+        
+        for (int i = 0; i < len; i++) {
+            buffer.put(to + i, buffer.get(from + i));
+        }
+    }
+}
@@ -2,6 +2,7 @@ package fluff.network.packet;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.BiFunction;
 
 import fluff.functions.gen.Func;
 import fluff.functions.gen.obj.obj.VoidFunc2;
@@ -15,11 +16,55 @@ import fluff.network.INetHandler;
  */
 public class PacketContext<V extends INetHandler> {
     
+    /**
+     * The packet ID of the frames carrying a {@link PacketBatch}.
+     */
+    public static final int BATCH_ID = -1;
+    
+    /**
+     * The packet ID of the empty keepalive frames sent by an idle client, answered with a {@link #PONG_ID} frame.
+     */
+    public static final int PING_ID = -2;
+    
+    /**
+     * The packet ID of the empty frames answering a {@link #PING_ID} frame.
+     */
+    public static final int PONG_ID = -3;
+    
+    /**
+     * The packet ID of the frames carrying a request, followed by its correlation ID and the request packet.
+     */
+    public static final int REQUEST_ID = -4;
+    
+    /**
+     * The packet ID of the frames carrying a response, followed by the correlation ID of its request and the response packet.
+     */
+    public static final int RESPONSE_ID = -5;
+    
+    /**
+     * The packet ID of the frames answering a request which could not be handled, followed by its correlation ID.
+     */
+    public static final int REQUEST_FAILED_ID = -6;
+    
+    /**
+     * The packet ID of the frames carrying a chunk of a stream, followed by the stream ID, a flags byte and the chunk.
+     * The chunks of a stream, put back together, hold a packet ID and the packet data.
+     */
+    public static final int STREAM_CHUNK_ID = -7;
+    
+    /**
+     * The lowest packet ID reserved by the library. IDs from this one to -1 can not be registered,
+     * and take a single byte with the {@link FrameFormat#COMPACT} format.
+     */
+    public static final int MIN_RESERVED_ID = -16;
+    
 	protected final Map<Integer, PacketDescriptor> descriptors = new HashMap<>();
     protected final Map<Class<? extends IPacketBase>, Integer> ids = new HashMap<>();
     
     protected final String name;
     
+    private CompiledPacketContext<V> compiled;
+    
     /**
      * Constructs a new PacketContext with the specified name.
      *
@@ -54,6 +99,9 @@ public class PacketContext<V extends INetHandler> {
     }
     
     protected <P extends IPacketBase> PacketContext<V> register(int id, PacketDescriptor descriptor) {
+        if (isReserved(id)) throw new IllegalArgumentException("Packet ID " + id + " is reserved!");
+        
+        compiled = null;
         descriptors.put(id, descriptor);
         if (descriptor.getPacketClass() != null) ids.put(descriptor.getPacketClass(), id);
         return this;
@@ -86,6 +134,38 @@ public class PacketContext<V extends INetHandler> {
         return register(id, new PacketDescriptor<>(PacketDirection.INBOUND, null, packetFunc, handleFunc));
     }
     
+    /**
+     * Registers a new request descriptor with the specified ID, packet class, creation function, and responding function.
+     * Requests are sent with {@link fluff.network.client.AbstractClient#request(IPacketOutbound)}, and the packet
+     * returned by the responding function completes the future of the requesting client.
+     *
+     * @param <P> the type of the request packet
+     * @param id the ID of the request packet
+     * @param packetClass the class of the request packet
+     * @param packetFunc the function to create a new request packet instance
+     * @param respondFunc the function to handle the request and return the response packet
+     * @return the packet context with the new registration
+     */
+    public <P extends IPacket> PacketContext<V> registerRequest(int id, Class<P> packetClass, Func<P> packetFunc, BiFunction<V, P, ? extends IPacketOutbound> respondFunc) {
+        return register(id, PacketDescriptor.request(packetClass, packetFunc, respondFunc));
+    }
+    
+    /**
+     * Registers a new stream descriptor with the specified ID, header packet class, creation function, and opening function.
+     * Streams are sent with {@link fluff.network.client.AbstractClient#sendStream(IPacketOutbound, java.io.InputStream, int)},
+     * and their body is passed chunk by chunk to the receiver returned by the opening function, on the thread receiving packets.
+     *
+     * @param <P> the type of the header packet
+     * @param id the ID of the header packet
+     * @param packetClass the class of the header packet
+     * @param packetFunc the function to create a new header packet instance
+     * @param openFunc the function to handle the header and return the receiver of the body
+     * @return the packet context with the new registration
+     */
+    public <P extends IPacket> PacketContext<V> registerStream(int id, Class<P> packetClass, Func<P> packetFunc, BiFunction<V, P, ? extends IStreamReceiver> openFunc) {
+        return register(id, PacketDescriptor.stream(packetClass, packetFunc, openFunc));
+    }
+    
     /**
      * Registers a new outbound packet descriptor with the specified ID and outbound packet class.
      *
@@ -105,11 +185,56 @@ public class PacketContext<V extends INetHandler> {
      * @return the packet context with the descriptor removed
      */
     public PacketContext<V> unregister(int id) {
+        compiled = null;
         PacketDescriptor descriptor = descriptors.remove(id);
         if (descriptor.getPacketClass() != null) ids.remove(descriptor.getPacketClass());
         return this;
     }
     
+    /**
+     * Sets on which thread the packets with the specified ID are handled.
+     *
+     * @param id the ID of the packet descriptor
+     * @param dispatchMode the thread handling the packets
+     * @return the packet context with the updated descriptor
+     * @throws IllegalArgumentException if no descriptor is registered with the ID
+     */
+    public PacketContext<V> setDispatchMode(int id, DispatchMode dispatchMode) {
+        PacketDescriptor descriptor = descriptors.get(id);
+        if (descriptor == null) throw new IllegalArgumentException("Packet " + id + " does not exist!");
+        
+        return register(id, descriptor.withDispatchMode(dispatchMode));
+    }
+    
+    /**
+     * Makes the packets with the specified ID reuse their instances instead of creating one per received packet.
+     * The handler must not keep a reference to a pooled packet after handling it.
+     *
+     * @param id the ID of the packet descriptor
+     * @param capacity the maximum number of idle packets kept, or 0 to stop pooling
+     * @return the packet context with the updated descriptor
+     * @throws IllegalArgumentException if no descriptor is registered with the ID
+     * @see PacketPool
+     */
+    public PacketContext<V> setPooled(int id, int capacity) {
+        PacketDescriptor descriptor = descriptors.get(id);
+        if (descriptor == null) throw new IllegalArgumentException("Packet " + id + " does not exist!");
+        
+        return register(id, descriptor.withPool(capacity));
+    }
+    
+    /**
+     * Compiles the current registrations into a frozen context with array based lookups, meant to be
+     * given to clients and servers once registration is complete. The compiled context is cached until
+     * this context is modified again.
+     *
+     * @return the compiled packet context
+     */
+    public CompiledPacketContext<V> compile() {
+        if (compiled == null) compiled = new CompiledPacketContext<>(this);
+        return compiled;
+    }
+    
     /**
      * Checks if the packet context contains a descriptor with the specified ID.
      *
@@ -150,6 +275,16 @@ public class PacketContext<V extends INetHandler> {
         return ids.get(packetClass);
     }
     
+    /**
+     * Checks if the specified packet ID is reserved by the library.
+     *
+     * @param id the ID to check
+     * @return true if the ID can not be registered, false otherwise
+     */
+    public static boolean isReserved(int id) {
+        return id >= MIN_RESERVED_ID && id < 0;
+    }
+    
     /**
      * Retrieves the name of the packet context.
      *
@@ -1,5 +1,7 @@
 package fluff.network.packet;
 
+import java.util.function.BiFunction;
+
 import fluff.functions.gen.Func;
 import fluff.functions.gen.obj.obj.VoidFunc2;
 import fluff.network.INetHandler;
@@ -17,20 +19,98 @@ public class PacketDescriptor<H extends INetHandler, P extends IPacketBase> {
     private final Class<P> packetClass;
     private final Func<P> packetFunc;
     private final VoidFunc2<H, P> handleFunc;
+    private final BiFunction<H, P, ? extends IPacketOutbound> respondFunc;
+    private final BiFunction<H, P, ? extends IStreamReceiver> openFunc;
+    private final DispatchMode dispatchMode;
+    private final PacketPool<P> pool;
     
     /**
-     * Constructs a new PacketDescriptor with the specified packet direction, packet class, creation function, and handling function.
+     * Constructs a new PacketDescriptor with the specified packet direction, packet class, creation function, handling function and dispatch mode.
      *
      * @param packetDirection the direction of the packet
      * @param packetClass the class of the packet
      * @param packetFunc the function to create a new packet instance
      * @param handleFunc the function to handle the packet
+     * @param dispatchMode the thread handling the packet
      */
-    public PacketDescriptor(PacketDirection packetDirection, Class<P> packetClass, Func<P> packetFunc, VoidFunc2<H, P> handleFunc) {
+    public PacketDescriptor(PacketDirection packetDirection, Class<P> packetClass, Func<P> packetFunc, VoidFunc2<H, P> handleFunc, DispatchMode dispatchMode) {
+        this(packetDirection, packetClass, packetFunc, handleFunc, null, null, dispatchMode, null);
+    }
+    
+    private PacketDescriptor(PacketDirection packetDirection, Class<P> packetClass, Func<P> packetFunc, VoidFunc2<H, P> handleFunc,
+            BiFunction<H, P, ? extends IPacketOutbound> respondFunc, BiFunction<H, P, ? extends IStreamReceiver> openFunc, DispatchMode dispatchMode, PacketPool<P> pool) {
     	this.packetDirection = packetDirection;
         this.packetClass = packetClass;
         this.packetFunc = packetFunc;
         this.handleFunc = handleFunc;
+        this.respondFunc = respondFunc;
+        this.openFunc = openFunc;
+        this.dispatchMode = dispatchMode;
+        this.pool = pool;
+    }
+    
+    /**
+     * Constructs a new PacketDescriptor with the specified packet direction, packet class, creation function, and handling function.
+     * The packet is handled {@link DispatchMode#INLINE inline}.
+     *
+     * @param packetDirection the direction of the packet
+     * @param packetClass the class of the packet
+     * @param packetFunc the function to create a new packet instance
+     * @param handleFunc the function to handle the packet
+     */
+    public PacketDescriptor(PacketDirection packetDirection, Class<P> packetClass, Func<P> packetFunc, VoidFunc2<H, P> handleFunc) {
+        this(packetDirection, packetClass, packetFunc, handleFunc, DispatchMode.INLINE);
+    }
+    
+    /**
+     * Creates a new request descriptor, whose packets are answered with the packet returned by the responding function.
+     * The packet is handled {@link DispatchMode#INLINE inline}.
+     *
+     * @param <H> the type of network handler
+     * @param <P> the type of the request packet
+     * @param packetClass the class of the request packet
+     * @param packetFunc the function to create a new request packet instance
+     * @param respondFunc the function to handle the request and return the response packet
+     * @return the new descriptor
+     */
+    public static <H extends INetHandler, P extends IPacket> PacketDescriptor<H, P> request(Class<P> packetClass, Func<P> packetFunc, BiFunction<H, P, ? extends IPacketOutbound> respondFunc) {
+        return new PacketDescriptor<>(PacketDirection.BOTH, packetClass, packetFunc, null, respondFunc, null, DispatchMode.INLINE, null);
+    }
+    
+    /**
+     * Creates a new stream descriptor, whose packets are headers followed by a body of any size.
+     * The body is passed chunk by chunk to the receiver returned by the opening function.
+     *
+     * @param <H> the type of network handler
+     * @param <P> the type of the header packet
+     * @param packetClass the class of the header packet
+     * @param packetFunc the function to create a new header packet instance
+     * @param openFunc the function to handle the header and return the receiver of the body
+     * @return the new descriptor
+     */
+    public static <H extends INetHandler, P extends IPacket> PacketDescriptor<H, P> stream(Class<P> packetClass, Func<P> packetFunc, BiFunction<H, P, ? extends IStreamReceiver> openFunc) {
+        return new PacketDescriptor<>(PacketDirection.BOTH, packetClass, packetFunc, null, null, openFunc, DispatchMode.INLINE, null);
+    }
+    
+    /**
+     * Creates a copy of this descriptor with another dispatch mode.
+     *
+     * @param dispatchMode the thread handling the packet
+     * @return the new descriptor
+     */
+    public PacketDescriptor<H, P> withDispatchMode(DispatchMode dispatchMode) {
+        return new PacketDescriptor<>(packetDirection, packetClass, packetFunc, handleFunc, respondFunc, openFunc, dispatchMode, pool);
+    }
+    
+    /**
+     * Creates a copy of this descriptor reusing packet instances from a new pool, or creating a new instance
+     * for every packet if the capacity is 0. Pooled packets are given back once handled.
+     *
+     * @param capacity the maximum number of idle packets kept by the pool
+     * @return the new descriptor
+     */
+    public PacketDescriptor<H, P> withPool(int capacity) {
+        return new PacketDescriptor<>(packetDirection, packetClass, packetFunc, handleFunc, respondFunc, openFunc, dispatchMode, capacity > 0 ? new PacketPool<>(packetFunc, capacity) : null);
     }
     
     /**
@@ -48,7 +128,16 @@ public class PacketDescriptor<H extends INetHandler, P extends IPacketBase> {
      * @return a new packet instance
      */
     public IPacketBase create() {
-        return packetFunc.invoke();
+        return pool != null ? pool.acquire() : packetFunc.invoke();
+    }
+    
+    /**
+     * Gives a handled packet back to the pool of this descriptor, if it has one.
+     *
+     * @param packet the handled packet
+     */
+    public void release(P packet) {
+        if (pool != null) pool.release(packet);
     }
     
     /**
@@ -61,6 +150,66 @@ public class PacketDescriptor<H extends INetHandler, P extends IPacketBase> {
         handleFunc.invoke(handler, packet);
     }
     
+    /**
+     * Handles the given request packet using the specified network handler and responding function.
+     *
+     * @param handler the network handler
+     * @param packet the request packet to handle
+     * @return the response packet
+     */
+    public IPacketOutbound respond(H handler, P packet) {
+        return respondFunc.apply(handler, packet);
+    }
+    
+    /**
+     * Checks if the packets of this descriptor are requests, answered by {@link #respond(INetHandler, IPacketBase)}
+     * instead of being handled by {@link #handle(INetHandler, IPacketBase)}.
+     *
+     * @return true if the packets are requests, false otherwise
+     */
+    public boolean isRequest() {
+        return respondFunc != null;
+    }
+    
+    /**
+     * Handles the given header packet using the specified network handler and opening function.
+     *
+     * @param handler the network handler
+     * @param packet the header packet to handle
+     * @return the receiver of the body
+     */
+    public IStreamReceiver open(H handler, P packet) {
+        return openFunc.apply(handler, packet);
+    }
+    
+    /**
+     * Checks if the packets of this descriptor are stream headers, handled by {@link #open(INetHandler, IPacketBase)}
+     * and followed by a body.
+     *
+     * @return true if the packets are stream headers, false otherwise
+     */
+    public boolean isStream() {
+        return openFunc != null;
+    }
+    
+    /**
+     * Retrieves the thread handling the packets of this descriptor.
+     *
+     * @return the dispatch mode
+     */
+    public DispatchMode getDispatchMode() {
+        return dispatchMode;
+    }
+    
+    /**
+     * Retrieves the pool reusing the packets of this descriptor.
+     *
+     * @return the packet pool, or null if packets are not pooled
+     */
+    public PacketPool<P> getPool() {
+        return pool;
+    }
+    
     /**
      * Retrieves the class of the packet associated with this descriptor.
      *
@@ -0,0 +1,92 @@
+package fluff.network.packet;
+
+import fluff.functions.gen.Func;
+
+/**
+ * Represents a bounded pool of inbound packet instances, shared by every connection using its descriptor.
+ * Packets are taken from the pool before being read, and given back once handled, so handlers
+ * of pooled packets must not keep references to them.
+ *
+ * @param <P> the type of packet
+ */
+public class PacketPool<P extends IPacketBase> {
+    
+    private final Func<P> packetFunc;
+    private final Object[] packets;
+    private int size;
+    private long createdCount;
+    private long reuseCount;
+    
+    /**
+     * Constructs a new packet pool.
+     *
+     * @param packetFunc the function to create a new packet instance when the pool is empty
+     * @param capacity the maximum number of idle packets kept by the pool
+     */
+    public PacketPool(Func<P> packetFunc, int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Invalid capacity " + capacity + "!");
+        
+        this.packetFunc = packetFunc;
+        this.packets = new Object[capacity];
+    }
+    
+    /**
+     * Takes an idle packet from the pool, or creates a new one if the pool is empty.
+     *
+     * @return the packet
+     */
+    @SuppressWarnings("unchecked")
+    public P acquire() {
+        synchronized (this) {
+            if (size > 0) {
+                P packet = (P) packets[--size];
+                packets[size] = null;
+                reuseCount++;
+                return packet;
+            }
+            createdCount++;
+        }
+        return packetFunc.invoke();
+    }
+    
+    /**
+     * Gives a handled packet back to the pool, or drops it if the pool is full.
+     * A packet must only be released once per acquire.
+     *
+     * @param packet the packet
+     */
+    public void release(P packet) {
+        if (packet instanceof IPacketRecyclable recyclable) recyclable.recycle();
+        
+        synchronized (this) {
+            if (size < packets.length) packets[size++] = packet;
+        }
+    }
+    
+    /**
+     * Gets the number of idle packets in the pool.
+     *
+     * @return the idle packet count
+     */
+    public synchronized int getPooledCount() {
+        return size;
+    }
+    
+    /**
+     * Gets the number of packets created because the pool was empty.
+     *
+     * @return the created packet count
+     */
+    public synchronized long getCreatedCount() {
+        return createdCount;
+    }
+    
+    /**
+     * Gets the number of packets taken from the pool instead of being created.
+     *
+     * @return the reused packet count
+     */
+    public synchronized long getReuseCount() {
+        return reuseCount;
+    }
+}
@@ -0,0 +1,158 @@
+package fluff.network.packet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import fluff.bin.stream.BinaryOutputStream;
+import fluff.network.NetworkException;
+import fluff.network.buffer.ByteBufferOutputStream;
+import fluff.network.buffer.IBufferAllocator;
+
+/**
+ * An outbound packet or {@link PacketBatch} sent to many clients, which is serialized once per packet context
+ * and framed once per frame format, instead of once per client. Shared frames are plain heap buffers
+ * which are never given back to the allocator, since write queues may keep them after the broadcast.
+ */
+public class SharedPacket {
+    
+    private final IPacketOutbound packet;
+    private final List<IPacketOutbound> batch;
+    private final IBufferAllocator allocator;
+    
+    private final List<Encoded> payloads = new ArrayList<>(1);
+    private final List<Encoded> frames = new ArrayList<>(1);
+    
+    /**
+     * Constructs a new shared packet.
+     *
+     * @param packet the packet to send
+     * @param allocator the allocator of the shared buffers
+     */
+    public SharedPacket(IPacketOutbound packet, IBufferAllocator allocator) {
+        this.packet = packet;
+        this.batch = null;
+        this.allocator = allocator;
+    }
+    
+    /**
+     * Constructs a new shared batch, sent as a single frame.
+     *
+     * @param batch the packets to send, in order
+     * @param allocator the allocator of the shared buffers
+     */
+    public SharedPacket(List<IPacketOutbound> batch, IBufferAllocator allocator) {
+        this.packet = null;
+        this.batch = List.copyOf(batch);
+        this.allocator = allocator;
+    }
+    
+    /**
+     * Gets the serialized packet ID and data for the specified context and frame format, serializing them on the first call.
+     *
+     * @param context the packet context of the receiving client
+     * @param format the frame format of the packet ID
+     * @return a new view of the payload
+     * @throws IOException if an I/O error occurs while serializing
+     * @throws NetworkException if the packet is not registered in the context
+     */
+    public synchronized ByteBuffer payload(PacketContext<?> context, FrameFormat format) throws IOException, NetworkException {
+        for (Encoded e : payloads) {
+            if (e.context == context && e.key == format) return e.bytes.duplicate();
+        }
+        
+        ByteBufferOutputStream bytes = new ByteBufferOutputStream(allocator, 256).reset(0);
+        BinaryOutputStream out = new BinaryOutputStream(bytes);
+        if (batch != null) {
+            PacketBatch.write(bytes, out, context, format, batch);
+        } else {
+            Class<? extends IPacketOutbound> packetClass = packet.getClass();
+            if (!context.contains(packetClass)) throw new NetworkException("Invalid packet!");
+            
+            format.writeID(bytes, context.getID(packetClass));
+            out.Data(packet);
+        }
+        
+        Encoded e = new Encoded(context, format, bytes.flip());
+        payloads.add(e);
+        return e.bytes.duplicate();
+    }
+    
+    /**
+     * Gets the complete frame for the specified context and channel, encoding it on the first call.
+     *
+     * @param context the packet context of the receiving client
+     * @param channel the channel of the receiving client
+     * @return a new view of the frame, or null if the channel can not share frames
+     * @throws IOException if an I/O error occurs while encoding
+     * @throws NetworkException if a network-related error occurs while encoding
+     * @see IBufferChannel#getFrameKey()
+     */
+    public synchronized ByteBuffer frame(PacketContext<?> context, IBufferChannel channel) throws IOException, NetworkException {
+        Object frameKey = channel.getFrameKey();
+        if (frameKey == null) return null;
+        
+        for (Encoded e : frames) {
+            if (e.context == context && e.key.equals(frameKey)) return e.bytes.duplicate();
+        }
+        
+        ByteBuffer payload = payload(context, channel.getFrameFormat());
+        int headerSize = channel.headerSize();
+        ByteBuffer frame = ByteBuffer.allocate(headerSize + payload.remaining() + channel.trailerSize());
+        frame.position(headerSize);
+        frame.put(payload).flip();
+        
+        ByteBuffer encoded = channel.encode(frame);
+        if (encoded != frame) {
+            frame = ByteBuffer.allocate(encoded.remaining());
+            frame.put(encoded).flip();
+        }
+        
+        Encoded e = new Encoded(context, frameKey, frame);
+        frames.add(e);
+        return e.bytes.duplicate();
+    }
+    
+    /**
+     * Gives the payload buffers back to the allocator. Must only be called once every client framed them.
+     */
+    public synchronized void release() {
+        for (Encoded e : payloads) {
+            allocator.release(e.bytes);
+        }
+        payloads.clear();
+        frames.clear();
+    }
+    
+    /**
+     * Gets the packet to send.
+     *
+     * @return the packet, or null if this is a batch
+     */
+    public IPacketOutbound getPacket() {
+        return packet;
+    }
+    
+    /**
+     * Gets the packets of the batch to send.
+     *
+     * @return the packets, or null if this is a single packet
+     */
+    public List<IPacketOutbound> getBatch() {
+        return batch;
+    }
+    
+    private static class Encoded {
+        
+        private final PacketContext<?> context;
+        private final Object key;
+        private final ByteBuffer bytes;
+        
+        private Encoded(PacketContext<?> context, Object key, ByteBuffer bytes) {
+            this.context = context;
+            this.key = key;
+            this.bytes = bytes;
+        }
+    }
+}
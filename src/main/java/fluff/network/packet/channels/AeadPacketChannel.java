@@ -0,0 +1,185 @@
+package fluff.network.packet.channels;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.crypto.SecretKey;
+
+import fluff.network.NetworkException;
+import fluff.network.packet.IBufferChannel;
+import fluff.network.packet.stages.AeadStage;
+
+/**
+ * The AeadPacketChannel class implements the IBufferChannel interface and encrypts
+ * and authenticates every frame with an AEAD cipher. Every frame is a 4 byte ciphertext length,
+ * followed by the ciphertext and its authentication tag; the length is authenticated as associated data.
+ * <p>
+ * The keys, nonces and ciphers are handled by an {@link AeadStage}: each side sends a random {@link #SALT_SIZE} byte salt
+ * in front of its first frame, and both sides derive the key of that direction from the shared key and the salt
+ * with HKDF-SHA256, so the client and the server must use channels of opposite sides created from the same key.
+ * Since every channel instance picks a new salt, connections and reconnections sharing the key never reuse
+ * a (key, nonce) pair, but a channel instance must never be reused for another connection.
+ * A replayed, reordered, dropped or modified frame fails authentication, which closes the connection.
+ * The channel keeps per-direction state, so it must not be shared between clients.
+ */
+public class AeadPacketChannel implements IBufferChannel {
+    
+    public static final int NONCE_SIZE = 12;
+    public static final int TAG_SIZE = 16;
+    public static final int SALT_SIZE = AeadStage.SALT_SIZE;
+    
+    private final AeadStage stage;
+    private final int maxFrameSize;
+    
+    private final byte[] encryptAAD = new byte[4];
+    private final byte[] decryptAAD = new byte[4];
+    private ByteBuffer encoded;
+    
+    /**
+     * Constructs an AeadPacketChannel with the specified algorithm, secret key, side and maximum frame size.
+     * Frames claiming a larger length are rejected as soon as their length prefix is received.
+     *
+     * @param algorithm the AEAD algorithm
+     * @param secretKey the secret key shared by the client and the server
+     * @param server true for the server side of the connection, false for the client side
+     * @param maxFrameSize the maximum payload size
+     */
+    public AeadPacketChannel(Algorithm algorithm, SecretKey secretKey, boolean server, int maxFrameSize) {
+        if (maxFrameSize <= 0) throw new IllegalArgumentException("Invalid maximum frame size " + maxFrameSize + "!");
+        
+        this.stage = new AeadStage(algorithm, secretKey, server);
+        this.maxFrameSize = maxFrameSize;
+    }
+    
+    /**
+     * Constructs an AeadPacketChannel with the specified algorithm, secret key and side, and the {@link #DEFAULT_MAX_FRAME_SIZE}.
+     *
+     * @param algorithm the AEAD algorithm
+     * @param secretKey the secret key shared by the client and the server
+     * @param server true for the server side of the connection, false for the client side
+     */
+    public AeadPacketChannel(Algorithm algorithm, SecretKey secretKey, boolean server) {
+        this(algorithm, secretKey, server, DEFAULT_MAX_FRAME_SIZE);
+    }
+    
+    /**
+     * Creates the client side channel using AES-GCM.
+     *
+     * @param secretKey the AES key shared with the server
+     * @return the client channel
+     */
+    public static AeadPacketChannel client(SecretKey secretKey) {
+        return new AeadPacketChannel(Algorithm.AES_GCM, secretKey, false);
+    }
+    
+    /**
+     * Creates the server side channel using AES-GCM.
+     *
+     * @param secretKey the AES key shared with the client
+     * @return the server channel
+     */
+    public static AeadPacketChannel server(SecretKey secretKey) {
+        return new AeadPacketChannel(Algorithm.AES_GCM, secretKey, true);
+    }
+    
+    /**
+     * Gets the maximum payload size accepted by this channel.
+     *
+     * @return the maximum frame size
+     */
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+    
+    @Override
+    public int headerSize() {
+        return 4;
+    }
+    
+    @Override
+    public int trailerSize() {
+        return TAG_SIZE;
+    }
+    
+    /**
+     * Encrypts the payload in place if the frame has room for the tag after its limit,
+     * otherwise into a buffer owned by this channel. The first frame is always written to the owned buffer,
+     * behind the salt.
+     */
+    @Override
+    public ByteBuffer encode(ByteBuffer frame) throws IOException, NetworkException {
+        int start = frame.position();
+        int len = frame.remaining() - 4 + TAG_SIZE;
+        
+        boolean first = stage.isFirstEncrypt();
+        int saltSize = first ? SALT_SIZE : 0;
+        ByteBuffer output = frame;
+        if (first || frame.capacity() - frame.limit() < TAG_SIZE) {
+            int capacity = saltSize + 4 + len;
+            if (encoded == null || encoded.capacity() < capacity) encoded = ByteBuffer.allocate(Math.max(capacity, 256));
+            output = encoded.clear();
+        }
+        int outStart = output == frame ? start : 0;
+        
+        ByteBuffer.wrap(encryptAAD).putInt(0, len);
+        ByteBuffer plaintext = frame.duplicate().position(start + 4);
+        stage.encrypt(plaintext, output.duplicate().clear().position(outStart + saltSize + 4), encryptAAD);
+        
+        if (first) output.put(outStart, stage.getEncryptSalt());
+        output.putInt(outStart + saltSize, len);
+        return output.limit(outStart + saltSize + 4 + len).position(outStart);
+    }
+    
+    /**
+     * Decrypts the payload in place, overwriting the ciphertext in the input. The salt in front of the first frame
+     * is only consumed together with that frame.
+     */
+    @Override
+    public ByteBuffer decode(ByteBuffer input) throws IOException, NetworkException {
+        int start = input.position();
+        int saltSize = stage.isFirstDecrypt() ? SALT_SIZE : 0;
+        if (input.remaining() < saltSize + 4) return null;
+        
+        int len = input.getInt(start + saltSize);
+        if (len < TAG_SIZE || len - TAG_SIZE > maxFrameSize) throw new NetworkException("Invalid frame length " + len + "!");
+        if (input.remaining() - saltSize - 4 < len) return null;
+        
+        int body = start + saltSize + 4;
+        input.position(body + len);
+        
+        ByteBuffer.wrap(decryptAAD).putInt(0, len);
+        int size = stage.decrypt(input.slice(start, saltSize), input.slice(body, len), decryptAAD);
+        return input.slice(body, size);
+    }
+    
+    /**
+     * Enum representing the supported AEAD algorithms.
+     */
+    public static enum Algorithm {
+        
+        /**
+         * AES in Galois/Counter Mode, with a 16 byte tag. Requires an AES key.
+         */
+        AES_GCM("AES/GCM/NoPadding"),
+        
+        /**
+         * ChaCha20 with a Poly1305 tag. Requires a 32 byte ChaCha20 key.
+         */
+        CHACHA20_POLY1305("ChaCha20-Poly1305");
+        
+        private final String transformation;
+        
+        private Algorithm(String transformation) {
+            this.transformation = transformation;
+        }
+        
+        /**
+         * Gets the cipher transformation of this algorithm.
+         *
+         * @return the cipher transformation
+         */
+        public String getTransformation() {
+            return transformation;
+        }
+    }
+}
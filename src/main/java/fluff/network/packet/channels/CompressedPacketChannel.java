@@ -0,0 +1,117 @@
+package fluff.network.packet.channels;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import fluff.network.NetworkException;
+import fluff.network.packet.FrameFormat;
+import fluff.network.packet.IBufferChannel;
+import fluff.network.packet.IPacketChannel;
+import fluff.network.packet.stages.CompressionStage;
+
+/**
+ * The CompressedPacketChannel class implements the IBufferChannel interface and deflates payloads
+ * larger than a threshold with a {@link CompressionStage} before passing them to another channel,
+ * which frames and possibly encrypts them. The channel keeps a deflater and an inflater,
+ * so it must not be shared between clients.
+ */
+public class CompressedPacketChannel implements IBufferChannel {
+    
+    public static final int DEFAULT_THRESHOLD = CompressionStage.DEFAULT_THRESHOLD;
+    
+    private final IBufferChannel channel;
+    private final CompressionStage stage;
+    
+    /**
+     * Constructs a CompressedPacketChannel with the specified channel, threshold, compression level and mode.
+     *
+     * @param channel the channel framing the compressed payloads
+     * @param threshold the minimum payload size which is compressed
+     * @param level the deflater compression level, from 0 to 9
+     * @param streaming true to keep the compression dictionary across frames, false to compress every frame on its own
+     */
+    public CompressedPacketChannel(IPacketChannel channel, int threshold, int level, boolean streaming) {
+        this.channel = IBufferChannel.of(channel);
+        this.stage = new CompressionStage(threshold, level, streaming);
+    }
+    
+    /**
+     * Constructs a CompressedPacketChannel with the specified channel and threshold,
+     * compressing every frame on its own with the default level.
+     *
+     * @param channel the channel framing the compressed payloads
+     * @param threshold the minimum payload size which is compressed
+     */
+    public CompressedPacketChannel(IPacketChannel channel, int threshold) {
+        this(channel, threshold, Deflater.DEFAULT_COMPRESSION, false);
+    }
+    
+    /**
+     * Constructs a CompressedPacketChannel with the specified channel and the default threshold.
+     *
+     * @param channel the channel framing the compressed payloads
+     */
+    public CompressedPacketChannel(IPacketChannel channel) {
+        this(channel, DEFAULT_THRESHOLD);
+    }
+    
+    /**
+     * Constructs a CompressedPacketChannel framing packets with a {@link DefaultPacketChannel}.
+     */
+    public CompressedPacketChannel() {
+        this(new DefaultPacketChannel());
+    }
+    
+    @Override
+    public FrameFormat getFrameFormat() {
+        return channel.getFrameFormat();
+    }
+    
+    @Override
+    public int headerSize() {
+        return channel.headerSize() + stage.headerSize();
+    }
+    
+    @Override
+    public int trailerSize() {
+        return channel.trailerSize();
+    }
+    
+    /**
+     * Frames produced without a compression dictionary only depend on the payload,
+     * so they can be shared if the wrapped channel frames can.
+     */
+    @Override
+    public Object getFrameKey() {
+        Object key = channel.getFrameKey();
+        Object stageKey = stage.getStageKey();
+        if (key == null || stageKey == null) return null;
+        
+        return List.of(CompressedPacketChannel.class, key, stageKey);
+    }
+    
+    @Override
+    public ByteBuffer encode(ByteBuffer frame) throws IOException, NetworkException {
+        int headerSize = channel.headerSize();
+        
+        ByteBuffer payload = stage.encode(frame.position(frame.position() + headerSize), headerSize, channel.trailerSize());
+        return channel.encode(payload.position(payload.position() - headerSize));
+    }
+    
+    @Override
+    public ByteBuffer decode(ByteBuffer input) throws IOException, NetworkException {
+        ByteBuffer payload = channel.decode(input);
+        return payload == null ? null : stage.decode(payload);
+    }
+    
+    /**
+     * Gets the channel framing the compressed payloads.
+     *
+     * @return the wrapped channel
+     */
+    public IBufferChannel getChannel() {
+        return channel;
+    }
+}
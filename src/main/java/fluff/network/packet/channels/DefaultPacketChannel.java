@@ -5,29 +5,125 @@ import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
 
 import fluff.bin.Binary;
 import fluff.network.NetworkException;
-import fluff.network.packet.IPacketChannel;
+import fluff.network.packet.FrameFormat;
+import fluff.network.packet.IBufferChannel;
 
 /**
- * The DefaultPacketChannel class implements the IPacketChannel interface
- * and provides default methods for reading and writing data using
- * input and output streams.
+ * The DefaultPacketChannel class implements the IBufferChannel interface
+ * and frames every packet with a length prefix, written in place
+ * in front of the payload. The length is a 4 byte integer, or a varint
+ * with the {@link FrameFormat#COMPACT} format.
  */
-public class DefaultPacketChannel implements IPacketChannel {
+public class DefaultPacketChannel implements IBufferChannel {
+    
+    private final FrameFormat format;
+    private final int maxFrameSize;
+    private final Object frameKey;
+    
+    /**
+     * Constructs a DefaultPacketChannel with the specified frame format and maximum frame size.
+     * Frames claiming a larger length are rejected as soon as their length prefix is received.
+     *
+     * @param format the format of the length prefix and packet IDs
+     * @param maxFrameSize the maximum payload size
+     */
+    public DefaultPacketChannel(FrameFormat format, int maxFrameSize) {
+        if (maxFrameSize <= 0) throw new IllegalArgumentException("Invalid maximum frame size " + maxFrameSize + "!");
+        
+        this.format = format;
+        this.maxFrameSize = maxFrameSize;
+        this.frameKey = format == FrameFormat.FIXED ? DefaultPacketChannel.class : Map.entry(DefaultPacketChannel.class, format);
+    }
+    
+    /**
+     * Constructs a DefaultPacketChannel with the specified frame format and the {@link #DEFAULT_MAX_FRAME_SIZE}.
+     *
+     * @param format the format of the length prefix and packet IDs
+     */
+    public DefaultPacketChannel(FrameFormat format) {
+        this(format, DEFAULT_MAX_FRAME_SIZE);
+    }
+    
+    /**
+     * Constructs a DefaultPacketChannel with the {@link FrameFormat#FIXED} format.
+     */
+    public DefaultPacketChannel() {
+        this(FrameFormat.FIXED);
+    }
+    
+    @Override
+    public FrameFormat getFrameFormat() {
+        return format;
+    }
+    
+    /**
+     * Gets the maximum payload size accepted by this channel.
+     *
+     * @return the maximum frame size
+     */
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+    
+    @Override
+    public int headerSize() {
+        return format.maxLengthSize();
+    }
+    
+    /**
+     * Writes the length prefix right before the payload, so the frame may start after position 0
+     * when the length is shorter than the reserved header.
+     */
+    @Override
+    public ByteBuffer encode(ByteBuffer frame) throws IOException, NetworkException {
+        int headerSize = headerSize();
+        int len = frame.remaining() - headerSize;
+        int start = frame.position() + headerSize - format.lengthSize(len);
+        
+        format.putLength(frame, start, len);
+        return frame.position(start);
+    }
+    
+    @Override
+    public Object getFrameKey() {
+        return frameKey;
+    }
+    
+    @Override
+    public ByteBuffer decode(ByteBuffer input) throws IOException, NetworkException {
+        int start = input.position();
+        int len = format.getLength(input, start, maxFrameSize);
+        if (len == -1) return null;
+        
+        int offset = start + format.lengthSize(len);
+        if (input.limit() - offset < len) return null;
+        
+        input.position(offset + len);
+        return input.slice(offset, len);
+    }
     
     @Override
     public ByteArrayInputStream read(BufferedInputStream input) throws IOException, NetworkException {
-    	int len = Binary.Int(input::read);
+    	int len = format == FrameFormat.FIXED ? Binary.Int(input::read) : format.readLength(input);
     	if (len == -1) return EMPTY;
+    	if (len < 0 || len > maxFrameSize) throw new NetworkException("Invalid frame length " + len + "!");
     	
         return new ByteArrayInputStream(Binary.Bytes(input::read, len));
     }
     
     @Override
     public void write(BufferedOutputStream output, ByteArrayOutputStream bytes) throws IOException, NetworkException {
-        Binary.LenBytes(output::write, bytes.toByteArray());
+        if (format == FrameFormat.FIXED) {
+            Binary.LenBytes(output::write, bytes.toByteArray());
+        } else {
+            format.writeLength(output, bytes.size());
+            bytes.writeTo(output);
+        }
         output.flush();
     }
-}
+}
\ No newline at end of file
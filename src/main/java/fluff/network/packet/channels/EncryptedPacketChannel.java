@@ -5,39 +5,77 @@ import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
+import java.security.spec.AlgorithmParameterSpec;
 import java.security.SecureRandom;
+import java.util.Locale;
 
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 
 import fluff.bin.Binary;
 import fluff.network.NetworkException;
-import fluff.network.packet.IPacketChannel;
+import fluff.network.packet.IBufferChannel;
 
 /**
- * The EncryptedPacketChannel class implements the IPacketChannel interface
- * and provides methods for reading and writing encrypted data using
- * input and output streams.
+ * The EncryptedPacketChannel class implements the IBufferChannel interface
+ * and provides methods for reading and writing encrypted data. Every frame is
+ * a 4 byte ciphertext length, followed by a random IV and the ciphertext.
+ * The channel keeps one cipher per direction and one SecureRandom, so it must not
+ * be shared between clients.
  */
-public class EncryptedPacketChannel implements IPacketChannel {
+public class EncryptedPacketChannel implements IBufferChannel {
+    
+    private static final int GCM_TAG_SIZE = 16;
     
     private final String cipherTransformation;
     private final int ivSize;
     private final SecretKey secretKey;
+    private final int maxFrameSize;
+    
+    private final SecureRandom random = new SecureRandom();
+    private final byte[] encryptIV;
+    private final byte[] decryptIV;
+    private Cipher encryptCipher;
+    private Cipher decryptCipher;
+    private ByteBuffer encoded;
+    private ByteBuffer decoded;
+    private int blockSize = -1;
+    private int maxCiphertextSize = -1;
     
     /**
-     * Constructs an EncryptedPacketChannel with the specified cipher transformation, IV size, and secret key.
+     * Constructs an EncryptedPacketChannel with the specified cipher transformation, IV size, secret key and maximum frame size.
+     * Frames whose ciphertext is longer than the one of the largest payload are rejected as soon as their length is received.
      *
      * @param cipherTransformation the cipher transformation to use (e.g., "AES/CBC/PKCS5Padding")
      * @param ivSize the size of the initialization vector (IV)
      * @param secretKey the secret key to use for encryption and decryption
+     * @param maxFrameSize the maximum payload size
      */
-    public EncryptedPacketChannel(String cipherTransformation, int ivSize, SecretKey secretKey) {
+    public EncryptedPacketChannel(String cipherTransformation, int ivSize, SecretKey secretKey, int maxFrameSize) {
+        if (maxFrameSize <= 0) throw new IllegalArgumentException("Invalid maximum frame size " + maxFrameSize + "!");
+        
         this.cipherTransformation = cipherTransformation;
         this.ivSize = ivSize;
         this.secretKey = secretKey;
+        this.maxFrameSize = maxFrameSize;
+        this.encryptIV = new byte[ivSize];
+        this.decryptIV = new byte[ivSize];
+    }
+    
+    /**
+     * Constructs an EncryptedPacketChannel with the specified cipher transformation, IV size, and secret key.
+     * Uses the {@link #DEFAULT_MAX_FRAME_SIZE}.
+     *
+     * @param cipherTransformation the cipher transformation to use (e.g., "AES/CBC/PKCS5Padding")
+     * @param ivSize the size of the initialization vector (IV)
+     * @param secretKey the secret key to use for encryption and decryption
+     */
+    public EncryptedPacketChannel(String cipherTransformation, int ivSize, SecretKey secretKey) {
+        this(cipherTransformation, ivSize, secretKey, DEFAULT_MAX_FRAME_SIZE);
     }
     
     /**
@@ -72,18 +110,190 @@ public class EncryptedPacketChannel implements IPacketChannel {
         this(16, secretKey);
     }
     
+    private Cipher initEncrypt() throws GeneralSecurityException {
+        if (encryptCipher == null) encryptCipher = Cipher.getInstance(cipherTransformation);
+        
+        random.nextBytes(encryptIV);
+        encryptCipher.init(Cipher.ENCRYPT_MODE, secretKey, parameters(encryptIV));
+        return encryptCipher;
+    }
+    
+    private Cipher initDecrypt() throws GeneralSecurityException {
+        if (decryptCipher == null) decryptCipher = Cipher.getInstance(cipherTransformation);
+        
+        decryptCipher.init(Cipher.DECRYPT_MODE, secretKey, parameters(decryptIV));
+        return decryptCipher;
+    }
+    
+    private AlgorithmParameterSpec parameters(byte[] iv) {
+        return isGCM() ? new GCMParameterSpec(GCM_TAG_SIZE * 8, iv) : new IvParameterSpec(iv);
+    }
+    
+    private boolean isGCM() {
+        return cipherTransformation.toUpperCase(Locale.ROOT).contains("/GCM/");
+    }
+    
+    /**
+     * Gets the block size of the transformation from a cipher of its own, so the ciphers of both directions
+     * are never touched. The block size never changes, so racing calls at worst compute it twice.
+     */
+    private int blockSize() throws NetworkException {
+        if (blockSize == -1) {
+            try {
+                blockSize = Cipher.getInstance(cipherTransformation).getBlockSize();
+            } catch (GeneralSecurityException e) {
+                throw new NetworkException(e);
+            }
+        }
+        return blockSize;
+    }
+    
+    /**
+     * Computes the largest ciphertext of a payload from the mode and padding of the transformation,
+     * without initializing a cipher.
+     */
+    private int ciphertextSize(int payloadSize) throws NetworkException {
+        String transformation = cipherTransformation.toUpperCase(Locale.ROOT);
+        long size = payloadSize;
+        if (isGCM() || transformation.contains("POLY1305")) {
+            size += GCM_TAG_SIZE;
+        } else if (!transformation.endsWith("/NOPADDING")) {
+            int blockSize = blockSize();
+            if (blockSize > 0) size += blockSize - size % blockSize;
+        }
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+    
+    private void checkCiphertextLength(int len) throws NetworkException {
+        if (maxCiphertextSize == -1) maxCiphertextSize = ciphertextSize(maxFrameSize);
+        if (len < 0 || len > maxCiphertextSize) throw new NetworkException("Invalid frame length " + len + "!");
+    }
+    
+    /**
+     * Gets the maximum size of the frame encrypting a payload of the specified size. The size is computed
+     * from the mode and padding of the cipher, so the state of the cipher is left untouched.
+     *
+     * @param payloadSize the payload size
+     * @return the maximum frame size
+     * @throws NetworkException if the cipher can not be created
+     */
+    public int getMaxFrameSize(int payloadSize) throws NetworkException {
+        return (int) Math.min(4L + ivSize + ciphertextSize(payloadSize), Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Encrypts the remaining bytes of the payload into a complete frame, written at the position of the output.
+     *
+     * @param payload the payload
+     * @param output the buffer receiving the frame, with at least {@link #getMaxFrameSize(int)} remaining bytes
+     * @return the size of the frame
+     * @throws NetworkException if the payload can not be encrypted or the output is too small
+     */
+    public int encrypt(ByteBuffer payload, ByteBuffer output) throws NetworkException {
+        int start = output.position();
+        encryptFrame(payload, output);
+        return output.position() - start;
+    }
+    
+    private ByteBuffer encryptFrame(ByteBuffer payload, ByteBuffer output) throws NetworkException {
+        try {
+            Cipher cipher = initEncrypt();
+            if (output == null) {
+                int max = 4 + ivSize + cipher.getOutputSize(payload.remaining());
+                if (encoded == null || encoded.capacity() < max) encoded = ByteBuffer.allocate(Math.max(max, 256));
+                output = encoded.clear();
+            }
+            
+            int start = output.position();
+            output.position(start + 4 + ivSize);
+            int len = cipher.doFinal(payload, output);
+            
+            output.putInt(start, len);
+            output.put(start + 4, encryptIV);
+            return output;
+        } catch (GeneralSecurityException e) {
+            throw new NetworkException(e);
+        }
+    }
+    
+    /**
+     * Decrypts the next frame from the remaining bytes of the input, writing the payload at the position of the output.
+     * If the frame is complete, the input position is moved past it; otherwise nothing is consumed.
+     *
+     * @param input the received bytes
+     * @param output the buffer receiving the payload, with at least as many remaining bytes as the ciphertext
+     * @return the size of the payload, or -1 if the frame is not complete yet
+     * @throws NetworkException if the frame can not be decrypted or the output is too small
+     */
+    public int decrypt(ByteBuffer input, ByteBuffer output) throws NetworkException {
+        int len = ciphertextLength(input);
+        if (len == -1) return -1;
+        
+        int start = output.position();
+        decryptFrame(input, len, output);
+        return output.position() - start;
+    }
+    
+    private ByteBuffer decryptFrame(ByteBuffer input, int len, ByteBuffer output) throws NetworkException {
+        int start = input.position();
+        input.get(start + 4, decryptIV);
+        input.position(start + 4 + ivSize + len);
+        
+        try {
+            Cipher cipher = initDecrypt();
+            if (output == null) {
+                int max = cipher.getOutputSize(len);
+                if (decoded == null || decoded.capacity() < max) decoded = ByteBuffer.allocate(Math.max(max, 256));
+                output = decoded.clear();
+            }
+            
+            cipher.doFinal(input.slice(start + 4 + ivSize, len), output);
+            return output;
+        } catch (GeneralSecurityException e) {
+            throw new NetworkException(e);
+        }
+    }
+    
+    private int ciphertextLength(ByteBuffer input) throws NetworkException {
+        if (input.remaining() < 4 + ivSize) return -1;
+        
+        int len = input.getInt(input.position());
+        checkCiphertextLength(len);
+        if (input.remaining() - 4 - ivSize < len) return -1;
+        
+        return len;
+    }
+    
+    @Override
+    public int headerSize() {
+        return 0;
+    }
+    
+    @Override
+    public ByteBuffer encode(ByteBuffer frame) throws IOException, NetworkException {
+        return encryptFrame(frame, null).flip();
+    }
+    
+    @Override
+    public ByteBuffer decode(ByteBuffer input) throws IOException, NetworkException {
+        int len = ciphertextLength(input);
+        if (len == -1) return null;
+        
+        return decryptFrame(input, len, null).flip();
+    }
+    
     @Override
     public ByteArrayInputStream read(BufferedInputStream input) throws IOException, NetworkException {
         try {
         	int len = Binary.Int(input::read);
         	if (len == -1) return EMPTY;
+        	checkCiphertextLength(len);
         	
             byte[] iv = Binary.Bytes(input::read, ivSize);
             byte[] encrypted = Binary.Bytes(input::read, len);
             
-            Cipher cipher = Cipher.getInstance(cipherTransformation);
-            cipher.init(Cipher.DECRYPT_MODE, secretKey, new IvParameterSpec(iv));
-            byte[] decrypted = cipher.doFinal(encrypted);
+            System.arraycopy(iv, 0, decryptIV, 0, ivSize);
+            byte[] decrypted = initDecrypt().doFinal(encrypted);
             
             return new ByteArrayInputStream(decrypted);
         } catch (GeneralSecurityException e) {
@@ -94,15 +304,10 @@ public class EncryptedPacketChannel implements IPacketChannel {
     @Override
     public void write(BufferedOutputStream output, ByteArrayOutputStream bytes) throws IOException, NetworkException {
         try {
-            byte[] iv = new byte[ivSize];
-            new SecureRandom().nextBytes(iv);
-            
-            Cipher cipher = Cipher.getInstance(cipherTransformation);
-            cipher.init(Cipher.ENCRYPT_MODE, secretKey, new IvParameterSpec(iv));
-            byte[] encrypted = cipher.doFinal(bytes.toByteArray());
+            byte[] encrypted = initEncrypt().doFinal(bytes.toByteArray());
             
             Binary.Int(output::write, encrypted.length);
-            Binary.Bytes(output::write, iv, ivSize);
+            Binary.Bytes(output::write, encryptIV, ivSize);
             Binary.Bytes(output::write, encrypted, encrypted.length);
             
             output.flush();
@@ -110,4 +315,4 @@ public class EncryptedPacketChannel implements IPacketChannel {
             throw new NetworkException(e);
         }
     }
-}
+}
\ No newline at end of file
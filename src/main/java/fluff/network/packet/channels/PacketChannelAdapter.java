@@ -0,0 +1,252 @@
+package fluff.network.packet.channels;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import fluff.network.NetworkException;
+import fluff.network.packet.FrameFormat;
+import fluff.network.packet.IBufferChannel;
+import fluff.network.packet.IPacketChannel;
+
+/**
+ * Adapts a stream based {@link IPacketChannel} to the {@link IBufferChannel} contract, so channels which do not
+ * frame packets in buffers themselves keep working. Frames are decoded by replaying the received bytes through
+ * the wrapped channel until it stops running out of input.
+ * <p>
+ * A replay is only attempted once more bytes were received than the last attempt read, and than the last read
+ * of the wrapped channel asked for. Channels reading their frame byte by byte are still replayed on every received
+ * chunk, unless the format of their length prefix is given: frames are then only replayed once the length prefix
+ * says they are complete, and frames claiming more than the maximum frame size are rejected before the wrapped
+ * channel allocates them.
+ */
+public class PacketChannelAdapter implements IBufferChannel {
+    
+    private final IPacketChannel channel;
+    private final FrameFormat lengthFormat;
+    private final int maxFrameSize;
+    
+    /**
+     * The number of received bytes below which the next frame can not be complete, from the last attempt.
+     */
+    private int needed;
+    
+    private final ReplayInputStream replayIn = new ReplayInputStream();
+    private final ExposedOutputStream payloadOut = new ExposedOutputStream();
+    private final ExposedOutputStream frameSink = new ExposedOutputStream();
+    private final BufferedOutputStream frameOut = new BufferedOutputStream(frameSink);
+    
+    /**
+     * Constructs a new adapter for the specified packet channel, whose frames start with a length prefix
+     * of the specified format followed by at least that many bytes.
+     *
+     * @param channel the packet channel to adapt
+     * @param lengthFormat the format of the length prefix of every frame, or null if the frames have none
+     * @param maxFrameSize the maximum length claimed by a length prefix
+     */
+    public PacketChannelAdapter(IPacketChannel channel, FrameFormat lengthFormat, int maxFrameSize) {
+        if (maxFrameSize <= 0) throw new IllegalArgumentException("Invalid maximum frame size " + maxFrameSize + "!");
+        
+        this.channel = channel;
+        this.lengthFormat = lengthFormat;
+        this.maxFrameSize = maxFrameSize;
+    }
+    
+    /**
+     * Constructs a new adapter for the specified packet channel, whose frame layout is unknown.
+     *
+     * @param channel the packet channel to adapt
+     */
+    public PacketChannelAdapter(IPacketChannel channel) {
+        this(channel, null, DEFAULT_MAX_FRAME_SIZE);
+    }
+    
+    @Override
+    public int headerSize() {
+        return 0;
+    }
+    
+    @Override
+    public ByteBuffer encode(ByteBuffer frame) throws IOException, NetworkException {
+        payloadOut.reset();
+        payloadOut.write(frame);
+        
+        frameSink.reset();
+        channel.write(frameOut, payloadOut);
+        frameOut.flush();
+        
+        return frameSink.toByteBuffer();
+    }
+    
+    @Override
+    public ByteBuffer decode(ByteBuffer input) throws IOException, NetworkException {
+        if (!input.hasRemaining() || input.remaining() < needed) return null;
+        
+        if (lengthFormat != null) {
+            int len = lengthFormat.getLength(input, input.position(), maxFrameSize);
+            if (len == -1) return null;
+            
+            int size = lengthFormat.lengthSize(len) + len;
+            if (input.remaining() < size) {
+                needed = size;
+                return null;
+            }
+        }
+        
+        byte[] array;
+        int start;
+        if (input.hasArray()) {
+            array = input.array();
+            start = input.arrayOffset() + input.position();
+        } else {
+            array = new byte[input.remaining()];
+            input.duplicate().get(array);
+            start = 0;
+        }
+        
+        replayIn.reset(array, start, start + input.remaining());
+        ByteArrayInputStream payload;
+        try {
+            payload = channel.read(replayIn);
+        } catch (UnderflowException e) {
+            needed = Math.max(input.remaining() + 1, replayIn.required);
+            return null;
+        }
+        needed = 0;
+        input.position(input.position() + replayIn.consumed());
+        
+        return ByteBuffer.wrap(payload.readAllBytes());
+    }
+    
+    @Override
+    public ByteArrayInputStream read(BufferedInputStream input) throws IOException, NetworkException {
+        if (lengthFormat != null) {
+            input.mark(FrameFormat.MAX_VARINT_SIZE);
+            int len = lengthFormat.readLength(input);
+            input.reset();
+            if (len > maxFrameSize) throw new NetworkException("Invalid frame length " + len + "!");
+        }
+        return channel.read(input);
+    }
+    
+    @Override
+    public void write(BufferedOutputStream output, ByteArrayOutputStream bytes) throws IOException, NetworkException {
+        channel.write(output, bytes);
+    }
+    
+    /**
+     * Gets the adapted packet channel.
+     *
+     * @return the packet channel
+     */
+    public IPacketChannel getChannel() {
+        return channel;
+    }
+    
+    /**
+     * A {@link BufferedInputStream} over received bytes, which throws an {@link UnderflowException}
+     * instead of blocking when the wrapped channel reads past them, and remembers how many bytes
+     * the failed read needed.
+     */
+    private static class ReplayInputStream extends BufferedInputStream {
+        
+        private int start;
+        
+        /**
+         * The number of bytes from the start which the last failed read needed.
+         */
+        int required;
+        
+        ReplayInputStream() {
+            super(InputStream.nullInputStream(), 1);
+        }
+        
+        void reset(byte[] array, int start, int end) {
+            this.buf = array;
+            this.start = start;
+            this.pos = start;
+            this.count = end;
+            this.markpos = -1;
+            this.required = 0;
+        }
+        
+        int consumed() {
+            return pos - start;
+        }
+        
+        private UnderflowException underflow(long len) {
+            required = (int) Math.min(count - start + len, Integer.MAX_VALUE);
+            return new UnderflowException();
+        }
+        
+        @Override
+        public synchronized int read() throws IOException {
+            if (pos >= count) throw underflow(1);
+            
+            return buf[pos++] & 0xFF;
+        }
+        
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            
+            int n = Math.min(count - pos, len);
+            if (n == 0) throw underflow(len);
+            
+            System.arraycopy(buf, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+        
+        @Override
+        public synchronized long skip(long n) throws IOException {
+            if (n <= 0) return 0;
+            
+            long skipped = Math.min(count - pos, n);
+            if (skipped == 0) throw underflow(n);
+            
+            pos += skipped;
+            return skipped;
+        }
+        
+        @Override
+        public synchronized int available() {
+            return count - pos;
+        }
+    }
+    
+    /**
+     * Thrown when a frame is read before all of its bytes were received.
+     */
+    private static class UnderflowException extends IOException {
+        
+        private static final long serialVersionUID = -4182311956375893240L;
+        
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+    
+    /**
+     * A {@link ByteArrayOutputStream} exposing its bytes without copying them.
+     */
+    private static class ExposedOutputStream extends ByteArrayOutputStream {
+        
+        void write(ByteBuffer src) {
+            int len = src.remaining();
+            if (count + len > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + len));
+            src.get(buf, count, len);
+            count += len;
+        }
+        
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+}
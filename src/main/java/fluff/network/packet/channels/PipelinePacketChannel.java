@@ -0,0 +1,147 @@
+package fluff.network.packet.channels;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import fluff.network.NetworkException;
+import fluff.network.packet.FrameFormat;
+import fluff.network.packet.IBufferChannel;
+import fluff.network.packet.IChannelStage;
+
+/**
+ * The PipelinePacketChannel class implements the IBufferChannel interface by passing every payload
+ * through a list of stages, like compression, encryption or checksums, then framing it with a length prefix.
+ * Outgoing payloads go through the stages in order and incoming payloads in reverse order.
+ * <p>
+ * Every stage reserves its header in the frame allocated by the client, so in place stages
+ * write their headers and trailers without copying the payload. Pipelines with stages keeping
+ * per connection state must not be shared between clients.
+ */
+public class PipelinePacketChannel implements IBufferChannel {
+    
+    private final FrameFormat format;
+    private final int maxFrameSize;
+    private final IChannelStage[] stages;
+    private final int headerSize;
+    private final int trailerSize;
+    private final Object frameKey;
+    
+    /**
+     * Constructs a PipelinePacketChannel with the specified frame format, maximum frame size and stages.
+     * Frames claiming a larger length are rejected as soon as their length prefix is received.
+     *
+     * @param format the format of the length prefix and packet IDs
+     * @param maxFrameSize the maximum size of the transformed payloads
+     * @param stages the stages, in the order they transform outgoing payloads
+     */
+    public PipelinePacketChannel(FrameFormat format, int maxFrameSize, IChannelStage... stages) {
+        if (maxFrameSize <= 0) throw new IllegalArgumentException("Invalid maximum frame size " + maxFrameSize + "!");
+        
+        this.format = format;
+        this.maxFrameSize = maxFrameSize;
+        this.stages = stages.clone();
+        
+        int headerSize = format.maxLengthSize();
+        int trailerSize = 0;
+        List<Object> keys = new ArrayList<>();
+        keys.add(PipelinePacketChannel.class);
+        keys.add(format);
+        for (IChannelStage stage : this.stages) {
+            headerSize += stage.headerSize();
+            trailerSize += stage.trailerSize();
+            
+            Object key = stage.getStageKey();
+            if (keys != null && key != null) keys.add(key);
+            else keys = null;
+        }
+        this.headerSize = headerSize;
+        this.trailerSize = trailerSize;
+        this.frameKey = keys == null ? null : List.copyOf(keys);
+    }
+    
+    /**
+     * Constructs a PipelinePacketChannel with the specified frame format and stages, and the {@link #DEFAULT_MAX_FRAME_SIZE}.
+     *
+     * @param format the format of the length prefix and packet IDs
+     * @param stages the stages, in the order they transform outgoing payloads
+     */
+    public PipelinePacketChannel(FrameFormat format, IChannelStage... stages) {
+        this(format, DEFAULT_MAX_FRAME_SIZE, stages);
+    }
+    
+    /**
+     * Constructs a PipelinePacketChannel with the {@link FrameFormat#FIXED} format and the specified stages.
+     *
+     * @param stages the stages, in the order they transform outgoing payloads
+     */
+    public PipelinePacketChannel(IChannelStage... stages) {
+        this(FrameFormat.FIXED, stages);
+    }
+    
+    @Override
+    public FrameFormat getFrameFormat() {
+        return format;
+    }
+    
+    @Override
+    public int headerSize() {
+        return headerSize;
+    }
+    
+    @Override
+    public int trailerSize() {
+        return trailerSize;
+    }
+    
+    @Override
+    public Object getFrameKey() {
+        return frameKey;
+    }
+    
+    @Override
+    public ByteBuffer encode(ByteBuffer frame) throws IOException, NetworkException {
+        int headroom = headerSize;
+        int tailroom = trailerSize;
+        ByteBuffer buffer = frame.position(frame.position() + headerSize);
+        
+        for (IChannelStage stage : stages) {
+            headroom -= stage.headerSize();
+            tailroom -= stage.trailerSize();
+            buffer = stage.encode(buffer.position(buffer.position() - stage.headerSize()), headroom, tailroom);
+        }
+        
+        int len = buffer.remaining();
+        int start = buffer.position() - format.lengthSize(len);
+        format.putLength(buffer, start, len);
+        return buffer.position(start);
+    }
+    
+    @Override
+    public ByteBuffer decode(ByteBuffer input) throws IOException, NetworkException {
+        int start = input.position();
+        int len = format.getLength(input, start, maxFrameSize);
+        if (len == -1) return null;
+        
+        int offset = start + format.lengthSize(len);
+        if (input.limit() - offset < len) return null;
+        
+        input.position(offset + len);
+        
+        ByteBuffer payload = input.slice(offset, len);
+        for (int i = stages.length - 1; i >= 0; i--) {
+            payload = stages[i].decode(payload);
+        }
+        return payload;
+    }
+    
+    /**
+     * Gets the stages of this pipeline.
+     *
+     * @return a copy of the stages, in the order they transform outgoing payloads
+     */
+    public IChannelStage[] getStages() {
+        return stages.clone();
+    }
+}
@@ -0,0 +1,247 @@
+package fluff.network.packet.stages;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import fluff.network.NetworkException;
+import fluff.network.packet.IChannelStage;
+import fluff.network.packet.channels.AeadPacketChannel;
+import fluff.network.packet.channels.AeadPacketChannel.Algorithm;
+
+/**
+ * The AeadStage class implements the IChannelStage interface and encrypts and authenticates every payload
+ * with an AEAD cipher, appending the authentication tag. It also holds the keys, nonces and ciphers
+ * of {@link AeadPacketChannel}, which frames its payloads with the same logic.
+ * <p>
+ * The shared key is never used to encrypt directly. Each side sends a random {@link #SALT_SIZE} byte salt
+ * in front of its first payload, and both sides derive the key of that direction from the shared key and the salt
+ * with HKDF-SHA256. No nonce is sent: it is made of a 4 byte direction prefix and an 8 byte frame counter,
+ * so the client and the server must use stages of opposite sides created from the same key.
+ * Since every stage instance picks a new salt, connections and reconnections sharing the key never reuse
+ * a (key, nonce) pair, but a stage instance must never be reused for another connection.
+ * The stage keeps per-direction state, so it must not be shared between clients.
+ */
+public class AeadStage implements IChannelStage {
+    
+    public static final int SALT_SIZE = 16;
+    
+    private static final int CLIENT_PREFIX = 0x434C4E54;
+    private static final int SERVER_PREFIX = 0x53525652;
+    private static final SecureRandom RANDOM = new SecureRandom();
+    
+    private final Algorithm algorithm;
+    private final SecretKey secretKey;
+    private final int encryptPrefix;
+    private final int decryptPrefix;
+    
+    private final byte[] encryptSalt = new byte[SALT_SIZE];
+    private final byte[] encryptNonce = new byte[AeadPacketChannel.NONCE_SIZE];
+    private final byte[] decryptNonce = new byte[AeadPacketChannel.NONCE_SIZE];
+    private long encryptCounter;
+    private long decryptCounter;
+    private SecretKey encryptKey;
+    private SecretKey decryptKey;
+    private Cipher encryptCipher;
+    private Cipher decryptCipher;
+    private ByteBuffer encoded;
+    
+    /**
+     * Constructs an AeadStage with the specified algorithm, secret key and side.
+     *
+     * @param algorithm the AEAD algorithm
+     * @param secretKey the secret key shared by the client and the server
+     * @param server true for the server side of the connection, false for the client side
+     */
+    public AeadStage(Algorithm algorithm, SecretKey secretKey, boolean server) {
+        this.algorithm = algorithm;
+        this.secretKey = secretKey;
+        this.encryptPrefix = server ? SERVER_PREFIX : CLIENT_PREFIX;
+        this.decryptPrefix = server ? CLIENT_PREFIX : SERVER_PREFIX;
+        
+        RANDOM.nextBytes(encryptSalt);
+    }
+    
+    /**
+     * Creates the client side stage using AES-GCM.
+     *
+     * @param secretKey the AES key shared with the server
+     * @return the client stage
+     */
+    public static AeadStage client(SecretKey secretKey) {
+        return new AeadStage(Algorithm.AES_GCM, secretKey, false);
+    }
+    
+    /**
+     * Creates the server side stage using AES-GCM.
+     *
+     * @param secretKey the AES key shared with the client
+     * @return the server stage
+     */
+    public static AeadStage server(SecretKey secretKey) {
+        return new AeadStage(Algorithm.AES_GCM, secretKey, true);
+    }
+    
+    private Cipher init(int mode, SecretKey key, byte[] nonce, int prefix, long counter) throws GeneralSecurityException, NetworkException {
+        if (counter == -1) throw new NetworkException("Nonce counter exhausted!");
+        
+        ByteBuffer.wrap(nonce).putInt(0, prefix).putLong(4, counter);
+        
+        Cipher cipher = mode == Cipher.ENCRYPT_MODE ? encryptCipher : decryptCipher;
+        if (cipher == null) {
+            cipher = Cipher.getInstance(algorithm.getTransformation());
+            if (mode == Cipher.ENCRYPT_MODE) encryptCipher = cipher;
+            else decryptCipher = cipher;
+        }
+        
+        cipher.init(mode, key, algorithm == Algorithm.AES_GCM
+                ? new GCMParameterSpec(AeadPacketChannel.TAG_SIZE * 8, nonce)
+                : new IvParameterSpec(nonce));
+        return cipher;
+    }
+    
+    /**
+     * Derives the key of a direction from the shared key and the salt of that direction, with HKDF-SHA256.
+     * The direction prefix is the HKDF info, so both directions get different keys even with equal salts.
+     */
+    private SecretKey deriveKey(ByteBuffer salt, int prefix) throws NetworkException {
+        byte[] ikm = secretKey.getEncoded();
+        if (ikm == null || ikm.length > 32) throw new NetworkException("Unsupported secret key!");
+        
+        try {
+            byte[] saltBytes = new byte[SALT_SIZE];
+            salt.get(salt.position(), saltBytes);
+            
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(saltBytes, "HmacSHA256"));
+            byte[] prk = mac.doFinal(ikm);
+            
+            mac.init(new SecretKeySpec(prk, "HmacSHA256"));
+            mac.update(new byte[] { (byte) (prefix >>> 24), (byte) (prefix >>> 16), (byte) (prefix >>> 8), (byte) prefix, 1 });
+            return new SecretKeySpec(mac.doFinal(), 0, ikm.length, secretKey.getAlgorithm());
+        } catch (GeneralSecurityException e) {
+            throw new NetworkException(e);
+        }
+    }
+    
+    /**
+     * Checks if the salt of this side was not sent yet, so it must be written in front of the next encrypted payload.
+     *
+     * @return true if the next payload is the first one, false otherwise
+     */
+    public boolean isFirstEncrypt() {
+        return encryptKey == null;
+    }
+    
+    /**
+     * Checks if the salt of the peer was not received yet, so it is expected in front of the next encrypted payload.
+     *
+     * @return true if the next payload is the first one, false otherwise
+     */
+    public boolean isFirstDecrypt() {
+        return decryptKey == null;
+    }
+    
+    /**
+     * Gets a copy of the salt of this side, which must be sent in front of the first encrypted payload.
+     *
+     * @return the salt of this side
+     */
+    public byte[] getEncryptSalt() {
+        return encryptSalt.clone();
+    }
+    
+    /**
+     * Encrypts the remaining bytes of the plaintext, writing the ciphertext and its tag at the position of the output.
+     *
+     * @param plaintext the payload
+     * @param output the buffer receiving the ciphertext and its tag
+     * @param aad the associated data to authenticate, or null
+     * @throws NetworkException if the payload can not be encrypted
+     */
+    public void encrypt(ByteBuffer plaintext, ByteBuffer output, byte[] aad) throws NetworkException {
+        if (encryptKey == null) encryptKey = deriveKey(ByteBuffer.wrap(encryptSalt), encryptPrefix);
+        
+        try {
+            Cipher cipher = init(Cipher.ENCRYPT_MODE, encryptKey, encryptNonce, encryptPrefix, encryptCounter++);
+            if (aad != null) cipher.updateAAD(aad);
+            cipher.doFinal(plaintext, output);
+        } catch (GeneralSecurityException e) {
+            throw new NetworkException(e);
+        }
+    }
+    
+    /**
+     * Decrypts a ciphertext and its tag in place. Before the first payload, the salt of the peer is taken
+     * from the first {@link #SALT_SIZE} bytes of the salt buffer.
+     *
+     * @param salt the buffer starting with the salt of the peer, only read for the first payload
+     * @param ciphertext the ciphertext followed by its tag, overwritten by the plaintext
+     * @param aad the associated data to authenticate, or null
+     * @return the size of the plaintext, written at the position of the ciphertext
+     * @throws NetworkException if the payload can not be decrypted or fails authentication
+     */
+    public int decrypt(ByteBuffer salt, ByteBuffer ciphertext, byte[] aad) throws NetworkException {
+        if (decryptKey == null) decryptKey = deriveKey(salt, decryptPrefix);
+        
+        try {
+            Cipher cipher = init(Cipher.DECRYPT_MODE, decryptKey, decryptNonce, decryptPrefix, decryptCounter++);
+            if (aad != null) cipher.updateAAD(aad);
+            return cipher.doFinal(ciphertext.duplicate(), ciphertext.duplicate());
+        } catch (GeneralSecurityException e) {
+            throw new NetworkException(e);
+        }
+    }
+    
+    @Override
+    public int trailerSize() {
+        return AeadPacketChannel.TAG_SIZE;
+    }
+    
+    /**
+     * Encrypts the payload in place if the frame has room for the tag and the tailroom after its limit,
+     * otherwise into a buffer owned by this stage. The first payload is always written to the owned buffer,
+     * behind the salt.
+     */
+    @Override
+    public ByteBuffer encode(ByteBuffer frame, int headroom, int tailroom) throws IOException, NetworkException {
+        int saltSize = isFirstEncrypt() ? SALT_SIZE : 0;
+        int len = saltSize + frame.remaining() + AeadPacketChannel.TAG_SIZE;
+        
+        ByteBuffer output = frame;
+        int start = frame.position();
+        if (saltSize > 0 || frame.capacity() - frame.limit() < AeadPacketChannel.TAG_SIZE + tailroom) {
+            int capacity = headroom + len + tailroom;
+            if (encoded == null || encoded.capacity() < capacity) encoded = ByteBuffer.allocate(Math.max(capacity, 256));
+            output = encoded.clear();
+            start = headroom;
+        }
+        
+        if (saltSize > 0) output.put(start, encryptSalt);
+        encrypt(frame.duplicate(), output.duplicate().clear().position(start + saltSize), null);
+        return output.limit(start + len).position(start);
+    }
+    
+    /**
+     * Decrypts the payload in place, overwriting the ciphertext.
+     */
+    @Override
+    public ByteBuffer decode(ByteBuffer payload) throws IOException, NetworkException {
+        int saltSize = isFirstDecrypt() ? SALT_SIZE : 0;
+        int start = payload.position() + saltSize;
+        int len = payload.remaining() - saltSize;
+        if (len < AeadPacketChannel.TAG_SIZE) throw new NetworkException("Invalid payload length " + len + "!");
+        
+        int size = decrypt(payload, payload.slice(start, len), null);
+        return payload.slice(start, size);
+    }
+}
+
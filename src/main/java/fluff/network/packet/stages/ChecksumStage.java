@@ -0,0 +1,51 @@
+package fluff.network.packet.stages;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
+import fluff.network.NetworkException;
+import fluff.network.packet.IChannelStage;
+
+/**
+ * The ChecksumStage class implements the IChannelStage interface and writes a CRC32C checksum
+ * of the payload in a 4 byte header, in place. Payloads with a wrong checksum close the connection.
+ * The stage keeps a checksum per direction, so it must not be shared between clients.
+ */
+public class ChecksumStage implements IChannelStage {
+    
+    private final CRC32C encodeChecksum = new CRC32C();
+    private final CRC32C decodeChecksum = new CRC32C();
+    
+    @Override
+    public int headerSize() {
+        return 4;
+    }
+    
+    @Override
+    public Object getStageKey() {
+        return ChecksumStage.class;
+    }
+    
+    @Override
+    public ByteBuffer encode(ByteBuffer frame, int headroom, int tailroom) throws IOException, NetworkException {
+        int start = frame.position();
+        
+        encodeChecksum.reset();
+        encodeChecksum.update(frame.duplicate().position(start + 4));
+        frame.putInt(start, (int) encodeChecksum.getValue());
+        return frame;
+    }
+    
+    @Override
+    public ByteBuffer decode(ByteBuffer payload) throws IOException, NetworkException {
+        if (payload.remaining() < 4) throw new NetworkException("Missing checksum!");
+        
+        int checksum = payload.getInt();
+        decodeChecksum.reset();
+        decodeChecksum.update(payload.duplicate());
+        if ((int) decodeChecksum.getValue() != checksum) throw new NetworkException("Checksum mismatch!");
+        
+        return payload;
+    }
+}
@@ -0,0 +1,178 @@
+package fluff.network.packet.stages;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import fluff.network.NetworkException;
+import fluff.network.packet.IBufferChannel;
+import fluff.network.packet.IChannelStage;
+
+/**
+ * The CompressionStage class implements the IChannelStage interface and deflates payloads larger than a threshold.
+ * Every payload starts with a flag byte telling if it is compressed, followed by the original size
+ * and the deflated bytes if it is. Payloads which do not shrink are sent as is.
+ * <p>
+ * In streaming mode, the deflater keeps its dictionary across frames, which compresses similar packets
+ * much better but requires every frame to be decoded in order. The stage keeps a deflater and an inflater,
+ * so it must not be shared between clients.
+ */
+public class CompressionStage implements IChannelStage {
+    
+    public static final int DEFAULT_THRESHOLD = 256;
+    
+    private static final byte RAW = 0;
+    private static final byte DEFLATED = 1;
+    private static final int HEADER_SIZE = 5;
+    
+    private final int threshold;
+    private final int level;
+    private final boolean streaming;
+    private final int maxSize;
+    
+    private final Deflater deflater;
+    private final Inflater inflater = new Inflater();
+    private ByteBuffer compressed;
+    private ByteBuffer inflated;
+    
+    /**
+     * Constructs a CompressionStage with the specified threshold, compression level, mode and maximum inflated size.
+     * Payloads claiming a larger inflated size are rejected before anything is allocated.
+     *
+     * @param threshold the minimum payload size which is compressed
+     * @param level the deflater compression level, from 0 to 9
+     * @param streaming true to keep the compression dictionary across frames, false to compress every frame on its own
+     * @param maxSize the maximum inflated payload size
+     */
+    public CompressionStage(int threshold, int level, boolean streaming, int maxSize) {
+        this.threshold = threshold;
+        this.level = level;
+        this.streaming = streaming;
+        this.maxSize = maxSize;
+        this.deflater = new Deflater(level);
+    }
+    
+    /**
+     * Constructs a CompressionStage with the specified threshold, compression level and mode,
+     * inflating payloads up to the {@link IBufferChannel#DEFAULT_MAX_FRAME_SIZE}.
+     *
+     * @param threshold the minimum payload size which is compressed
+     * @param level the deflater compression level, from 0 to 9
+     * @param streaming true to keep the compression dictionary across frames, false to compress every frame on its own
+     */
+    public CompressionStage(int threshold, int level, boolean streaming) {
+        this(threshold, level, streaming, IBufferChannel.DEFAULT_MAX_FRAME_SIZE);
+    }
+    
+    /**
+     * Constructs a CompressionStage with the specified threshold, compressing every frame on its own with the default level.
+     *
+     * @param threshold the minimum payload size which is compressed
+     */
+    public CompressionStage(int threshold) {
+        this(threshold, Deflater.DEFAULT_COMPRESSION, false);
+    }
+    
+    /**
+     * Constructs a CompressionStage with the default threshold.
+     */
+    public CompressionStage() {
+        this(DEFAULT_THRESHOLD);
+    }
+    
+    @Override
+    public int headerSize() {
+        return HEADER_SIZE;
+    }
+    
+    /**
+     * Payloads compressed without a dictionary only depend on the payload, so they can be shared.
+     */
+    @Override
+    public Object getStageKey() {
+        return streaming ? null : List.of(CompressionStage.class, threshold, level);
+    }
+    
+    @Override
+    public ByteBuffer encode(ByteBuffer frame, int headroom, int tailroom) throws IOException, NetworkException {
+        int payloadStart = frame.position() + HEADER_SIZE;
+        int size = frame.limit() - payloadStart;
+        
+        if (size >= threshold) {
+            ByteBuffer deflated = deflate(frame.duplicate().position(payloadStart), size, headroom, tailroom);
+            if (deflated != null) return deflated;
+        }
+        
+        frame.put(payloadStart - 1, RAW);
+        return frame.position(payloadStart - 1);
+    }
+    
+    private ByteBuffer deflate(ByteBuffer payload, int size, int headroom, int tailroom) {
+        int offset = headroom + HEADER_SIZE;
+        int capacity = offset + size + tailroom;
+        if (compressed == null || compressed.capacity() < capacity) compressed = ByteBuffer.allocate(capacity);
+        
+        compressed.clear().position(offset);
+        if (!streaming) deflater.reset();
+        deflater.setInput(payload);
+        
+        if (streaming) {
+            while (true) {
+                deflater.deflate(compressed.limit(compressed.capacity() - tailroom), Deflater.SYNC_FLUSH);
+                if (compressed.hasRemaining()) break;
+                
+                compressed = grow(compressed);
+            }
+        } else {
+            deflater.finish();
+            compressed.limit(capacity - tailroom);
+            while (!deflater.finished()) {
+                if (!compressed.hasRemaining()) return null; // larger than the payload
+                deflater.deflate(compressed);
+            }
+            if (compressed.position() >= offset + size) return null;
+        }
+        
+        compressed.put(headroom, DEFLATED);
+        compressed.putInt(headroom + 1, size);
+        return compressed.limit(compressed.position()).position(headroom);
+    }
+    
+    private static ByteBuffer grow(ByteBuffer buffer) {
+        ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() * 2);
+        grown.put(buffer.flip());
+        return grown;
+    }
+    
+    @Override
+    public ByteBuffer decode(ByteBuffer payload) throws IOException, NetworkException {
+        if (!payload.hasRemaining()) throw new NetworkException("Missing compression flag!");
+        
+        byte flag = payload.get();
+        if (flag == RAW) return payload;
+        if (flag != DEFLATED) throw new NetworkException("Invalid compression flag " + flag + "!");
+        
+        if (payload.remaining() < 4) throw new NetworkException("Missing compressed size!");
+        int size = payload.getInt();
+        if (size < 0 || size > maxSize) throw new NetworkException("Invalid compressed size " + size + "!");
+        
+        if (inflated == null || inflated.capacity() < size) inflated = ByteBuffer.allocate(Math.max(size, 256));
+        inflated.clear().limit(size);
+        
+        try {
+            if (!streaming) inflater.reset();
+            inflater.setInput(payload);
+            while (inflated.hasRemaining()) {
+                if (inflater.inflate(inflated) == 0 && (inflater.needsInput() || inflater.finished() || inflater.needsDictionary())) {
+                    throw new NetworkException("Truncated compressed payload!");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new NetworkException(e);
+        }
+        return inflated.flip();
+    }
+}
@@ -0,0 +1,87 @@
+package fluff.network.packet.stages;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+import fluff.network.NetworkException;
+import fluff.network.packet.IChannelStage;
+
+/**
+ * The MetricsStage class implements the IChannelStage interface and counts the payloads
+ * and bytes passing through its position in the pipeline, without transforming them.
+ * The counters are thread safe, so one stage can be shared by the pipelines of every client.
+ * A frame shared between clients, like a broadcast, is only counted once.
+ */
+public class MetricsStage implements IChannelStage {
+    
+    private final LongAdder encodedFrames = new LongAdder();
+    private final LongAdder encodedBytes = new LongAdder();
+    private final LongAdder decodedFrames = new LongAdder();
+    private final LongAdder decodedBytes = new LongAdder();
+    
+    @Override
+    public Object getStageKey() {
+        return MetricsStage.class;
+    }
+    
+    @Override
+    public ByteBuffer encode(ByteBuffer frame, int headroom, int tailroom) throws IOException, NetworkException {
+        encodedFrames.increment();
+        encodedBytes.add(frame.remaining());
+        return frame;
+    }
+    
+    @Override
+    public ByteBuffer decode(ByteBuffer payload) throws IOException, NetworkException {
+        decodedFrames.increment();
+        decodedBytes.add(payload.remaining());
+        return payload;
+    }
+    
+    /**
+     * Gets the number of outgoing payloads.
+     *
+     * @return the encoded frame count
+     */
+    public long getEncodedFrames() {
+        return encodedFrames.sum();
+    }
+    
+    /**
+     * Gets the size of the outgoing payloads.
+     *
+     * @return the encoded byte count
+     */
+    public long getEncodedBytes() {
+        return encodedBytes.sum();
+    }
+    
+    /**
+     * Gets the number of incoming payloads.
+     *
+     * @return the decoded frame count
+     */
+    public long getDecodedFrames() {
+        return decodedFrames.sum();
+    }
+    
+    /**
+     * Gets the size of the incoming payloads.
+     *
+     * @return the decoded byte count
+     */
+    public long getDecodedBytes() {
+        return decodedBytes.sum();
+    }
+    
+    /**
+     * Resets every counter to 0.
+     */
+    public void reset() {
+        encodedFrames.reset();
+        encodedBytes.reset();
+        decodedFrames.reset();
+        decodedBytes.reset();
+    }
+}
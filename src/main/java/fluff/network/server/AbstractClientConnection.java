@@ -5,6 +5,8 @@ import java.net.Socket;
 
 import fluff.network.NetworkException;
 import fluff.network.client.AbstractClient;
+import fluff.network.packet.IPacketInbound;
+import fluff.network.packet.PacketDescriptor;
 
 /**
  * An abstract implementation of the {@link IClientConnection} interface that provides basic functionality for a client connection.
@@ -13,6 +15,11 @@ public abstract class AbstractClientConnection extends AbstractClient implements
     
     protected final AbstractServer server;
     
+    /**
+     * Whether a server module waits for the UUID of this client, see {@link #awaitUUID()}.
+     */
+    protected volatile boolean awaitingUUID;
+    
     /**
      * Constructs a new client connection with the specified server.
      * 
@@ -41,6 +48,38 @@ public abstract class AbstractClientConnection extends AbstractClient implements
         server.onDisconnect(this);
     }
     
+    @Override
+    protected void onWritabilityChanged(boolean writable) {
+        super.onWritabilityChanged(writable);
+        
+        server.onWritabilityChanged(this, writable);
+    }
+    
+    /**
+     * Marks this client as waiting for its UUID. Once a handled packet has set the UUID,
+     * {@link #onUUIDSet()} is called, so the client is registered without waiting for a timeout.
+     */
+    public void awaitUUID() {
+        awaitingUUID = true;
+    }
+    
+    /**
+     * Notifies the server modules that the UUID of this client was set. Called automatically after a packet handler
+     * sets the UUID of a client waiting for it, and should be called by code setting the UUID outside a packet handler.
+     */
+    public void onUUIDSet() {
+        awaitingUUID = false;
+        
+        server.onUUIDSet(this);
+    }
+    
+    @Override
+    protected void handle(PacketDescriptor descriptor, IPacketInbound packet) {
+        super.handle(descriptor, packet);
+        
+        if (awaitingUUID && getUUID() != null) onUUIDSet();
+    }
+    
     @Override
     public IServer getServer() {
         return server;
@@ -3,26 +3,42 @@ package fluff.network.server;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
 
 import fluff.functions.gen.Func;
 import fluff.network.INetHandler;
 import fluff.network.NetworkException;
+import fluff.network.NetworkThreads;
+import fluff.network.buffer.IBufferAllocator;
+import fluff.network.client.OverflowPolicy;
+import fluff.network.metrics.NetworkMetrics;
 import fluff.network.packet.IPacketChannel;
 import fluff.network.packet.IPacketOutbound;
+import fluff.network.packet.PacketBatch;
 import fluff.network.packet.PacketContext;
+import fluff.network.packet.SharedPacket;
 
 /**
  * An abstract implementation of the {@link IServer} interface that provides basic functionality for a server.
  */
 public abstract class AbstractServer implements IServer {
     
-    protected final Map<UUID, AbstractClientConnection> connections = new HashMap<>();
+    protected final Map<UUID, AbstractClientConnection> connections = new ConcurrentHashMap<>();
+    
+    /**
+     * Copy of the connections iterated by broadcasts, replaced whenever a client connects or disconnects.
+     */
+    private volatile AbstractClientConnection[] connectionArray = new AbstractClientConnection[0];
+    private volatile List<AbstractClientConnection> connectionList = List.of();
     protected final int port;
     
     protected final List<ServerModule> modules = new LinkedList<>();
@@ -33,6 +49,12 @@ public abstract class AbstractServer implements IServer {
     protected PacketContext<?> defaultContext;
     protected Func<? extends INetHandler> defaultHandlerFunc;
     protected Func<? extends IPacketChannel> defaultChannelFunc;
+    protected ThreadFactory threadFactory = NetworkThreads.platform();
+    protected IBufferAllocator allocator;
+    protected int writeQueueCapacity;
+    protected OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+    protected Executor dispatchExecutor;
+    protected NetworkMetrics metrics;
     
     /**
      * Constructs a new server with the specified port.
@@ -59,6 +81,16 @@ public abstract class AbstractServer implements IServer {
     	return true;
     }
     
+    /**
+     * Opens the server socket on which the server will listen for connections.
+     * 
+     * @return the server socket
+     * @throws IOException if an I/O error occurs
+     */
+    protected ServerSocket openServerSocket() throws IOException {
+        return new ServerSocket(port);
+    }
+    
     /**
      * Creates a new client connection.
      * 
@@ -83,6 +115,8 @@ public abstract class AbstractServer implements IServer {
      * @param e the exception representing the error
      */
     protected void onError(Exception e) {
+    	if (metrics != null) metrics.onError();
+    	
     	for (ServerModule m : modules) {
     		m.onError(e);
     	}
@@ -103,11 +137,11 @@ public abstract class AbstractServer implements IServer {
     	
     	UUID uuid = connection.getUUID();
     	if (uuid == null) throw new NetworkException("Client's UUID cannot be null!");
-        if (connections.containsKey(uuid)) throw new NetworkException("Client with UUID " + connection.getUUID() + " already exists!");
-        
         synchronized (connections) {
-        	connections.put(uuid, connection);
+            if (connections.putIfAbsent(uuid, connection) != null) throw new NetworkException("Client with UUID " + uuid + " already exists!");
+            updateConnectionSnapshot();
 		}
+        if (metrics != null) metrics.onConnect();
         
     	for (ServerModule m : modules) {
     		m.onPostConnect(connection);
@@ -127,15 +161,41 @@ public abstract class AbstractServer implements IServer {
     	UUID uuid = connection.getUUID();
     	if (uuid == null) return;
     	
+        boolean removed;
         synchronized (connections) {
-        	connections.remove(uuid);
+        	removed = connections.remove(uuid, connection);
+        	if (removed) updateConnectionSnapshot();
 		}
+        if (removed && metrics != null) metrics.onDisconnect();
         
     	for (ServerModule m : modules) {
     		m.onPostDisconnect(connection);
     	}
     }
     
+    /**
+     * Called when the UUID of a client waiting for it is set.
+     * 
+     * @param connection the client connection
+     */
+    protected void onUUIDSet(AbstractClientConnection connection) {
+    	for (ServerModule m : modules) {
+    		m.onUUIDSet(connection);
+    	}
+    }
+    
+    /**
+     * Called when the write queue of a client crosses its high watermark, or drops back to its low watermark.
+     * 
+     * @param connection the client connection
+     * @param writable the new writability
+     */
+    protected void onWritabilityChanged(AbstractClientConnection connection, boolean writable) {
+    	for (ServerModule m : modules) {
+    		m.onWritabilityChanged(connection, writable);
+    	}
+    }
+    
     /**
      * The main server loop that waits for client connections.
      */
@@ -153,6 +213,11 @@ public abstract class AbstractServer implements IServer {
             	if (cancel) continue; // warning: socket remains open
                 
                 AbstractClientConnection connection = createConnection();
+                connection.setThreadFactory(threadFactory);
+                if (allocator != null) connection.setBufferAllocator(allocator);
+                if (writeQueueCapacity > 0) connection.setWriteQueue(writeQueueCapacity, overflowPolicy);
+                if (dispatchExecutor != null) connection.setDispatchExecutor(dispatchExecutor);
+                if (metrics != null) connection.setMetrics(metrics);
                 
             	for (ServerModule m : modules) {
             		m.onOpenConnection(socket, connection);
@@ -178,16 +243,32 @@ public abstract class AbstractServer implements IServer {
     }
     
     /**
-     * Gets the current connections UUID key set. Used to avoid synchronization errors.
+     * Replaces the connection snapshot after the connections changed. Must be called while holding the connections lock.
+     */
+    protected void updateConnectionSnapshot() {
+        AbstractClientConnection[] array = connections.values().toArray(new AbstractClientConnection[0]);
+        connectionList = List.of(array);
+        connectionArray = array;
+    }
+    
+    /**
+     * Gets the current connections UUID key set. The set is a read only view, which can be iterated
+     * while clients connect and disconnect.
      * 
      * @return the current connections UUID key set
      */
     protected Set<UUID> getUUIDKeys() {
-    	Set<UUID> set;
-    	synchronized (connections) {
-    		set = Set.copyOf(connections.keySet());
-		}
-    	return set;
+    	return Collections.unmodifiableSet(connections.keySet());
+    }
+    
+    /**
+     * Gets the connected clients, as of the last connect or disconnect. The list is immutable and is not copied
+     * by this call, so broadcasts can iterate it without locking.
+     * 
+     * @return the connected clients
+     */
+    public List<AbstractClientConnection> getConnections() {
+        return connectionList;
     }
     
     @Override
@@ -202,19 +283,57 @@ public abstract class AbstractServer implements IServer {
     		m.onSendAll(packet);
     	}
     	
-    	Set<UUID> keys = getUUIDKeys();
-        for (UUID uuid : keys) {
-        	AbstractClientConnection connection = connections.get(uuid);
-        	if (connection == null) continue;
-        	
-            connection.send(packet);
+    	SharedPacket shared = new SharedPacket(packet, allocator != null ? allocator : IBufferAllocator.HEAP);
+        for (AbstractClientConnection connection : connectionArray) {
+            connection.send(shared);
         }
+        shared.release();
         
     	for (ServerModule m : modules) {
     		m.onPostSendAll(packet);
     	}
     }
     
+    /**
+     * Sends the packets of the batch which are not cancelled by a module, serializing them once
+     * per packet context. The module hooks of {@link #sendAll(IPacketOutbound)} are called for every packet.
+     */
+    @Override
+    public void sendAll(PacketBatch batch) {
+    	List<IPacketOutbound> packets = new ArrayList<>(batch.size());
+    	for (IPacketOutbound packet : batch.getPackets()) {
+    		boolean cancel = false;
+    		for (ServerModule m : modules) {
+    			cancel |= m.onPreSendAll(packet);
+    		}
+    		if (!cancel) packets.add(packet);
+    	}
+    	if (packets.isEmpty()) return;
+    	
+    	for (IPacketOutbound packet : packets) {
+    		for (ServerModule m : modules) {
+    			m.onSendAll(packet);
+    		}
+    	}
+    	
+    	SharedPacket shared = new SharedPacket(packets, allocator != null ? allocator : IBufferAllocator.HEAP);
+        for (AbstractClientConnection connection : connectionArray) {
+            connection.send(shared);
+        }
+        shared.release();
+        
+    	for (IPacketOutbound packet : packets) {
+    		for (ServerModule m : modules) {
+    			m.onPostSendAll(packet);
+    		}
+    	}
+    }
+    
+    @Override
+    public PacketBatch batchAll() {
+        return new PacketBatch(this::sendAll);
+    }
+    
     @Override
     public void disconnectAll() {
     	boolean cancel = false;
@@ -227,11 +346,7 @@ public abstract class AbstractServer implements IServer {
     		m.onDisconnectAll();
     	}
     	
-    	Set<UUID> keys = getUUIDKeys();
-        for (UUID uuid : keys) {
-        	AbstractClientConnection connection = connections.get(uuid);
-        	if (connection == null) continue;
-        	
+        for (AbstractClientConnection connection : connectionArray) {
             connection.disconnect();
         }
         
@@ -249,7 +364,7 @@ public abstract class AbstractServer implements IServer {
     	}
         
         try {
-            serverSocket = new ServerSocket(port);
+            serverSocket = openServerSocket();
         } catch (IOException e) {
             throw new NetworkException(e);
         }
@@ -259,10 +374,7 @@ public abstract class AbstractServer implements IServer {
     	}
         
         if (async) {
-            Thread t = new Thread(this::loop);
-            t.setName("Server Loop");
-            t.setDaemon(true);
-            t.start();
+            NetworkThreads.start(threadFactory, "Server Loop", this::loop);
         } else {
             loop();
         }
@@ -309,4 +421,62 @@ public abstract class AbstractServer implements IServer {
     public void setDefaultChannel(Func<? extends IPacketChannel> defaultChannelFunc) {
         this.defaultChannelFunc = defaultChannelFunc;
     }
+    
+    @Override
+    public void setThreadFactory(ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+    }
+    
+    /**
+     * Sets the allocator shared by the buffers of every new connection,
+     * for example a {@link fluff.network.buffer.PooledBufferAllocator}.
+     * 
+     * @param allocator the buffer allocator
+     */
+    public void setBufferAllocator(IBufferAllocator allocator) {
+        this.allocator = allocator;
+    }
+    
+    /**
+     * Enables the write queue of every new connection, so a slow client does not block
+     * the thread sending to it, for example while broadcasting.
+     * 
+     * @param capacity the maximum number of queued packets per connection, or 0 to write synchronously
+     * @param overflowPolicy what to do when a packet is sent while a queue is full
+     * @see AbstractClientConnection#setWriteQueue(int, OverflowPolicy)
+     */
+    public void setWriteQueue(int capacity, OverflowPolicy overflowPolicy) {
+        this.writeQueueCapacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+    }
+    
+    /**
+     * Sets the executor handling the dispatched packets of every new connection.
+     * 
+     * @param dispatchExecutor the dispatch executor, or null for {@link NetworkThreads#dispatcher()}
+     * @see AbstractClientConnection#setDispatchExecutor(Executor)
+     */
+    public void setDispatchExecutor(Executor dispatchExecutor) {
+        this.dispatchExecutor = dispatchExecutor;
+    }
+    
+    /**
+     * Enables or disables the metrics of every new connection, which all record into the specified metrics.
+     * Connect, disconnect and error events of the server are recorded too.
+     * 
+     * @param metrics the metrics to record into, or null to disable metrics
+     * @see AbstractClientConnection#setMetrics(NetworkMetrics)
+     */
+    public void setMetrics(NetworkMetrics metrics) {
+        this.metrics = metrics;
+    }
+    
+    /**
+     * Gets the metrics shared by the connections of this server.
+     * 
+     * @return the metrics, or null if metrics are disabled
+     */
+    public NetworkMetrics getMetrics() {
+        return metrics;
+    }
 }
@@ -1,10 +1,13 @@
 package fluff.network.server;
 
+import java.util.concurrent.ThreadFactory;
+
 import fluff.functions.gen.Func;
 import fluff.network.INetHandler;
 import fluff.network.NetworkException;
 import fluff.network.packet.IPacketChannel;
 import fluff.network.packet.IPacketOutbound;
+import fluff.network.packet.PacketBatch;
 import fluff.network.packet.PacketContext;
 
 /**
@@ -19,6 +22,28 @@ public interface IServer {
      */
     void sendAll(IPacketOutbound packet);
     
+    /**
+     * Sends the packets of the specified batch to all connected clients, in a single frame per client.
+     * 
+     * By default, the packets are sent one by one with {@link #sendAll(IPacketOutbound)}.
+     * 
+     * @param batch the batch to send
+     */
+    default void sendAll(PacketBatch batch) {
+        for (IPacketOutbound packet : batch.getPackets()) {
+            sendAll(packet);
+        }
+    }
+    
+    /**
+     * Opens a batch of packets, sent to all connected clients with {@link #sendAll(PacketBatch)} once committed.
+     * 
+     * @return the new batch
+     */
+    default PacketBatch batchAll() {
+        return new PacketBatch(this::sendAll);
+    }
+    
     /**
      * Disconnects all connected clients.
      */
@@ -59,4 +84,14 @@ public interface IServer {
      * @param defaultChannelFunc a function that creates the default packet channel
      */
     void setDefaultChannel(Func<? extends IPacketChannel> defaultChannelFunc);
+    
+    /**
+     * Sets the thread factory used to create the server loop thread and the receiver threads of new connections.
+     * 
+     * By default, the thread factory is ignored.
+     * 
+     * @param threadFactory the thread factory
+     * @see fluff.network.NetworkThreads
+     */
+    default void setThreadFactory(ThreadFactory threadFactory) {}
 }
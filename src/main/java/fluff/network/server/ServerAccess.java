@@ -1,10 +1,12 @@
 package fluff.network.server;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
 import fluff.network.NetworkException;
+import fluff.network.metrics.NetworkMetrics;
 
 /**
  * Provides internal server access for more functionality.
@@ -32,7 +34,8 @@ public class ServerAccess {
 	}
 	
 	/**
-	 * Used to get r/w access to the server connections.
+	 * Used to get r/w access to the server connections. Broadcasts only see connections
+	 * added and removed through {@link #onConnect(AbstractClientConnection)} and {@link #onDisconnect(AbstractClientConnection)}.
 	 * 
 	 * @return the server connections
 	 */
@@ -49,6 +52,24 @@ public class ServerAccess {
 		return server.port;
 	}
 	
+	/**
+	 * Gets the connected clients without copying them, see {@link AbstractServer#getConnections()}.
+	 * 
+	 * @return the connected clients
+	 */
+	public List<AbstractClientConnection> getConnections() {
+		return server.getConnections();
+	}
+	
+	/**
+	 * Gets the metrics shared by the server connections.
+	 * 
+	 * @return the server metrics, or null if metrics are disabled
+	 */
+	public NetworkMetrics getMetrics() {
+		return server.getMetrics();
+	}
+	
 	/**
 	 * Gets the server uuid keys.
 	 * 
@@ -68,6 +68,21 @@ public abstract class ServerModule {
 	 */
 	public void onPostDisconnect(AbstractClientConnection connection) {}
 	
+	/**
+	 * Called in {@link AbstractServer#onUUIDSet(AbstractClientConnection)}
+	 * 
+	 * @param connection the client connection
+	 */
+	public void onUUIDSet(AbstractClientConnection connection) {}
+	
+	/**
+	 * Called in {@link AbstractServer#onWritabilityChanged(AbstractClientConnection, boolean)}
+	 * 
+	 * @param connection the client connection
+	 * @param writable the new writability
+	 */
+	public void onWritabilityChanged(AbstractClientConnection connection, boolean writable) {}
+	
 	/**
 	 * Called in {@link AbstractServer#loop()}
 	 * 
@@ -0,0 +1,293 @@
+package fluff.network.server.modules;
+
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import fluff.network.HashedWheelTimer;
+import fluff.network.NetworkThreads;
+import fluff.network.client.OverflowPolicy;
+import fluff.network.client.WriteQueue;
+import fluff.network.server.AbstractClientConnection;
+import fluff.network.server.ServerModule;
+
+/**
+ * Represents a server module that detects slow consumers from the write queue of every connection.
+ * A connection becomes unwritable once its pending bytes reach the high watermark, and writable again once
+ * they drop to the low watermark. Connections which stay unwritable for too long are throttled, by pausing
+ * reads until they are writable again, or disconnected. Connections without a configured write queue
+ * get an unbounded one, so their pending bytes can be tracked.
+ * <p>
+ * Every unwritable connection has a single task scheduled on the timer, which is cancelled once the connection
+ * is writable again or disconnected. The action is taken on the dispatch executor of the connection.
+ */
+public class BackpressureModule extends ServerModule {
+    
+    public static final long DEFAULT_LOW_WATERMARK = 32 * 1024;
+    public static final long DEFAULT_HIGH_WATERMARK = 64 * 1024;
+    public static final long DEFAULT_MAX_UNWRITABLE_TIME = 5000;
+    
+    protected final Map<AbstractClientConnection, SlowConnection> unwritable = new ConcurrentHashMap<>();
+    
+    protected final long lowWatermark;
+    protected final long highWatermark;
+    protected final long maxUnwritableTime;
+    protected final Action action;
+    protected final HashedWheelTimer timer;
+    
+    /**
+     * Constructs a new backpressure module.
+     *
+     * @param lowWatermark the pending bytes at or below which a connection becomes writable again
+     * @param highWatermark the pending bytes at or above which a connection becomes unwritable
+     * @param maxUnwritableTime the time a connection may stay unwritable before the action is taken
+     * @param action the action taken on connections which stay unwritable for too long
+     * @param timer the timer running the unwritable time checks
+     */
+    public BackpressureModule(long lowWatermark, long highWatermark, long maxUnwritableTime, Action action, HashedWheelTimer timer) {
+        if (lowWatermark < 0 || highWatermark <= lowWatermark) throw new IllegalArgumentException("Invalid watermarks!");
+        
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+        this.maxUnwritableTime = maxUnwritableTime;
+        this.action = action;
+        this.timer = timer;
+    }
+    
+    /**
+     * Constructs a new backpressure module running on the shared {@link NetworkThreads#timer()}.
+     *
+     * @param lowWatermark the pending bytes at or below which a connection becomes writable again
+     * @param highWatermark the pending bytes at or above which a connection becomes unwritable
+     * @param maxUnwritableTime the time a connection may stay unwritable before the action is taken
+     * @param action the action taken on connections which stay unwritable for too long
+     */
+    public BackpressureModule(long lowWatermark, long highWatermark, long maxUnwritableTime, Action action) {
+        this(lowWatermark, highWatermark, maxUnwritableTime, action, NetworkThreads.timer());
+    }
+    
+    /**
+     * Constructs a new backpressure module with default watermarks and delays.
+     *
+     * @param action the action taken on connections which stay unwritable for too long
+     */
+    public BackpressureModule(Action action) {
+        this(DEFAULT_LOW_WATERMARK, DEFAULT_HIGH_WATERMARK, DEFAULT_MAX_UNWRITABLE_TIME, action);
+    }
+    
+    /**
+     * Constructs a new backpressure module which throttles slow consumers, with default watermarks and delays.
+     */
+    public BackpressureModule() {
+        this(Action.THROTTLE);
+    }
+    
+    /**
+     * Called on the dispatch executor of an unwritable client once it has been unwritable for too long.
+     * Does nothing if the client is writable again or disconnected.
+     *
+     * @param sc the unwritable client
+     */
+    protected void check(SlowConnection sc) {
+        AbstractClientConnection connection = sc.connection;
+        if (unwritable.get(connection) != sc) return;
+        if (!connection.isConnected()) {
+            unwritable.remove(connection, sc);
+            return;
+        }
+        
+        sc.handled = true;
+        switch (action) {
+            case THROTTLE:
+                throttle(connection);
+                if (unwritable.get(connection) != sc) resume(connection); // became writable while throttling
+                break;
+            case DISCONNECT:
+                unwritable.remove(connection, sc);
+                disconnect(connection);
+                break;
+        }
+    }
+    
+    /**
+     * Throttles the client by pausing reads until it is writable again.
+     *
+     * @param connection the client connection
+     */
+    protected void throttle(AbstractClientConnection connection) {
+        if (connection instanceof BackpressureListener listener) {
+            listener.onConnectionThrottled();
+        } else {
+            connection.setReadPaused(true);
+        }
+    }
+    
+    /**
+     * Resumes reading from a throttled client.
+     *
+     * @param connection the client connection
+     */
+    protected void resume(AbstractClientConnection connection) {
+        if (connection instanceof BackpressureListener listener) {
+            listener.onConnectionResumed();
+        } else {
+            connection.setReadPaused(false);
+        }
+    }
+    
+    /**
+     * Disconnects the client from the server.
+     *
+     * @param connection the client connection
+     */
+    protected void disconnect(AbstractClientConnection connection) {
+        if (connection instanceof BackpressureListener listener) {
+            listener.onSlowConsumer();
+        } else {
+            connection.disconnect();
+        }
+    }
+    
+    @Override
+    public void onOpenConnection(Socket socket, AbstractClientConnection connection) {
+        if (connection.getWriteQueueCapacity() == 0) connection.setWriteQueue(WriteQueue.UNBOUNDED, OverflowPolicy.BLOCK);
+        connection.setWriteWatermarks(lowWatermark, highWatermark);
+    }
+    
+    @Override
+    public void onWritabilityChanged(AbstractClientConnection connection, boolean writable) {
+        if (!writable) {
+            SlowConnection sc = new SlowConnection(connection, System.nanoTime());
+            if (unwritable.putIfAbsent(connection, sc) == null) {
+                sc.timeout = timer.schedule(() -> connection.getDispatchExecutor().execute(() -> check(sc)), maxUnwritableTime, TimeUnit.MILLISECONDS);
+            }
+            return;
+        }
+        
+        SlowConnection sc = unwritable.remove(connection);
+        if (sc == null) return;
+        
+        sc.cancel();
+        if (sc.handled && action == Action.THROTTLE) resume(connection);
+    }
+    
+    @Override
+    public void onPreDisconnect(AbstractClientConnection connection) {
+        SlowConnection sc = unwritable.remove(connection);
+        if (sc != null) sc.cancel();
+    }
+    
+    /**
+     * Checks if the client has been throttled and is still unwritable.
+     *
+     * @param connection the client connection
+     * @return true if the client is throttled, false otherwise
+     */
+    public boolean isThrottled(AbstractClientConnection connection) {
+        SlowConnection sc = unwritable.get(connection);
+        return sc != null && sc.handled && action == Action.THROTTLE;
+    }
+    
+    /**
+     * Gets for how long the client has been unwritable.
+     *
+     * @param connection the client connection
+     * @return the unwritable time in milliseconds, or 0 if the client is writable
+     */
+    public long getUnwritableTime(AbstractClientConnection connection) {
+        SlowConnection sc = unwritable.get(connection);
+        return sc == null ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sc.unwritableTime);
+    }
+    
+    /**
+     * Gets the number of clients which are currently unwritable.
+     *
+     * @return the unwritable client count
+     */
+    public int getUnwritableCount() {
+        return unwritable.size();
+    }
+    
+    /**
+     * Gets the bytes waiting to be written to every client.
+     *
+     * @return the total pending bytes
+     */
+    public long getTotalPendingBytes() {
+        long total = 0;
+        for (AbstractClientConnection connection : access.getConnections()) {
+            WriteQueue queue = connection.getWriteQueue();
+            if (queue != null) total += queue.getPendingBytes();
+        }
+        return total;
+    }
+    
+    /**
+     * Enum representing the action taken on clients which stay unwritable for too long.
+     */
+    public static enum Action {
+        
+        /**
+         * Reading from the client is paused until it is writable again.
+         */
+        THROTTLE,
+        
+        /**
+         * The client is disconnected.
+         */
+        DISCONNECT;
+    }
+    
+    /**
+     * Represents an unwritable connection.
+     */
+    public static class SlowConnection {
+        
+        public final AbstractClientConnection connection;
+        public final long unwritableTime;
+        public volatile boolean handled;
+        
+        private volatile HashedWheelTimer.Timeout timeout;
+        
+        /**
+         * Constructs a new unwritable connection.
+         *
+         * @param connection the client connection
+         * @param unwritableTime the {@link System#nanoTime()} at which the connection became unwritable
+         */
+        public SlowConnection(AbstractClientConnection connection, long unwritableTime) {
+            this.connection = connection;
+            this.unwritableTime = unwritableTime;
+        }
+        
+        /**
+         * Cancels the check of the connection.
+         */
+        public void cancel() {
+            HashedWheelTimer.Timeout timeout = this.timeout;
+            if (timeout != null) timeout.cancel();
+        }
+    }
+    
+    /**
+     * Represents a backpressure listener.
+     */
+    public static interface BackpressureListener {
+        
+        /**
+         * Called instead of pausing reads when the connection stayed unwritable for too long.
+         */
+        void onConnectionThrottled();
+        
+        /**
+         * Called instead of resuming reads when a throttled connection is writable again.
+         */
+        void onConnectionResumed();
+        
+        /**
+         * Called instead of disconnecting the connection when it stayed unwritable for too long.
+         */
+        void onSlowConsumer();
+    }
+}
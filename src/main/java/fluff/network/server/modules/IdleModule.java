@@ -0,0 +1,92 @@
+package fluff.network.server.modules;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import fluff.network.HashedWheelTimer;
+import fluff.network.NetworkThreads;
+import fluff.network.client.IdleMonitor;
+import fluff.network.server.AbstractClientConnection;
+import fluff.network.server.ServerModule;
+
+/**
+ * Represents a server module that sends keepalive frames to idle connections, and disconnects connections
+ * which received nothing for too long. Every connection is watched by an {@link IdleMonitor} from the moment
+ * it is opened, and all of them share a single timer instead of a thread per connection.
+ * <p>
+ * Clients answer keepalive frames without any handler, so only one side needs to send them. Clients can
+ * also watch their own connection with an {@link IdleMonitor}.
+ */
+public class IdleModule extends ServerModule {
+    
+    public static final long DEFAULT_READ_IDLE_TIMEOUT = 60000;
+    public static final long DEFAULT_KEEPALIVE_INTERVAL = 20000;
+    
+    protected final Map<AbstractClientConnection, IdleMonitor> monitors = new ConcurrentHashMap<>();
+    
+    protected final long readIdleTimeout;
+    protected final long keepaliveInterval;
+    protected final HashedWheelTimer timer;
+    
+    /**
+     * Constructs a new idle module.
+     *
+     * @param readIdleTimeout the time in milliseconds without receiving anything before disconnecting a connection, or 0 to never disconnect it
+     * @param keepaliveInterval the time in milliseconds without sending anything before sending a keepalive frame, or 0 to never send one
+     * @param timer the timer running the checks
+     */
+    public IdleModule(long readIdleTimeout, long keepaliveInterval, HashedWheelTimer timer) {
+        this.readIdleTimeout = readIdleTimeout;
+        this.keepaliveInterval = keepaliveInterval;
+        this.timer = timer;
+    }
+    
+    /**
+     * Constructs a new idle module running on the shared {@link NetworkThreads#timer()}.
+     *
+     * @param readIdleTimeout the time in milliseconds without receiving anything before disconnecting a connection, or 0 to never disconnect it
+     * @param keepaliveInterval the time in milliseconds without sending anything before sending a keepalive frame, or 0 to never send one
+     */
+    public IdleModule(long readIdleTimeout, long keepaliveInterval) {
+        this(readIdleTimeout, keepaliveInterval, NetworkThreads.timer());
+    }
+    
+    /**
+     * Constructs a new idle module with default delays.
+     */
+    public IdleModule() {
+        this(DEFAULT_READ_IDLE_TIMEOUT, DEFAULT_KEEPALIVE_INTERVAL);
+    }
+    
+    /**
+     * Gets the number of watched connections.
+     *
+     * @return the watched connection count
+     */
+    public int getMonitoredCount() {
+        return monitors.size();
+    }
+    
+    @Override
+    public void onPostOpenConnection(AbstractClientConnection connection) {
+        IdleMonitor monitor = new IdleMonitor(connection, readIdleTimeout, keepaliveInterval, timer);
+        monitors.put(connection, monitor);
+        monitor.start();
+        
+        if (!connection.isConnected()) onPreDisconnect(connection); // closed while opening
+    }
+    
+    @Override
+    public void onPreDisconnect(AbstractClientConnection connection) {
+        IdleMonitor monitor = monitors.remove(connection);
+        if (monitor != null) monitor.stop();
+    }
+    
+    @Override
+    public void onStop() {
+        for (IdleMonitor monitor : monitors.values()) {
+            monitor.stop();
+        }
+        monitors.clear();
+    }
+}
@@ -1,45 +1,63 @@
 package fluff.network.server.modules;
 
-import java.net.ServerSocket;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
+import fluff.network.HashedWheelTimer;
 import fluff.network.NetworkException;
+import fluff.network.NetworkThreads;
 import fluff.network.server.AbstractClientConnection;
 import fluff.network.server.ServerModule;
 
 /**
- * Represents a server module that adds unregistered clients to a queue and wait for their registration.
+ * Represents a server module that holds unregistered clients and waits for their registration.
+ * A client is connected as soon as a packet handler sets its UUID, see {@link AbstractClientConnection#awaitUUID()},
+ * or when {@link #establish(AbstractClientConnection)} is called. Every pending client also has a single deadline task
+ * scheduled on the shared {@link NetworkThreads#timer()}, which disconnects the client if it has no UUID by then.
+ * Clients are connected and disconnected on their dispatch executor, so a slow socket never delays the timer.
  */
 public class TimeoutModule extends ServerModule {
 	
 	public static final long DEFAULT_TIMEOUT_DELAY = 3000;
-	public static final long DEFAULT_SLEEP_DELAY = 500;
 	
-	protected final Queue<TimeoutConnection> pending = new LinkedList<>();
+	protected final Map<AbstractClientConnection, TimeoutConnection> pending = new ConcurrentHashMap<>();
 	
     protected final long timeoutDelay;
-    protected final long sleepDelay;
+    protected final HashedWheelTimer timer;
+    
+    /**
+     * Constructs a new timeout module with the specified timeout delay and timer.
+     * 
+     * @param timeoutDelay the timeout delay in milliseconds before disconnecting the client
+     * @param timer the timer running the deadline tasks
+     */
+    public TimeoutModule(long timeoutDelay, HashedWheelTimer timer) {
+        this.timeoutDelay = timeoutDelay;
+        this.timer = timer;
+    }
     
     /**
      * Constructs a new timeout module with the specified timeout delay and sleep delay.
      * 
-     * @param timeoutDelay the timeout delay before disconnecting the client
-     * @param sleepDelay the sleep delay between checks
+     * @param timeoutDelay the timeout delay in milliseconds before disconnecting the client
+     * @param sleepDelay ignored, pending clients are not polled anymore
+     * @deprecated pending clients are connected when their UUID is set and checked once at their deadline,
+     *             use {@link #TimeoutModule(long)} instead
      */
+    @Deprecated
     public TimeoutModule(long timeoutDelay, long sleepDelay) {
-        this.timeoutDelay = timeoutDelay;
-        this.sleepDelay = sleepDelay;
+        this(timeoutDelay);
     }
     
     /**
      * Constructs a new timeout module with the specified timeout delay.
      * 
-     * @param timeoutDelay the timeout delay before disconnecting the client
+     * @param timeoutDelay the timeout delay in milliseconds before disconnecting the client
      */
     public TimeoutModule(long timeoutDelay) {
-        this(timeoutDelay, DEFAULT_SLEEP_DELAY);
+        this(timeoutDelay, NetworkThreads.timer());
     }
     
     /**
@@ -50,37 +68,59 @@ public class TimeoutModule extends ServerModule {
 	}
 	
     /**
-     * The timeout loop that waits for client UUIDs.
+     * Called on the dispatch executor of a pending client once its deadline is reached. The client is connected
+     * if it has a UUID by then, and disconnected otherwise. Does nothing if the client is not pending anymore.
+     * 
+     * @param tc the pending client
      */
-    protected void loop() {
-    	while (server.isRunning()) {
-    		TimeoutConnection tc = pending.peek();
-    		
-    		if (tc == null || (tc.connection.isConnected() && tc.connection.getUUID() == null && System.currentTimeMillis() < tc.connectionTime + timeoutDelay)) {
-        		try {
-    				Thread.sleep(sleepDelay);
-    			} catch (InterruptedException e) {}
-        		continue;
-    		}
-    		
-    		synchronized (pending) {
-    			pending.poll();
-			}
-    		
-    		AbstractClientConnection connection = tc.connection;
-			if (!connection.isConnected()) continue;
-    		
-    		if (connection.getUUID() != null) {
-        		try {
-        			connect(connection);
-        			continue;
-        		} catch (NetworkException e) {}
-    		}
-    		
+    protected void check(TimeoutConnection tc) {
+    	AbstractClientConnection connection = tc.connection;
+    	if (!pending.remove(connection, tc) || !connection.isConnected()) return;
+    	
+    	if (connection.getUUID() != null) {
+    		try {
+    			connect(connection);
+    			return;
+    		} catch (NetworkException e) {}
+    	}
+    	
+    	disconnect(connection);
+    }
+    
+    /**
+     * Connects a pending client right away, without waiting for its deadline. Called once the client UUID is set,
+     * and may be called by handlers setting it. Does nothing if the client is not pending.
+     * 
+     * @param connection the client connection
+     */
+    public void establish(AbstractClientConnection connection) {
+    	TimeoutConnection tc = pending.remove(connection);
+    	if (tc == null) return;
+    	
+    	tc.cancel();
+    	try {
+    		connect(connection);
+    	} catch (NetworkException e) {
     		disconnect(connection);
     	}
     }
     
+    /**
+     * Gets the number of clients waiting for their registration.
+     * 
+     * @return the pending client count
+     */
+    public int getPendingCount() {
+    	return pending.size();
+    }
+    
+    private void schedule(TimeoutConnection tc) {
+    	synchronized (tc) {
+    		if (tc.cancelled) return;
+    		tc.timeout = timer.schedule(() -> tc.connection.getDispatchExecutor().execute(() -> check(tc)), timeoutDelay, TimeUnit.MILLISECONDS);
+    	}
+    }
+    
     /**
      * Connects the client to the server.
      * 
@@ -110,34 +150,39 @@ public class TimeoutModule extends ServerModule {
 		}
 	}
     
-    @Override
-    public void onStart(ServerSocket serverSocket, boolean async) {
-        Thread t = new Thread(this::loop);
-        t.setName("Timeout Loop");
-        t.setDaemon(true);
-        t.start();
-    }
-    
     @Override
     public boolean onPreConnect(AbstractClientConnection connection) throws NetworkException {
     	UUID uuid = connection.getUUID();
     	if (uuid == null) {
-    		synchronized (pending) {
-    			pending.offer(new TimeoutConnection(connection, System.currentTimeMillis()));
-			}
+    		TimeoutConnection tc = new TimeoutConnection(connection, System.currentTimeMillis());
+    		pending.put(connection, tc);
+    		connection.awaitUUID();
+    		schedule(tc);
+    		
+    		if (connection.getUUID() != null) onUUIDSet(connection);
     		return true;
     	}
     	return false;
     }
     
+    @Override
+    public void onUUIDSet(AbstractClientConnection connection) {
+    	if (pending.containsKey(connection)) connection.getDispatchExecutor().execute(() -> establish(connection));
+    }
+    
+    @Override
+    public void onPreDisconnect(AbstractClientConnection connection) {
+    	TimeoutConnection tc = pending.remove(connection);
+    	if (tc != null) tc.cancel();
+    }
+    
     @Override
     public void onDisconnectAll() {
-        for (TimeoutConnection tc : pending) {
+        for (TimeoutConnection tc : pending.values()) {
+        	tc.cancel();
         	tc.connection.disconnect();
         }
-        synchronized (pending) {
-        	pending.clear();
-		}
+        pending.clear();
     }
     
     /**
@@ -148,10 +193,27 @@ public class TimeoutModule extends ServerModule {
     	public final AbstractClientConnection connection;
     	public final long connectionTime;
     	
+    	private HashedWheelTimer.Timeout timeout;
+    	private boolean cancelled;
+    	
+    	/**
+    	 * Constructs a new timeout connection.
+    	 * 
+    	 * @param connection the client connection
+    	 * @param connectionTime the wall clock time of the connection, in milliseconds
+    	 */
     	public TimeoutConnection(AbstractClientConnection connection, long connectionTime) {
     		this.connection = connection;
     		this.connectionTime = connectionTime;
     	}
+    	
+    	/**
+    	 * Cancels the deadline task of the client.
+    	 */
+    	public synchronized void cancel() {
+    		cancelled = true;
+    		if (timeout != null) timeout.cancel();
+    	}
     }
     
     /**
@@ -0,0 +1,357 @@
+package fluff.network.server.nio;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import fluff.network.NetworkException;
+import fluff.network.client.ClientErrorType;
+import fluff.network.client.StreamScheduler;
+import fluff.network.client.WriteQueue;
+import fluff.network.server.AbstractClientConnection;
+
+/**
+ * An abstract implementation of a client connection served by a {@link NIOEventLoop}
+ * instead of a dedicated receiver thread. Outbound frames always go through a {@link WriteQueue},
+ * which the event loop drains with gathering writes. The queue is unbounded unless configured otherwise,
+ * and the event loop never waits for room in it.
+ */
+public abstract class AbstractNIOClientConnection extends AbstractClientConnection {
+    
+    public static final int MAX_GATHERED_FRAMES = 64;
+    public static final int MAX_READS_PER_EVENT = 16;
+    
+    protected final AbstractNIOServer nioServer;
+    protected final AtomicBoolean writeScheduled = new AtomicBoolean();
+    
+    /**
+     * The frames removed from the write queue but not completely written yet. Only accessed by the event loop.
+     */
+    protected final WriteQueue.Entry[] inFlight = new WriteQueue.Entry[MAX_GATHERED_FRAMES];
+    protected final ByteBuffer[] gathered = new ByteBuffer[MAX_GATHERED_FRAMES];
+    protected int inFlightCount;
+    
+    protected SocketChannel socketChannel;
+    protected NIOEventLoop eventLoop;
+    protected SelectionKey key;
+    
+    /**
+     * The bytes of a partially received frame, or null if the last read ended on a frame boundary.
+     */
+    protected ByteBuffer cumulation;
+    
+    /**
+     * Constructs a new client connection with the specified server.
+     *
+     * @param server the server to which this client connection belongs
+     */
+    public AbstractNIOClientConnection(AbstractNIOServer server) {
+        super(server);
+        
+        this.nioServer = server;
+    }
+    
+    @Override
+    protected void openConnection(Socket socket) throws IOException, NetworkException {
+        if (isConnected()) throw new NetworkException("Client already has a connection!");
+        checkOverflowPolicy();
+        
+        SocketChannel socketChannel = socket.getChannel();
+        if (socketChannel == null) throw new NetworkException("Socket has no channel!");
+        socketChannel.configureBlocking(false);
+        
+        this.socket = socket;
+        this.socketChannel = socketChannel;
+        this.eventLoop = nioServer.nextEventLoop();
+        this.writeQueue = createWriteQueue(writeQueueCapacity > 0 ? writeQueueCapacity : WriteQueue.UNBOUNDED);
+        this.streams = new StreamScheduler();
+        this.lastReadTime = this.lastWriteTime = System.nanoTime();
+        requests.open();
+        
+        eventLoop.register(this, socketChannel);
+        
+        onConnect();
+    }
+    
+    @Override
+    protected void closeConnection() {
+        if (!isConnected()) return;
+        
+        onDisconnect();
+        
+        try {
+            socket.close();
+        } catch (IOException e) {}
+        
+        if (key != null) key.cancel();
+        
+        releaseBuffers();
+    }
+    
+    @Override
+    protected void releaseBuffers() {
+        super.releaseBuffers();
+        
+        if (eventLoop.inEventLoop()) {
+            releaseEventLoopBuffers();
+        } else {
+            eventLoop.execute(this, this::releaseEventLoopBuffers);
+        }
+    }
+    
+    /**
+     * Gives the frames being written and the cumulation buffer back to the allocator. Must be called on the event loop.
+     */
+    protected void releaseEventLoopBuffers() {
+        for (int i = 0; i < inFlightCount; i++) {
+            writeQueue.complete(inFlight[i]);
+            inFlight[i] = null;
+            gathered[i] = null;
+        }
+        inFlightCount = 0;
+        releaseCumulation();
+        releaseInboundStreams();
+    }
+    
+    /**
+     * Gives the cumulation buffer back to the allocator. Must be called on the event loop.
+     */
+    protected void releaseCumulation() {
+        if (cumulation == null) return;
+        
+        allocator.release(cumulation);
+        cumulation = null;
+    }
+    
+    @Override
+    protected void writeFrame(ByteBuffer frame, boolean droppable) throws SocketException, IOException {
+        if (eventLoop.inEventLoop() && inFlightCount == 0 && writeQueue.isEmpty()) {
+            int position = frame.position();
+            socketChannel.write(frame);
+            if (!frame.hasRemaining()) return;
+            
+            // the rest of a partially written frame can not be dropped
+            if (frame.position() != position) droppable = false;
+        }
+        
+        queueFrame(frame, true, droppable);
+    }
+    
+    @Override
+    protected void writeSharedFrame(ByteBuffer frame) throws SocketException, IOException {
+        queueFrame(frame, false, true);
+    }
+    
+    @Override
+    protected boolean canBlock() {
+        return !eventLoop.inEventLoop();
+    }
+    
+    /**
+     * Schedules a write on the event loop.
+     */
+    @Override
+    protected void onFrameQueued() {
+        if (eventLoop.inEventLoop()) {
+            updateInterest();
+        } else if (writeScheduled.compareAndSet(false, true)) {
+            eventLoop.execute(this, this::handleWritable);
+        }
+    }
+    
+    /**
+     * Schedules a write on the event loop, which sends the stream chunks once the write queue is empty.
+     */
+    @Override
+    protected void onStreamQueued() {
+        onFrameQueued();
+    }
+    
+    /**
+     * Updates the selection key interest based on the pending outbound frames and whether reading is paused. Must be called on the event loop.
+     */
+    protected void updateInterest() {
+        if (key == null || !key.isValid()) return;
+        
+        int ops = readPaused ? 0 : SelectionKey.OP_READ;
+        if (inFlightCount > 0 || !writeQueue.isEmpty() || !streams.isEmpty()) ops |= SelectionKey.OP_WRITE;
+        try {
+            key.interestOps(ops);
+        } catch (CancelledKeyException e) {}
+    }
+    
+    @Override
+    public void setReadPaused(boolean paused) {
+        super.setReadPaused(paused);
+        
+        if (eventLoop == null) return;
+        if (eventLoop.inEventLoop()) {
+            updateInterest();
+        } else {
+            eventLoop.execute(this, this::updateInterest);
+        }
+    }
+    
+    /**
+     * Called when handling this connection on the event loop throws, for example in a packet handler
+     * or a channel. The error is reported and this connection is closed, while the event loop keeps
+     * serving the other connections.
+     *
+     * @param e the exception
+     */
+    protected void onEventLoopError(RuntimeException e) {
+        onError(ClientErrorType.CONNECTION, e);
+        
+        if (isConnected()) disconnect();
+    }
+    
+    /**
+     * Reads the available bytes and handles every complete packet, with at most {@link #MAX_READS_PER_EVENT} reads
+     * so a fast sender can not starve the other connections of the event loop. OP_READ stays set, so the rest
+     * is read on the next select. Called on the event loop.
+     *
+     * @param readBuffer the event loop read buffer
+     */
+    protected void handleReadable(ByteBuffer readBuffer) {
+        for (int reads = 0; reads < MAX_READS_PER_EVENT && isConnected() && !readPaused; reads++) {
+            int n;
+            try {
+                n = socketChannel.read(readBuffer.clear());
+            } catch (IOException e) {
+                onError(ClientErrorType.CONNECTION, e);
+                return;
+            }
+            if (n == -1) {
+                disconnect();
+                return;
+            }
+            if (n == 0) return;
+            
+            readBuffer.flip();
+            
+            ByteBuffer input = readBuffer;
+            if (cumulation != null) {
+                cumulate(readBuffer);
+                input = cumulation;
+            }
+            
+            handleFrames(input);
+            if (isConnected() && input.remaining() > getMaxReceiveCapacity()) {
+                onError(ClientErrorType.READ, new NetworkException("Frame exceeds the maximum size of " + maxFrameSize + " bytes!"));
+            }
+            
+            if (!isConnected() || !input.hasRemaining()) {
+                releaseCumulation();
+            } else if (input == readBuffer) {
+                cumulation = allocator.allocate(Math.max(input.remaining() * 2, DEFAULT_BUFFER_SIZE));
+                cumulation.put(input).flip();
+            }
+        }
+    }
+    
+    /**
+     * Appends the read bytes to the partially received frame.
+     *
+     * @param readBuffer the read bytes
+     */
+    protected void cumulate(ByteBuffer readBuffer) {
+        if (cumulation.capacity() - cumulation.remaining() < readBuffer.remaining()) {
+            ByteBuffer grown = allocator.allocate(Math.max(cumulation.capacity() * 2, cumulation.remaining() + readBuffer.remaining()));
+            grown.put(cumulation);
+            allocator.release(cumulation);
+            cumulation = grown;
+        } else {
+            cumulation.compact();
+        }
+        cumulation.put(readBuffer).flip();
+    }
+    
+    /**
+     * Decodes and handles every complete frame of the input. Called on the event loop.
+     *
+     * @param input the received bytes
+     */
+    protected void handleFrames(ByteBuffer input) {
+        while (isConnected()) {
+            ByteBuffer payload;
+            try {
+                payload = decodeFrame(input);
+                if (payload == null) return;
+            } catch (IOException | NetworkException e) {
+                onError(ClientErrorType.READ, e);
+                return;
+            }
+            
+            try {
+                handleReceive(payload);
+            } catch (SocketException e) {
+                onError(ClientErrorType.CONNECTION, e);
+            } catch (IOException | NetworkException e) {
+                onError(ClientErrorType.READ, e);
+            }
+        }
+    }
+    
+    /**
+     * Writes as many pending frames as the socket accepts, gathering up to {@link #MAX_GATHERED_FRAMES}
+     * frames per write. Once the write queue is empty, up to {@link #MAX_GATHERED_FRAMES} stream chunks
+     * are written, one at a time so frames queued meanwhile go first. Called on the event loop.
+     */
+    protected void handleWritable() {
+        writeScheduled.set(false);
+        if (!isConnected()) return;
+        
+        int chunks = 0;
+        try {
+            while (true) {
+                int drained = writeQueue.drainTo(inFlight, inFlightCount, MAX_GATHERED_FRAMES - inFlightCount);
+                for (int i = inFlightCount; i < inFlightCount + drained; i++) {
+                    gathered[i] = inFlight[i].buffer;
+                }
+                inFlightCount += drained;
+                if (inFlightCount == 0) {
+                    if (chunks++ < MAX_GATHERED_FRAMES && writeNextChunk(true)) continue;
+                    break;
+                }
+                
+                socketChannel.write(gathered, 0, inFlightCount);
+                
+                int written = 0;
+                while (written < inFlightCount && !gathered[written].hasRemaining()) {
+                    writeQueue.complete(inFlight[written]);
+                    written++;
+                }
+                if (written > 0) {
+                    int remaining = inFlightCount - written;
+                    System.arraycopy(inFlight, written, inFlight, 0, remaining);
+                    System.arraycopy(gathered, written, gathered, 0, remaining);
+                    for (int i = remaining; i < inFlightCount; i++) {
+                        inFlight[i] = null;
+                        gathered[i] = null;
+                    }
+                    inFlightCount = remaining;
+                }
+                if (inFlightCount > 0) break;
+            }
+        } catch (IOException e) {
+            onError(ClientErrorType.CONNECTION, e);
+            return;
+        }
+        
+        updateInterest();
+    }
+    
+    /**
+     * Gets the event loop serving this connection.
+     *
+     * @return the event loop
+     */
+    public NIOEventLoop getEventLoop() {
+        return eventLoop;
+    }
+}
@@ -0,0 +1,98 @@
+package fluff.network.server.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
+
+import fluff.network.server.AbstractServer;
+
+/**
+ * An abstract server which multiplexes all of its client connections over a small pool of {@link NIOEventLoop}s,
+ * instead of spawning a receiver thread per connection. Connections are still accepted by the server loop,
+ * so every {@link fluff.network.server.ServerModule} hook runs in the same order as in {@link AbstractServer}.
+ */
+public abstract class AbstractNIOServer extends AbstractServer {
+    
+    public static final int DEFAULT_EVENT_LOOPS = Runtime.getRuntime().availableProcessors();
+    
+    protected final int eventLoopCount;
+    
+    protected ServerSocketChannel serverChannel;
+    protected NIOEventLoop[] eventLoops;
+    private int nextEventLoop;
+    
+    /**
+     * Constructs a new server with the specified port and number of event loops.
+     *
+     * @param port the port on which the server will listen for connections
+     * @param eventLoopCount the number of event loop threads
+     */
+    public AbstractNIOServer(int port, int eventLoopCount) {
+        super(port);
+        
+        if (eventLoopCount <= 0) throw new IllegalArgumentException("Event loop count must be positive!");
+        
+        this.eventLoopCount = eventLoopCount;
+    }
+    
+    /**
+     * Constructs a new server with the specified port and one event loop per available processor.
+     *
+     * @param port the port on which the server will listen for connections
+     */
+    public AbstractNIOServer(int port) {
+        this(port, DEFAULT_EVENT_LOOPS);
+    }
+    
+    @Override
+    protected abstract AbstractNIOClientConnection createConnection();
+    
+    @Override
+    protected ServerSocket openServerSocket() throws IOException {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        NIOEventLoop[] eventLoops = new NIOEventLoop[eventLoopCount];
+        try {
+            serverChannel.bind(new InetSocketAddress(port));
+            
+            for (int i = 0; i < eventLoops.length; i++) {
+                eventLoops[i] = new NIOEventLoop(access, "NIO Event Loop #" + i);
+                eventLoops[i].start();
+            }
+        } catch (IOException e) {
+            for (NIOEventLoop eventLoop : eventLoops) {
+                if (eventLoop != null) eventLoop.stop();
+            }
+            serverChannel.close();
+            throw e;
+        }
+        
+        this.serverChannel = serverChannel;
+        this.eventLoops = eventLoops;
+        return serverChannel.socket();
+    }
+    
+    /**
+     * Picks the event loop which will serve the next connection.
+     *
+     * @return the event loop
+     */
+    protected NIOEventLoop nextEventLoop() {
+        synchronized (this) {
+            NIOEventLoop eventLoop = eventLoops[nextEventLoop];
+            nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
+            return eventLoop;
+        }
+    }
+    
+    @Override
+    public void stop() {
+        if (!isRunning()) return;
+        
+        super.stop();
+        
+        for (NIOEventLoop eventLoop : eventLoops) {
+            eventLoop.stop();
+        }
+    }
+}
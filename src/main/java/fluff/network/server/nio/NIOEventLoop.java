@@ -0,0 +1,196 @@
+package fluff.network.server.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import fluff.network.server.ServerAccess;
+
+/**
+ * A single selector thread that multiplexes reads and writes for many {@link AbstractNIOClientConnection}s.
+ */
+public class NIOEventLoop implements Runnable {
+    
+    public static final int DEFAULT_READ_BUFFER_SIZE = 64 * 1024;
+    
+    protected final ServerAccess access;
+    protected final String name;
+    protected final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    protected final ByteBuffer readBuffer = ByteBuffer.allocate(DEFAULT_READ_BUFFER_SIZE);
+    
+    protected Selector selector;
+    protected Thread thread;
+    protected volatile boolean running;
+    
+    /**
+     * Constructs a new event loop for the specified server.
+     *
+     * @param access the access to the server owning this event loop
+     * @param name the name of the event loop thread
+     */
+    public NIOEventLoop(ServerAccess access, String name) {
+        this.access = access;
+        this.name = name;
+    }
+    
+    /**
+     * Opens the selector and starts the event loop thread.
+     *
+     * @throws IOException if the selector could not be opened
+     */
+    public void start() throws IOException {
+        selector = Selector.open();
+        running = true;
+        
+        thread = new Thread(this);
+        thread.setName(name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    /**
+     * Stops the event loop and closes the selector.
+     */
+    public void stop() {
+        running = false;
+        
+        if (selector != null) selector.wakeup();
+    }
+    
+    /**
+     * Queues a task to be run on the event loop thread.
+     *
+     * @param task the task
+     */
+    public void execute(Runnable task) {
+        tasks.offer(task);
+        selector.wakeup();
+    }
+    
+    /**
+     * Queues a task of a connection to be run on the event loop thread. If the task fails,
+     * only that connection is closed.
+     *
+     * @param connection the connection owning the task
+     * @param task the task
+     */
+    public void execute(AbstractNIOClientConnection connection, Runnable task) {
+        execute(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                fail(connection, e);
+            }
+        });
+    }
+    
+    /**
+     * Checks if the current thread is this event loop's thread.
+     *
+     * @return true if called from the event loop thread, false otherwise
+     */
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+    
+    /**
+     * Registers the connection's socket channel with this event loop.
+     *
+     * @param connection the client connection
+     * @param socketChannel the non-blocking socket channel
+     */
+    protected void register(AbstractNIOClientConnection connection, SocketChannel socketChannel) {
+        execute(connection, () -> {
+            try {
+                connection.key = socketChannel.register(selector, SelectionKey.OP_READ, connection);
+                connection.updateInterest();
+            } catch (ClosedChannelException e) {
+                connection.disconnect();
+            }
+        });
+    }
+    
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                access.onError(e);
+                continue;
+            }
+            
+            runTasks();
+            
+            Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+            while (it.hasNext()) {
+                SelectionKey key = it.next();
+                it.remove();
+                
+                AbstractNIOClientConnection connection = (AbstractNIOClientConnection) key.attachment();
+                if (!key.isValid()) {
+                    connection.disconnect();
+                    continue;
+                }
+                
+                try {
+                    if (key.isReadable()) connection.handleReadable(readBuffer);
+                    if (key.isValid() && key.isWritable()) connection.handleWritable();
+                } catch (CancelledKeyException e) {
+                    connection.disconnect();
+                } catch (RuntimeException e) {
+                    fail(connection, e);
+                }
+            }
+        }
+        
+        runTasks();
+        
+        for (SelectionKey key : selector.keys()) {
+            try {
+                ((AbstractNIOClientConnection) key.attachment()).disconnect();
+            } catch (RuntimeException e) {
+                access.onError(e);
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {}
+    }
+    
+    /**
+     * Passes an exception thrown while handling a connection to the connection, so only that connection is closed.
+     * If closing it throws as well, the exception is reported to the server.
+     *
+     * @param connection the connection
+     * @param e the exception
+     */
+    protected void fail(AbstractNIOClientConnection connection, RuntimeException e) {
+        try {
+            connection.onEventLoopError(e);
+        } catch (RuntimeException e2) {
+            access.onError(e2);
+        }
+    }
+    
+    /**
+     * Runs all the queued tasks. A failing task is reported to the server, and does not stop the event loop.
+     */
+    protected void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                access.onError(e);
+            }
+        }
+    }
+}
@@ -23,6 +23,12 @@ public class SimpleClient extends AbstractClient {
      */
     @SuppressWarnings("resource")
     public void connect(String host, int port) throws UnknownHostException, IOException, NetworkException {
-        openConnection(new Socket(host, port));
+        Socket socket = new Socket(host, port);
+        try {
+            openConnection(socket);
+        } catch (IOException | NetworkException e) {
+            socket.close();
+            throw e;
+        }
     }
 }
@@ -0,0 +1,40 @@
+package fluff.network.simple;
+
+import java.util.UUID;
+
+import fluff.network.INetHandler;
+import fluff.network.packet.IPacketChannel;
+import fluff.network.packet.PacketContext;
+import fluff.network.server.nio.AbstractNIOClientConnection;
+import fluff.network.server.nio.AbstractNIOServer;
+
+/**
+ * A simple implementation of the {@link AbstractNIOClientConnection} class for managing client connections to a NIO server.
+ */
+public class SimpleNIOClientConnection extends AbstractNIOClientConnection {
+    
+    private final UUID uuid;
+    
+    /**
+     * Constructs a new SimpleNIOClientConnection.
+     * 
+     * @param server the server to which the client is connecting
+     * @param uuid the unique identifier of the client
+     * @param context the packet context for the connection
+     * @param handler the network handler for the connection
+     * @param channel the packet channel for the connection
+     */
+    public SimpleNIOClientConnection(AbstractNIOServer server, UUID uuid, PacketContext<?> context, INetHandler handler, IPacketChannel channel) {
+        super(server);
+        
+        this.uuid = uuid;
+        
+        setContextUnsafe(context, handler);
+        setChannel(channel);
+    }
+    
+    @Override
+    public UUID getUUID() {
+        return uuid;
+    }
+}
@@ -0,0 +1,37 @@
+package fluff.network.simple;
+
+import java.util.UUID;
+
+import fluff.network.server.nio.AbstractNIOClientConnection;
+import fluff.network.server.nio.AbstractNIOServer;
+
+/**
+ * A simple implementation of the {@link AbstractNIOServer} class for managing server connections
+ * with a fixed pool of event loops.
+ */
+public class SimpleNIOServer extends AbstractNIOServer {
+    
+    /**
+     * Constructs a new SimpleNIOServer.
+     * 
+     * @param port the port on which the server will listen for connections
+     * @param eventLoopCount the number of event loop threads
+     */
+    public SimpleNIOServer(int port, int eventLoopCount) {
+        super(port, eventLoopCount);
+    }
+    
+    /**
+     * Constructs a new SimpleNIOServer with one event loop per available processor.
+     * 
+     * @param port the port on which the server will listen for connections
+     */
+    public SimpleNIOServer(int port) {
+        super(port);
+    }
+    
+    @Override
+    protected AbstractNIOClientConnection createConnection() {
+        return new SimpleNIOClientConnection(this, UUID.randomUUID(), defaultContext, defaultHandlerFunc.invoke(), defaultChannelFunc.invoke());
+    }
+}